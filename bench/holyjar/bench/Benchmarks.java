@@ -0,0 +1,496 @@
+package holyjar.bench;
+
+
+import holyjar.Level;
+import holyjar.LogEntry;
+import holyjar.Logger;
+import holyjar.NamedLogger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks runs the benchmark suite for the Logger and Console hot paths and writes the results as JSON.
+ * The multi-process benchmark also checks the log its child JVMs wrote together and fails if it is damaged.
+ * <p>
+ * Usage: {@code java -cp out/main:out/bench holyjar.bench.Benchmarks [options]} with the options
+ * {@code --out <file>} (default bench-results.json), {@code --baseline <file>} to print the change against
+ * an earlier run, {@code --filter <text>} to run only benchmarks whose name contains the text,
+ * {@code --threads 1,4,16,64}, {@code --warmup <iterations>}, {@code --iterations <count>},
+ * {@code --time <millis per iteration>} and {@code --console-calls <calls per iteration>}.
+ */
+public final class Benchmarks {
+
+    // Message of the plain logging benchmarks, about the length of a typical entry
+    private static final String MESSAGE = "User session refreshed, cache entries reloaded from the backing store";
+
+    // Exception logged by the exception benchmark, created once so only the logging path is measured
+    private static final Exception EXCEPTION = nestedException(12);
+
+    // Child JVMs of the multi-process benchmark and the entries each logs per iteration
+    private static final int PROCESSES = 4;
+    private static final int PROCESS_CALLS = 20_000;
+
+    private final Harness harness;
+    private final String filter;
+    private final int[] threadCounts;
+    private final int consoleCalls;
+    private final int warmupIterations;
+    private final Path directory;
+    private final List<Result> results = new ArrayList<>();
+
+    /**
+     * Creates the suite.
+     *
+     * @param harness The harness that runs the in-process benchmarks.
+     * @param filter Only benchmarks whose name contains this text are run.
+     * @param threadCounts The thread counts of the multi-threaded benchmarks.
+     * @param consoleCalls The calls per iteration of the Console benchmarks.
+     * @param warmupIterations The number of warmup iterations.
+     * @param directory The scratch directory for log files and redirected streams.
+     */
+    private Benchmarks(Harness harness, String filter, int[] threadCounts, int consoleCalls, int warmupIterations,
+                       Path directory) {
+        this.harness = harness;
+        this.filter = filter;
+        this.threadCounts = threadCounts;
+        this.consoleCalls = consoleCalls;
+        this.warmupIterations = warmupIterations;
+        this.directory = directory;
+    }
+
+    /**
+     * Runs the suite.
+     *
+     * @param args The command line options.
+     * @throws Exception If a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception {
+        Path out = Paths.get("bench-results.json");
+        Path baseline = null;
+        String filter = "";
+        int[] threadCounts = {1, 4, 16, 64};
+        int warmup = 2;
+        int iterations = 5;
+        long time = 1000;
+        int consoleCalls = 200_000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--out":
+                    out = Paths.get(value);
+                    break;
+                case "--baseline":
+                    baseline = Paths.get(value);
+                    break;
+                case "--filter":
+                    filter = value;
+                    break;
+                case "--threads":
+                    threadCounts = Stream.of(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--time":
+                    time = Long.parseLong(value);
+                    break;
+                case "--console-calls":
+                    consoleCalls = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        Path directory = Files.createTempDirectory("holyjar-bench");
+        Benchmarks suite = new Benchmarks(new Harness(warmup, iterations, time), filter, threadCounts,
+                consoleCalls, warmup, directory);
+        try {
+            suite.runLogger();
+            suite.runConsole();
+            suite.runMultiProcess();
+        } finally {
+            deleteRecursively(directory);
+        }
+        suite.write(out);
+        if (baseline != null) {
+            suite.compare(Result.readThroughput(baseline));
+        }
+    }
+
+    /**
+     * Runs the Logger benchmarks: throughput and latency at each thread count, with one file and sharded,
+     * the parameterized path as text and binary, structured entries as logfmt and JSON, the disabled and flight-recorded paths, rotation near the size limit, the exception path and rate-limited entries.
+     *
+     * @throws Exception If a benchmark fails.
+     */
+    private void runLogger() throws Exception {
+        for (int threads : threadCounts) {
+            NamedLogger log = newLogger("info-" + threads);
+            run("logger.info", threads, (thread, i) -> log.info(MESSAGE));
+            log.flush();
+        }
+
+        // One shard per thread, so the threads do not share a file lock
+        for (int threads : threadCounts) {
+            NamedLogger sharded = newLogger("sharded-" + threads);
+            sharded.enableSharding(threads);
+            run("logger.info.sharded", threads, (thread, i) -> sharded.info(MESSAGE));
+            sharded.disableSharding();
+        }
+
+        NamedLogger parameterized = newLogger("parameterized");
+        run("logger.info.parameterized", 1, (thread, i) -> parameterized.info("Request {} served in {} ms", i, 42));
+
+        // The same entries as binary records, stored without rendering the message
+        NamedLogger binary = newLogger("binary");
+        binary.setFileFormat(Logger.FileFormat.BINARY);
+        run("logger.info.binary", 1, (thread, i) -> binary.info("Request {} served in {} ms", i, 42));
+
+        // Structured entries with typed fields, as logfmt pairs in text and as members in JSON
+        NamedLogger structured = newLogger("structured");
+        run("logger.info.structured", 1, (thread, i) ->
+                structured.at(Level.INFO).kv("userId", i).kv("latencyMs", 4.2).log("Request served"));
+        // An event abandoned because a field value threw must not cost the thread the reuse of its events
+        run("logger.info.structured.afterAbandoned", 1, (thread, i) -> {
+            if (i == 0) {
+                try {
+                    structured.at(Level.INFO).kv("userId", failingValue()).log("Never written");
+                } catch (IllegalStateException e) {
+                    // Expected: the event is never finished
+                }
+            }
+            structured.at(Level.INFO).kv("userId", i).kv("latencyMs", 4.2).log("Request served");
+        });
+        NamedLogger json = newLogger("structured-json");
+        json.setFileFormat(Logger.FileFormat.JSON);
+        run("logger.info.structured.json", 1, (thread, i) ->
+                json.at(Level.INFO).kv("userId", i).kv("latencyMs", 4.2).log("Request served"));
+
+        NamedLogger disabled = newLogger("disabled");
+        disabled.setLevel(Level.INFO);
+        run("logger.debug.disabled", 1, (thread, i) -> disabled.debug(MESSAGE));
+        run("logger.debug.structured.disabled", 1, (thread, i) ->
+                disabled.at(Level.DEBUG).kv("userId", i).kv("latencyMs", 4.2).log("Request served"));
+
+        // Disabled entries still go into the flight recorder
+        NamedLogger recorded = newLogger("recorded");
+        recorded.setLevel(Level.INFO);
+        recorded.enableFlightRecorder(1024 * 1024);
+        run("logger.debug.recorded", 1, (thread, i) -> recorded.debug("Request {} served in {} ms", i, 42));
+        recorded.disableFlightRecorder();
+
+        // A small size limit makes the writer rotate every few thousand entries
+        NamedLogger rotating = newLogger("rotation");
+        rotating.setMaxLogSize(256 * 1024);
+        rotating.setMaxBackupFiles(3);
+        run("logger.info.rotation", 1, (thread, i) -> rotating.info(MESSAGE));
+
+        NamedLogger errors = newLogger("exception");
+        run("logger.error.exception", 1, (thread, i) -> errors.error("Request failed", EXCEPTION));
+
+        // Nearly every entry is suppressed, so this measures the rejection path
+        NamedLogger limited = newLogger("ratelimited");
+        limited.setRateLimit(100, 10);
+        run("logger.error.ratelimited", 1, (thread, i) -> limited.error(MESSAGE));
+        limited.disableRateLimit();
+    }
+
+    /**
+     * Runs the Console benchmarks, each in a child JVM with redirected standard streams.
+     *
+     * @throws Exception If a benchmark fails.
+     */
+    private void runConsole() throws Exception {
+        int lines = consoleCalls * (warmupIterations + harness.getIterations());
+        Path ints = directory.resolve("ints.txt");
+        Path text = directory.resolve("lines.txt");
+        try (BufferedWriter intWriter = Files.newBufferedWriter(ints, StandardCharsets.UTF_8);
+             BufferedWriter lineWriter = Files.newBufferedWriter(text, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                intWriter.write(Integer.toString(ConsoleBenchmark.inputValue(i)));
+                intWriter.newLine();
+                lineWriter.write(ConsoleBenchmark.LINE);
+                lineWriter.newLine();
+            }
+        }
+        runConsole("console.ReadInt", "readInt", ints);
+        // Fails if a line read in the background after a timed ReadLine does not reach the next ReadInt
+        runConsole("console.ReadInt.afterTimeout", "readIntAfterTimeout", ints);
+        runConsole("console.ReadLine", "readLine", text);
+        runConsole("console.WriteLine", "writeLine", null);
+        runConsole("console.WriteLine.int", "writeLineInt", null);
+        runConsole("console.WriteLine.buffered", "writeLineBuffered", null);
+        runConsole("console.WriteLine.int.buffered", "writeLineIntBuffered", null);
+        // Counting items on a progress instead of writing a line for each
+        runConsole("console.progress", "progress", null);
+    }
+
+    /**
+     * Runs one Console benchmark in a child JVM.
+     *
+     * @param name The benchmark name.
+     * @param mode The mode passed to {@link ConsoleBenchmark}.
+     * @param input The file redirected to stdin, or null for none.
+     * @throws Exception If the child JVM fails.
+     */
+    private void runConsole(String name, String mode, Path input) throws Exception {
+        if (!name.contains(filter)) {
+            return;
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ConsoleBenchmark.class.getName(), mode, Integer.toString(consoleCalls),
+                Integer.toString(warmupIterations), Integer.toString(harness.getIterations()));
+        builder.redirectInput(input != null ? input.toFile() : new File(System.getProperty("os.name")
+                .startsWith("Windows") ? "NUL" : "/dev/null"));
+        builder.redirectOutput(directory.resolve("stdout.txt").toFile());
+        Process process = builder.start();
+        String output = new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        if (process.waitFor() != 0) {
+            throw new IOException(name + " failed: " + output);
+        }
+
+        // Line format: throughputs;p50;p99;p999;max;bytesPerOp
+        String[] fields = output.substring(output.lastIndexOf('\n') + 1).split(";");
+        double[] throughput = Stream.of(fields[0].split(",")).mapToDouble(Double::parseDouble).toArray();
+        record(new Result(name, 1, throughput, Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                Long.parseLong(fields[3]), Long.parseLong(fields[4]), Double.parseDouble(fields[5])));
+    }
+
+    /**
+     * Runs the multi-process benchmark: several child JVMs log to one file in multi-process mode at the same time,
+     * rotating it many times. Afterwards the file and its backups are read back, and the benchmark fails unless
+     * every entry of every process arrived complete and in order.
+     *
+     * @throws Exception If a child JVM fails or the log is damaged.
+     */
+    private void runMultiProcess() throws Exception {
+        String name = "logger.info.multiprocess";
+        if (!name.contains(filter)) {
+            return;
+        }
+        Path logPath = directory.resolve("multiprocess.log");
+        Path start = directory.resolve("multiprocess.start");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        List<BufferedReader> outputs = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    MultiProcessBenchmark.class.getName(), logPath.toString(), start.toString(), Integer.toString(i),
+                    Integer.toString(PROCESS_CALLS), Integer.toString(warmupIterations),
+                    Integer.toString(harness.getIterations()));
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            Process process = builder.start();
+            processes.add(process);
+            BufferedReader output = new BufferedReader(new InputStreamReader(process.getErrorStream(),
+                    StandardCharsets.UTF_8));
+            outputs.add(output);
+            // Each child reports once it is ready, so all of them start logging together
+            String ready = output.readLine();
+            if (!"ready".equals(ready)) {
+                throw new IOException(name + " failed: " + ready);
+            }
+        }
+        Files.createFile(start);
+
+        // Line format: throughputs;p50;p99;p999;max; the throughputs of the processes add up
+        double[] throughput = new double[harness.getIterations()];
+        long[] latencies = new long[4];
+        for (int i = 0; i < PROCESSES; i++) {
+            StringBuilder output = new StringBuilder();
+            String line;
+            String last = "";
+            while ((line = outputs.get(i).readLine()) != null) {
+                output.append(line).append('\n');
+                last = line;
+            }
+            if (processes.get(i).waitFor() != 0) {
+                throw new IOException(name + " failed: " + output);
+            }
+            String[] fields = last.split(";");
+            double[] values = Stream.of(fields[0].split(",")).mapToDouble(Double::parseDouble).toArray();
+            for (int iteration = 0; iteration < throughput.length; iteration++) {
+                throughput[iteration] += values[iteration];
+            }
+            for (int k = 0; k < latencies.length; k++) {
+                latencies[k] = Math.max(latencies[k], Long.parseLong(fields[k + 1]));
+            }
+        }
+        verifyMultiProcessLog(logPath, PROCESS_CALLS * (warmupIterations + harness.getIterations()));
+        record(new Result(name, PROCESSES, throughput, latencies[0], latencies[1], latencies[2], latencies[3], -1));
+    }
+
+    /**
+     * Reads back the log written by the multi-process benchmark and checks that each process's entries
+     * are all there, undamaged and in the order they were logged, and that every full file was rotated
+     * once, just past the size limit, rather than by several processes at once.
+     *
+     * @param logPath The shared log file.
+     * @param entriesPerProcess The number of entries each process logged.
+     * @throws IOException If the log is damaged.
+     */
+    private static void verifyMultiProcessLog(Path logPath, int entriesPerProcess) throws IOException {
+        // A file is rotated by the first batch written after it passed the limit, and a batch is at most 64 KB
+        String prefix = logPath.getFileName() + ".";
+        try (Stream<Path> files = Files.list(logPath.getParent())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.startsWith(prefix) || fileName.endsWith(".lock") || fileName.endsWith(".idx")) {
+                    continue;
+                }
+                long size = Files.size(file);
+                if (size <= MultiProcessBenchmark.MAX_LOG_SIZE || size > MultiProcessBenchmark.MAX_LOG_SIZE + 64 * 1024) {
+                    throw new IOException("Rotated file " + fileName + " has " + size + " bytes, expected just over "
+                            + MultiProcessBenchmark.MAX_LOG_SIZE);
+                }
+            }
+        }
+
+        NamedLogger reader = Logger.get("bench-multiprocess-reader");
+        reader.setLogFilePath(logPath.toString());
+        int[] next = new int[PROCESSES];
+        try (Stream<LogEntry> entries = reader.query(null, null, Level.DEBUG)) {
+            for (LogEntry entry : (Iterable<LogEntry>) entries::iterator) {
+                String[] fields = entry.getMessage().split(" ", 3);
+                int process = fields.length == 3 && fields[0].matches("p\\d") ? fields[0].charAt(1) - '0' : -1;
+                if (process < 0 || process >= PROCESSES || !fields[1].equals(Integer.toString(next[process]))
+                        || !fields[2].equals(ConsoleBenchmark.LINE)) {
+                    throw new IOException("Damaged or reordered entry in the shared log: " + entry);
+                }
+                next[process]++;
+            }
+        }
+        for (int process = 0; process < PROCESSES; process++) {
+            if (next[process] != entriesPerProcess) {
+                throw new IOException("Process " + process + " has " + next[process] + " entries in the shared log, "
+                        + "expected " + entriesPerProcess);
+            }
+        }
+    }
+
+    /**
+     * Runs one in-process benchmark if it matches the filter.
+     *
+     * @param name The benchmark name.
+     * @param threads The number of calling threads.
+     * @param operation The benchmarked call.
+     * @throws Exception If the benchmark fails.
+     */
+    private void run(String name, int threads, Harness.Operation operation) throws Exception {
+        if (name.contains(filter)) {
+            record(harness.measure(name, threads, operation));
+        }
+    }
+
+    /**
+     * Keeps a result and prints it.
+     *
+     * @param result The result.
+     */
+    private void record(Result result) {
+        results.add(result);
+        System.out.println(result);
+    }
+
+    /**
+     * Stands in for a field value whose computation fails.
+     *
+     * @return Never.
+     */
+    private static long failingValue() {
+        throw new IllegalStateException("Field value not available");
+    }
+
+    /**
+     * Creates a logger that writes into the scratch directory.
+     *
+     * @param name The logger and file name.
+     * @return The logger.
+     */
+    private NamedLogger newLogger(String name) {
+        NamedLogger log = Logger.get("bench-" + name);
+        log.setLogFilePath(directory.resolve(name + ".log").toString());
+        return log;
+    }
+
+    /**
+     * Writes all results as a JSON document with one benchmark per line.
+     *
+     * @param out The results file.
+     * @throws IOException If the file cannot be written.
+     */
+    private void write(Path out) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n\"timestamp\":\"").append(Instant.now()).append("\",\n");
+        json.append("\"jvm\":\"").append(System.getProperty("java.vm.name")).append(' ')
+                .append(System.getProperty("java.version")).append("\",\n");
+        json.append("\"processors\":").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("\"benchmarks\":[\n");
+        for (int i = 0; i < results.size(); i++) {
+            json.append(results.get(i).toJson()).append(i + 1 < results.size() ? ",\n" : "\n");
+        }
+        json.append("]\n}\n");
+        Files.write(out, json.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    /**
+     * Prints the throughput change of every benchmark against a baseline run.
+     *
+     * @param baseline The baseline throughput keyed by {@link Result#key()}.
+     */
+    private void compare(Map<String, Double> baseline) {
+        System.out.println("Change against baseline:");
+        for (Result result : results) {
+            Double before = baseline.get(result.key());
+            if (before != null && before > 0) {
+                System.out.printf(Locale.ROOT, "%-32s %3d threads %+7.1f%%%n", result.name, result.threads,
+                        100 * (result.opsPerSecond - before) / before);
+            }
+        }
+    }
+
+    /**
+     * Creates an exception with a cause and a stack of the given depth.
+     *
+     * @param depth The number of nested calls below the throwing frame.
+     * @return The exception.
+     */
+    private static Exception nestedException(int depth) {
+        if (depth == 0) {
+            return new IllegalStateException("Connection reset by peer", new IOException("Broken pipe"));
+        }
+        return nestedException(depth - 1);
+    }
+
+    /**
+     * Deletes a directory tree, ignoring files that cannot be deleted.
+     *
+     * @param directory The directory.
+     * @throws IOException If the tree cannot be listed.
+     */
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
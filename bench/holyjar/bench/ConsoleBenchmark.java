@@ -0,0 +1,172 @@
+package holyjar.bench;
+
+
+import holyjar.Console;
+import holyjar.ConsoleProgress;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * ConsoleBenchmark measures the Console read and write methods over redirected standard streams.
+ * Console binds to System.in when the class is loaded, so every run happens in a child JVM whose stdin
+ * is a generated input file and whose stdout is a scratch file; {@link Benchmarks} starts it and
+ * reads the single result line it prints to stderr.
+ */
+public final class ConsoleBenchmark {
+
+    // Every n-th call is timed individually
+    private static final int LATENCY_SAMPLE_INTERVAL = 8;
+
+    // Line repeated by the ReadLine and WriteLine benchmarks
+    static final String LINE = "The quick brown fox jumps over the lazy dog, again and again and again";
+
+    // Progress updated by the progress benchmark, which stands in for a WriteLine per item
+    private static ConsoleProgress progress;
+
+    // Number of the next input line, for checking that no line is lost between timed and typed reads
+    private static int nextLine;
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private ConsoleBenchmark() {
+        // This constructor is intentionally empty to prevent instantiation
+    }
+
+    /**
+     * Runs one Console benchmark.
+     *
+     * @param args The mode ("readInt", "readIntAfterTimeout", "readLine", "writeLine", "writeLineInt" or
+     *             "progress", optionally with the suffix "Buffered" for the buffered output mode), the calls per
+     *             iteration, the number of warmup
+     *             iterations and the number of measured iterations.
+     */
+    public static void main(String[] args) {
+        String mode = args[0];
+        if (mode.endsWith("Buffered")) {
+            Console.setOutputMode(Console.OutputMode.BUFFERED);
+            mode = mode.substring(0, mode.length() - "Buffered".length());
+        }
+        int calls = Integer.parseInt(args[1]);
+        int warmupIterations = Integer.parseInt(args[2]);
+        int iterations = Integer.parseInt(args[3]);
+        if (mode.equals("progress")) {
+            progress = Console.StartProgress("benchmark", (long) calls * (warmupIterations + iterations));
+        }
+
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(mode, calls, null);
+        }
+        double[] throughput = new double[iterations];
+        long[] samples = new long[iterations * (calls / LATENCY_SAMPLE_INTERVAL + 1)];
+        int[] sampleCount = new int[1];
+        long allocatedBefore = Harness.allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long begin = System.nanoTime();
+            runIteration(mode, calls, new Sampler(samples, sampleCount));
+            throughput[i] = calls * 1e9 / (System.nanoTime() - begin);
+        }
+        long allocated = Harness.allocatedBytes() - allocatedBefore;
+        if (progress != null) {
+            progress.close();
+        }
+        System.out.flush();
+
+        long[] sorted = Arrays.copyOf(samples, sampleCount[0]);
+        Arrays.sort(sorted);
+        StringJoiner values = new StringJoiner(",");
+        for (double value : throughput) {
+            values.add(String.format(Locale.ROOT, "%.1f", value));
+        }
+        System.err.printf(Locale.ROOT, "%s;%d;%d;%d;%d;%.1f%n", values,
+                Harness.percentile(sorted, 50), Harness.percentile(sorted, 99), Harness.percentile(sorted, 99.9),
+                sorted.length > 0 ? sorted[sorted.length - 1] : 0,
+                allocatedBefore < 0 ? -1.0 : (double) allocated / ((long) calls * iterations));
+    }
+
+    /**
+     * Calls the benchmarked method a number of times.
+     *
+     * @param mode The benchmarked method.
+     * @param calls The number of calls.
+     * @param sampler Where sampled latencies go, or null during warmup.
+     */
+    private static void runIteration(String mode, int calls, Sampler sampler) {
+        long sink = 0;
+        for (int i = 0; i < calls; i++) {
+            boolean sampled = sampler != null && i % LATENCY_SAMPLE_INTERVAL == 0;
+            long begin = sampled ? System.nanoTime() : 0;
+            switch (mode) {
+                case "readInt":
+                    sink += Console.ReadInt();
+                    break;
+                case "readIntAfterTimeout":
+                    // A line the timed read gives up on has to reach the typed read that follows it
+                    String line = Console.ReadLine(Duration.ZERO);
+                    int value = line != null ? Integer.parseInt(line.trim()) : Console.ReadInt();
+                    int expected = inputValue(nextLine++);
+                    if (value != expected) {
+                        throw new IllegalStateException("Lost console input: read " + value + " instead of " + expected);
+                    }
+                    sink += value;
+                    break;
+                case "readLine":
+                    sink += Console.ReadLine().length();
+                    break;
+                case "writeLine":
+                    Console.WriteLine(LINE);
+                    break;
+                case "writeLineInt":
+                    Console.WriteLine(i);
+                    break;
+                case "progress":
+                    progress.increment();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown mode: " + mode);
+            }
+            if (sampled) {
+                sampler.add(System.nanoTime() - begin);
+            }
+        }
+        // Buffered output counts only once it has been written
+        Console.flush();
+        if (sink == 42) {
+            // Keeps the reads from being optimized away
+            System.err.print("");
+        }
+    }
+
+    /**
+     * Returns the value on a line of the generated integer input.
+     *
+     * @param line The number of the line, from 0.
+     * @return The value.
+     */
+    static int inputValue(int line) {
+        return line * 7919 - 1_000_000;
+    }
+
+    /**
+     * Collects latency samples into a shared array.
+     */
+    static final class Sampler {
+
+        private final long[] samples;
+        private final int[] count;
+
+        Sampler(long[] samples, int[] count) {
+            this.samples = samples;
+            this.count = count;
+        }
+
+        void add(long nanos) {
+            if (count[0] < samples.length) {
+                samples[count[0]++] = nanos;
+            }
+        }
+    }
+}
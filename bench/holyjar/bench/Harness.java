@@ -0,0 +1,238 @@
+package holyjar.bench;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Harness runs one benchmark operation on a fixed number of threads and measures throughput,
+ * the latency distribution of single calls and the bytes allocated per call by the calling threads.
+ * Every benchmark gets warmup iterations, whose results are discarded, followed by measured iterations.
+ */
+final class Harness {
+
+    // Every n-th call is timed individually; timing every call would distort the fastest benchmarks
+    private static final int LATENCY_SAMPLE_INTERVAL = 8;
+
+    // Latency samples kept per thread and iteration; older samples are overwritten
+    private static final int MAX_SAMPLES_PER_THREAD = 1 << 16;
+
+    /**
+     * A single benchmarked call.
+     */
+    interface Operation {
+
+        /**
+         * Performs the call once.
+         *
+         * @param thread The index of the calling thread, from 0 to threads - 1.
+         * @param iteration The number of calls this thread made before.
+         * @throws Exception If the call fails, which aborts the benchmark.
+         */
+        void run(int thread, long iteration) throws Exception;
+    }
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationMillis;
+
+    /**
+     * Creates a harness.
+     *
+     * @param warmupIterations The number of iterations run before measuring.
+     * @param iterations The number of measured iterations.
+     * @param iterationMillis The duration of each iteration in milliseconds.
+     */
+    Harness(int warmupIterations, int iterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Returns the number of measured iterations.
+     *
+     * @return The iteration count.
+     */
+    int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Runs an operation and measures it.
+     *
+     * @param name The benchmark name.
+     * @param threads The number of threads calling the operation concurrently.
+     * @param operation The operation.
+     * @return The result over all measured iterations.
+     * @throws Exception If the operation fails.
+     */
+    Result measure(String name, int threads, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(threads, operation);
+        }
+        double[] throughput = new double[iterations];
+        long totalCalls = 0;
+        long totalBytes = 0;
+        long[] samples = new long[0];
+        for (int i = 0; i < iterations; i++) {
+            Iteration iteration = runIteration(threads, operation);
+            throughput[i] = iteration.calls * 1e9 / iteration.nanos;
+            totalCalls += iteration.calls;
+            totalBytes += iteration.allocatedBytes;
+            samples = concat(samples, iteration.samples);
+        }
+        Arrays.sort(samples);
+        return new Result(name, threads, throughput,
+                percentile(samples, 50), percentile(samples, 99), percentile(samples, 99.9),
+                samples.length > 0 ? samples[samples.length - 1] : 0,
+                totalBytes < 0 ? -1 : (double) totalBytes / Math.max(1, totalCalls));
+    }
+
+    /**
+     * Runs one iteration on fresh threads, which all start together and stop when the time is up.
+     *
+     * @param threads The number of threads.
+     * @param operation The operation.
+     * @return The measurements of the iteration.
+     * @throws Exception If the operation fails.
+     */
+    private Iteration runIteration(int threads, Operation operation) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t, operation, running, start);
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        Thread.sleep(iterationMillis);
+        running.set(false);
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - begin;
+
+        Iteration result = new Iteration();
+        result.nanos = nanos;
+        result.samples = new long[0];
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw worker.failure;
+            }
+            result.calls += worker.calls;
+            result.allocatedBytes = worker.allocatedBytes < 0 || result.allocatedBytes < 0
+                    ? -1 : result.allocatedBytes + worker.allocatedBytes;
+            result.samples = concat(result.samples, Arrays.copyOf(worker.samples, worker.sampleCount));
+        }
+        return result;
+    }
+
+    /**
+     * Measurements of one iteration.
+     */
+    private static final class Iteration {
+        long nanos;
+        long calls;
+        long allocatedBytes;
+        long[] samples;
+    }
+
+    /**
+     * A benchmark thread that calls the operation until the iteration ends.
+     */
+    private static final class Worker extends Thread {
+
+        private final int index;
+        private final Operation operation;
+        private final AtomicBoolean running;
+        private final CyclicBarrier start;
+
+        private final long[] samples = new long[MAX_SAMPLES_PER_THREAD];
+        private int sampleCount;
+        private long calls;
+        private long allocatedBytes;
+        private Exception failure;
+
+        Worker(int index, Operation operation, AtomicBoolean running, CyclicBarrier start) {
+            super("holyjar-bench-" + index);
+            this.index = index;
+            this.operation = operation;
+            this.running = running;
+            this.start = start;
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+                long allocatedBefore = allocatedBytes();
+                long call = 0;
+                while (running.get()) {
+                    if (call % LATENCY_SAMPLE_INTERVAL == 0) {
+                        long begin = System.nanoTime();
+                        operation.run(index, call);
+                        long latency = System.nanoTime() - begin;
+                        samples[sampleCount++ & (MAX_SAMPLES_PER_THREAD - 1)] = latency;
+                    } else {
+                        operation.run(index, call);
+                    }
+                    call++;
+                }
+                long allocatedAfter = allocatedBytes();
+                calls = call;
+                sampleCount = Math.min(sampleCount, MAX_SAMPLES_PER_THREAD);
+                allocatedBytes = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes allocated so far by the current thread.
+     *
+     * @return The allocated bytes, or -1 if the JVM does not report them.
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a percentile of sorted samples.
+     *
+     * @param sorted The samples in ascending order.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The sample at the percentile, or 0 if there are no samples.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Concatenates two arrays.
+     *
+     * @param first The first array.
+     * @param second The second array.
+     * @return A new array with the elements of both.
+     */
+    private static long[] concat(long[] first, long[] second) {
+        long[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
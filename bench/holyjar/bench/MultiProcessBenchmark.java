@@ -0,0 +1,108 @@
+package holyjar.bench;
+
+
+import holyjar.Logger;
+import holyjar.NamedLogger;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * MultiProcessBenchmark is one of several child JVMs that log to the same file in multi-process mode at the same
+ * time. {@link Benchmarks} starts the children, releases them together once all are ready, reads the result line
+ * each prints to stderr, and then reads the shared log back to check that no entry was lost or interleaved.
+ */
+public final class MultiProcessBenchmark {
+
+    // Every n-th call is timed individually
+    private static final int LATENCY_SAMPLE_INTERVAL = 8;
+
+    // Size limit of the shared log, small enough that the processes rotate it many times
+    static final long MAX_LOG_SIZE = 1024 * 1024;
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private MultiProcessBenchmark() {
+        // This constructor is intentionally empty to prevent instantiation
+    }
+
+    /**
+     * Logs the entries of one process.
+     *
+     * @param args The shared log file, the start file whose creation releases the process, the process number,
+     *             the calls per iteration, the number of warmup iterations and the number of measured iterations.
+     * @throws Exception If waiting for the start fails.
+     */
+    public static void main(String[] args) throws Exception {
+        String logPath = args[0];
+        Path start = Paths.get(args[1]);
+        int process = Integer.parseInt(args[2]);
+        int calls = Integer.parseInt(args[3]);
+        int warmupIterations = Integer.parseInt(args[4]);
+        int iterations = Integer.parseInt(args[5]);
+
+        NamedLogger log = Logger.get("multiprocess");
+        log.setLogFilePath(logPath);
+        log.setMaxLogSize(MAX_LOG_SIZE);
+        log.setMaxBackupFiles(200);
+        log.setMultiProcess(true);
+        log.setDurability(Logger.Durability.BATCHED, 512, 100);
+
+        System.err.println("ready");
+        while (!Files.exists(start)) {
+            Thread.sleep(1);
+        }
+
+        // Entries are numbered across all iterations so the reader can check their order per process
+        int[] next = new int[1];
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(log, process, next, calls, null);
+        }
+        double[] throughput = new double[iterations];
+        long[] samples = new long[iterations * (calls / LATENCY_SAMPLE_INTERVAL + 1)];
+        int[] sampleCount = new int[1];
+        for (int i = 0; i < iterations; i++) {
+            long begin = System.nanoTime();
+            runIteration(log, process, next, calls, new ConsoleBenchmark.Sampler(samples, sampleCount));
+            throughput[i] = calls * 1e9 / (System.nanoTime() - begin);
+        }
+
+        long[] sorted = Arrays.copyOf(samples, sampleCount[0]);
+        Arrays.sort(sorted);
+        StringJoiner values = new StringJoiner(",");
+        for (double value : throughput) {
+            values.add(String.format(Locale.ROOT, "%.1f", value));
+        }
+        System.err.printf(Locale.ROOT, "%s;%d;%d;%d;%d%n", values, Harness.percentile(sorted, 50),
+                Harness.percentile(sorted, 99), Harness.percentile(sorted, 99.9),
+                sorted.length > 0 ? sorted[sorted.length - 1] : 0);
+    }
+
+    /**
+     * Logs a number of numbered entries and writes them out.
+     *
+     * @param log The logger of the shared file.
+     * @param process The process number, written into every entry.
+     * @param next The number of the next entry of this process.
+     * @param calls The number of calls.
+     * @param sampler Where sampled latencies go, or null during warmup.
+     */
+    private static void runIteration(NamedLogger log, int process, int[] next, int calls,
+                                     ConsoleBenchmark.Sampler sampler) {
+        for (int i = 0; i < calls; i++) {
+            boolean sampled = sampler != null && i % LATENCY_SAMPLE_INTERVAL == 0;
+            long begin = sampled ? System.nanoTime() : 0;
+            log.info("p{} {} {}", process, next[0]++, ConsoleBenchmark.LINE);
+            if (sampled) {
+                sampler.add(System.nanoTime() - begin);
+            }
+        }
+        // Buffered entries count only once they have been written
+        log.flush();
+    }
+}
@@ -0,0 +1,131 @@
+package holyjar.bench;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The measurements of one benchmark, written as one JSON object per line so that results files
+ * stay easy to diff and can be read back as a baseline without a JSON library.
+ */
+final class Result {
+
+    // Extracts the key and the throughput from a line written by toJson()
+    private static final Pattern LINE = Pattern.compile(
+            "\"name\":\"([^\"]*)\",\"threads\":(\\d+),\"opsPerSecond\":([0-9.Ee+-]+)");
+
+    final String name;
+    final int threads;
+    final double opsPerSecond;
+    final double opsPerSecondError;
+    final long p50Nanos;
+    final long p99Nanos;
+    final long p999Nanos;
+    final long maxNanos;
+    final double allocatedBytesPerOp;
+
+    /**
+     * Creates a result from the throughput of each measured iteration.
+     *
+     * @param name The benchmark name.
+     * @param threads The number of calling threads.
+     * @param throughput The calls per second of each iteration.
+     * @param p50Nanos The median call latency.
+     * @param p99Nanos The 99th percentile of the call latency.
+     * @param p999Nanos The 99.9th percentile of the call latency.
+     * @param maxNanos The longest sampled call.
+     * @param allocatedBytesPerOp The bytes allocated per call by the calling threads, or -1 if unknown.
+     */
+    Result(String name, int threads, double[] throughput, long p50Nanos, long p99Nanos, long p999Nanos,
+           long maxNanos, double allocatedBytesPerOp) {
+        this.name = name;
+        this.threads = threads;
+        double sum = 0;
+        for (double value : throughput) {
+            sum += value;
+        }
+        double mean = sum / Math.max(1, throughput.length);
+        double squares = 0;
+        for (double value : throughput) {
+            squares += (value - mean) * (value - mean);
+        }
+        this.opsPerSecond = mean;
+        this.opsPerSecondError = throughput.length > 1 ? Math.sqrt(squares / (throughput.length - 1)) : 0;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+        this.allocatedBytesPerOp = allocatedBytesPerOp;
+    }
+
+    /**
+     * Returns the key that identifies this benchmark across runs.
+     *
+     * @return The name and thread count.
+     */
+    String key() {
+        return key(name, threads);
+    }
+
+    /**
+     * Renders the result as a single-line JSON object.
+     *
+     * @return The JSON text.
+     */
+    String toJson() {
+        return String.format(Locale.ROOT,
+                "{\"name\":\"%s\",\"threads\":%d,\"opsPerSecond\":%.1f,\"opsPerSecondError\":%.1f,"
+                        + "\"latencyNanos\":{\"p50\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d},\"allocatedBytesPerOp\":%.1f}",
+                name, threads, opsPerSecond, opsPerSecondError, p50Nanos, p99Nanos, p999Nanos, maxNanos,
+                allocatedBytesPerOp);
+    }
+
+    /**
+     * Renders the result as a human-readable line.
+     *
+     * @return The summary.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%-32s %3d threads %14.0f ops/s +- %5.1f%%  p50 %8d ns  p99 %9d ns  %8.1f B/op",
+                name, threads, opsPerSecond, opsPerSecond > 0 ? 100 * opsPerSecondError / opsPerSecond : 0,
+                p50Nanos, p99Nanos, allocatedBytesPerOp);
+    }
+
+    /**
+     * Reads the throughput of every benchmark from a results file written earlier.
+     *
+     * @param file The results file.
+     * @return The throughput keyed by {@link #key()}.
+     * @throws IOException If the file cannot be read.
+     */
+    static Map<String, Double> readThroughput(Path file) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            Matcher matcher = LINE.matcher(line);
+            if (matcher.find()) {
+                baseline.put(key(matcher.group(1), Integer.parseInt(matcher.group(2))),
+                        Double.parseDouble(matcher.group(3)));
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * Builds the key of a benchmark.
+     *
+     * @param name The benchmark name.
+     * @param threads The number of calling threads.
+     * @return The key.
+     */
+    private static String key(String name, int threads) {
+        return name + "@" + threads;
+    }
+}
@@ -0,0 +1,271 @@
+package holyjar;
+
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AsyncLogWriter decouples logging threads from disk I/O.
+ * Callers copy their entry into a preallocated bounded ring buffer and return immediately,
+ * while a single background thread drains the buffer in batches and hands the entries to the writer.
+ */
+final class AsyncLogWriter {
+
+    /**
+     * Receives the entries drained from the ring buffer on the writer thread.
+     */
+    interface EntryHandler {
+
+        /**
+         * Writes a batch of entries. The slots are only valid for the duration of the call.
+         *
+         * @param timestamps The entry timestamps in epoch milliseconds.
+         * @param levels The entry log levels.
+         * @param messages The entry messages.
+         * @param throwables The exceptions still to be rendered into the entries, null where there is none.
+         * @param count The number of valid entries in the arrays.
+         */
+        void write(long[] timestamps, String[] levels, String[] messages, Throwable[] throwables, int count);
+    }
+
+    // Maximum number of entries handed to the handler in one batch
+    private static final int MAX_BATCH = 256;
+
+    // How long the writer thread parks before re-checking its running flag
+    private static final long IDLE_WAIT_MILLIS = 100;
+
+    // Preallocated ring buffer storage, one array per entry field to avoid per-entry objects
+    private final long[] timestamps;
+    private final String[] levels;
+    private final String[] messages;
+    private final Throwable[] throwables;
+    private final int capacity;
+
+    // Batch arrays owned by the writer thread
+    private final long[] batchTimestamps = new long[MAX_BATCH];
+    private final String[] batchLevels = new String[MAX_BATCH];
+    private final String[] batchMessages = new String[MAX_BATCH];
+    private final Throwable[] batchThrowables = new Throwable[MAX_BATCH];
+
+    // Lock guarding the ring buffer indices; held only for the copy, never during I/O
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition progressed = lock.newCondition();
+
+    // Sequence of the next entry to read, the next slot to write and the entries already written
+    private long head;
+    private long tail;
+    private long completed;
+
+    private final Logger.OverflowPolicy policy;
+    private final EntryHandler handler;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread thread;
+    private final Thread shutdownHook;
+    private volatile boolean running = true;
+
+    /**
+     * Creates and starts an asynchronous writer.
+     *
+     * @param capacity The number of entries the ring buffer can hold.
+     * @param policy What to do with new entries while the ring buffer is full.
+     * @param handler The handler that performs the actual write on the writer thread.
+     */
+    AsyncLogWriter(int capacity, Logger.OverflowPolicy policy, EntryHandler handler) {
+        this.capacity = capacity > 0 ? capacity : 1;
+        this.timestamps = new long[this.capacity];
+        this.levels = new String[this.capacity];
+        this.messages = new String[this.capacity];
+        this.throwables = new Throwable[this.capacity];
+        this.policy = policy;
+        this.handler = handler;
+
+        this.thread = new Thread(this::drainLoop, "holyjar-log-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+
+        // Drain whatever is still buffered when the JVM exits normally
+        this.shutdownHook = new Thread(this::shutdown, "holyjar-log-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Puts an entry into the ring buffer according to the overflow policy.
+     *
+     * @param timestamp The entry timestamp in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param thrown The exception to render into the entry on the writer thread, or null for none.
+     * @return True if the entry was accepted or deliberately dropped, false if the writer is stopped
+     *         and the caller has to write the entry itself.
+     */
+    boolean offer(long timestamp, String level, String message, Throwable thrown) {
+        lock.lock();
+        try {
+            while (true) {
+                if (!running) {
+                    return false;
+                }
+                long limit = policy == Logger.OverflowPolicy.DROP_LOWEST_LEVELS ? admissionLimit(level) : capacity;
+                if (tail - head < Math.min(limit, capacity)) {
+                    break;
+                }
+                if (policy == Logger.OverflowPolicy.DROP_AND_COUNT
+                        || (policy == Logger.OverflowPolicy.DROP_LOWEST_LEVELS && limit <= capacity)) {
+                    dropped.incrementAndGet();
+                    return true;
+                }
+                if (Thread.currentThread() == thread) {
+                    // The writer itself cannot wait for space it has to create
+                    return false;
+                }
+                notFull.awaitUninterruptibly();
+            }
+
+            int index = (int) (tail % capacity);
+            timestamps[index] = timestamp;
+            levels[index] = level;
+            messages[index] = message;
+            throwables[index] = thrown;
+            tail++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many entries the ring buffer admits before an entry of the given level is dropped.
+     * Under DROP_LOWEST_LEVELS debug entries are shed at half capacity and info entries at three quarters,
+     * warnings only when the buffer is full, while errors and fatal entries wait for space.
+     *
+     * @param level The log level of the entry.
+     * @return The occupancy at which the entry is no longer admitted.
+     */
+    private long admissionLimit(String level) {
+        switch (Logger.severity(level)) {
+            case 0:
+                return Math.max(1, capacity / 2);
+            case 1:
+                return Math.max(1, capacity - capacity / 4);
+            case 2:
+                return capacity;
+            default:
+                // Errors are never dropped; reporting an unreachable limit makes offer() block instead
+                return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Blocks until every entry accepted before this call has been handed to the writer.
+     */
+    void flush() {
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        lock.lock();
+        try {
+            long target = tail;
+            while (completed < target && thread.isAlive()) {
+                progressed.await(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting entries, drains the ring buffer and waits for the writer thread to finish.
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down, the hook is running or has run
+        }
+    }
+
+    /**
+     * Returns the number of entries dropped because the ring buffer was full.
+     *
+     * @return The dropped entry count.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Main loop of the writer thread: copies batches out of the ring buffer and writes them without holding the lock.
+     */
+    private void drainLoop() {
+        while (true) {
+            int count;
+            lock.lock();
+            try {
+                while (head == tail) {
+                    if (!running) {
+                        progressed.signalAll();
+                        return;
+                    }
+                    notEmpty.await(IDLE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                count = (int) Math.min(MAX_BATCH, tail - head);
+                for (int i = 0; i < count; i++) {
+                    int index = (int) ((head + i) % capacity);
+                    batchTimestamps[i] = timestamps[index];
+                    batchLevels[i] = levels[index];
+                    batchMessages[i] = messages[index];
+                    batchThrowables[i] = throwables[index];
+                    levels[index] = null;
+                    messages[index] = null;
+                    throwables[index] = null;
+                }
+                head += count;
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                // Only shutdown() stops the writer; keep draining
+                continue;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                handler.write(batchTimestamps, batchLevels, batchMessages, batchThrowables, count);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to write log: " + e.getMessage());
+            }
+            Arrays.fill(batchMessages, 0, count, null);
+            Arrays.fill(batchThrowables, 0, count, null);
+
+            lock.lock();
+            try {
+                completed += count;
+                progressed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
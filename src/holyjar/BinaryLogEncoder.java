@@ -0,0 +1,335 @@
+package holyjar;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BinaryLogEncoder turns a log entry into a compact record for log files in {@link Logger.FileFormat#BINARY}
+ * format, without rendering its message: the time as a varint of epoch milliseconds, a level byte, the id of the
+ * message template and the arguments as raw values. Each thread owns one encoder with a reusable byte buffer.
+ * <p>
+ * A binary file starts with {@link #MAGIC} and is a sequence of records, each starting with its kind:
+ * <ul>
+ *     <li>{@link #DEFINE}: a template id and the template. Every id is defined in a file before it is used.</li>
+ *     <li>{@link #ENTRY}: the time, the level, the template id and the arguments, or id 0 and the message
+ *     for entries without a template, followed by the rendered exception, if any.</li>
+ *     <li>{@link #SEQUENCED_ENTRY}: an eight-byte sequence number, filled in with {@link #putSequence}, followed by
+ *     an entry as above, for the files of a sharded log.</li>
+ * </ul>
+ * Varints are unsigned LEB128, strings are a varint byte length followed by UTF-8 bytes, and integer arguments
+ * are zigzag varints. {@link LogDecoder} reads the records back.
+ */
+final class BinaryLogEncoder {
+
+    // Start of every binary log file: a zero byte, which never starts a text entry, "HJLB" and the format version
+    static final byte[] MAGIC = {0, 'H', 'J', 'L', 'B', 1};
+
+    // Record kinds; a zero byte where a record should start marks the end of the data
+    static final int DEFINE = 1;
+    static final int ENTRY = 2;
+    static final int SEQUENCED_ENTRY = 3;
+
+    // Level byte of an entry with a custom level label, which follows as a string
+    static final int CUSTOM_LEVEL = 0xFF;
+
+    // Tags of the argument values
+    static final int NULL = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int FLOAT = 3;
+    static final int TRUE = 4;
+    static final int FALSE = 5;
+    static final int STRING = 6;
+
+    // Longest template that is interned and the most templates per log file; other entries are stored rendered
+    private static final int MAX_TEMPLATE_LENGTH = 1024;
+    private static final int MAX_TEMPLATES = 16 * 1024;
+
+    // Most bytes of a varint
+    private static final int MAX_VARINT_LENGTH = 10;
+
+    // One encoder per thread, so encoding needs no locking
+    private static final ThreadLocal<BinaryLogEncoder> ENCODERS = ThreadLocal.withInitial(BinaryLogEncoder::new);
+
+    // Reusable output buffer, a ByteBuffer view over it and the current write position
+    private byte[] bytes = new byte[1024];
+    private ByteBuffer view = ByteBuffer.wrap(bytes);
+    private int position;
+
+    /**
+     * Creates an encoder. Use {@link #get()} to obtain the encoder of the current thread.
+     */
+    private BinaryLogEncoder() {
+        // This constructor is intentionally empty; encoders are obtained through get()
+    }
+
+    /**
+     * Returns the encoder owned by the current thread.
+     *
+     * @return The thread's encoder.
+     */
+    static BinaryLogEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encodes an entry of an interned template with its arguments.
+     * The returned buffer is owned by this encoder and only valid until its next use.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param templateId The id of the template, from {@link Templates#idOf(String)}.
+     * @param args The arguments of the template.
+     * @param argCount The number of arguments used from the array.
+     * @param suffix The rendered exception appended to the message, or null for none.
+     * @param sequenced True to reserve the sequence number field.
+     * @return A buffer positioned at the start of the record, with its limit at the end.
+     */
+    ByteBuffer encode(long millis, String level, int templateId, Object[] args, int argCount, CharSequence suffix,
+                      boolean sequenced) {
+        putHeader(millis, level, templateId, sequenced);
+        putVarint(argCount);
+        for (int i = 0; i < argCount; i++) {
+            putArgument(args[i]);
+        }
+        putString(suffix != null ? suffix : "");
+        view.limit(position).position(0);
+        return view;
+    }
+
+    /**
+     * Encodes an entry without a template, storing its message as it is.
+     * The returned buffer is owned by this encoder and only valid until its next use.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param sequenced True to reserve the sequence number field.
+     * @return A buffer positioned at the start of the record, with its limit at the end.
+     */
+    ByteBuffer encode(long millis, String level, CharSequence message, boolean sequenced) {
+        putHeader(millis, level, 0, sequenced);
+        putString(message);
+        putString("");
+        view.limit(position).position(0);
+        return view;
+    }
+
+    /**
+     * Fills in the sequence number field of an entry encoded with the field reserved.
+     *
+     * @param entry The encoded entry, positioned at its start.
+     * @param sequence The sequence number.
+     */
+    static void putSequence(ByteBuffer entry, long sequence) {
+        entry.putLong(entry.position() + 1, sequence);
+    }
+
+    /**
+     * Starts a record with its kind, the optional sequence number field, the time, the level and the template id.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param templateId The id of the template, or 0 for none.
+     * @param sequenced True to reserve the sequence number field.
+     */
+    private void putHeader(long millis, String level, int templateId, boolean sequenced) {
+        position = 0;
+        ensureCapacity(1 + Long.BYTES + 3 * MAX_VARINT_LENGTH + 1);
+        if (sequenced) {
+            bytes[position++] = SEQUENCED_ENTRY;
+            for (int i = 0; i < Long.BYTES; i++) {
+                bytes[position++] = 0;
+            }
+        } else {
+            bytes[position++] = ENTRY;
+        }
+        putVarint(millis);
+        int severity = Logger.severity(level);
+        if (Level.ofSeverity(severity).name().equals(level)) {
+            bytes[position++] = (byte) severity;
+        } else {
+            bytes[position++] = (byte) CUSTOM_LEVEL;
+            putString(level);
+        }
+        putVarint(templateId);
+    }
+
+    /**
+     * Writes an argument as a tag and its value. Boxed primitives are written raw; any other value is rendered
+     * to a string now, like {@link MessageFormatter} would render it, because it may change after the call.
+     *
+     * @param arg The argument.
+     */
+    private void putArgument(Object arg) {
+        ensureCapacity(position + 1 + MAX_VARINT_LENGTH);
+        if (arg == null) {
+            bytes[position++] = NULL;
+        } else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+            long value = ((Number) arg).longValue();
+            bytes[position++] = LONG;
+            putVarint((value << 1) ^ (value >> 63));
+        } else if (arg instanceof Double) {
+            bytes[position++] = DOUBLE;
+            putFixed(Double.doubleToRawLongBits((Double) arg), Long.BYTES);
+        } else if (arg instanceof Float) {
+            bytes[position++] = FLOAT;
+            putFixed(Float.floatToRawIntBits((Float) arg), Integer.BYTES);
+        } else if (arg instanceof Boolean) {
+            bytes[position++] = (Boolean) arg ? (byte) TRUE : (byte) FALSE;
+        } else {
+            bytes[position++] = STRING;
+            putString(arg instanceof CharSequence ? (CharSequence) arg
+                    : arg instanceof Object[] ? Arrays.deepToString((Object[]) arg) : String.valueOf(arg));
+        }
+    }
+
+    /**
+     * Writes a string as its UTF-8 byte length and bytes. Unpaired surrogates are written as '?'.
+     *
+     * @param text The string.
+     */
+    private void putString(CharSequence text) {
+        // Encode behind room for the longest length prefix, then move the bytes behind the actual prefix
+        ensureCapacity(position + MAX_VARINT_LENGTH + 3 * text.length());
+        int start = position + MAX_VARINT_LENGTH;
+        int length = LogEncoder.putUtf8(bytes, start, text) - start;
+        putVarint(length);
+        System.arraycopy(bytes, start, bytes, position, length);
+        position += length;
+    }
+
+    /**
+     * Writes an unsigned LEB128 varint.
+     *
+     * @param value The value, treated as unsigned.
+     */
+    private void putVarint(long value) {
+        ensureCapacity(position + MAX_VARINT_LENGTH);
+        while ((value & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+    }
+
+    /**
+     * Writes a big-endian fixed-size value.
+     *
+     * @param value The value.
+     * @param length The number of bytes.
+     */
+    private void putFixed(long value, int length) {
+        ensureCapacity(position + length);
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[position++] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Grows the output buffer, keeping its content, if it cannot hold the given number of bytes.
+     *
+     * @param required The number of bytes needed.
+     */
+    private void ensureCapacity(int required) {
+        if (bytes.length < required) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+            view = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    /**
+     * The templates interned by one log file writer, with their definition records. Ids start at 1 and are
+     * only valid in the files of that writer, each of which defines them before their first use.
+     */
+    static final class Templates {
+
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+        // Definition records by id, and the lock guarding them
+        private byte[][] definitions = new byte[64][];
+        private int count;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Returns the id of a template, interning it on first use.
+         *
+         * @param template The message template.
+         * @return The id, or 0 if the template is too long or the dictionary is full.
+         */
+        int idOf(String template) {
+            Integer id = ids.get(template);
+            if (id != null) {
+                return id;
+            }
+            if (template.length() > MAX_TEMPLATE_LENGTH) {
+                return 0;
+            }
+            lock.lock();
+            try {
+                id = ids.get(template);
+                if (id != null) {
+                    return id;
+                }
+                if (count == MAX_TEMPLATES) {
+                    return 0;
+                }
+                int next = count + 1;
+                if (next == definitions.length) {
+                    definitions = Arrays.copyOf(definitions, definitions.length * 2);
+                }
+                BinaryLogEncoder encoder = new BinaryLogEncoder();
+                encoder.bytes[encoder.position++] = DEFINE;
+                encoder.putVarint(next);
+                encoder.putString(template);
+                definitions[next] = Arrays.copyOf(encoder.bytes, encoder.position);
+                count = next;
+                ids.put(template, next);
+                return next;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the definition record of a template.
+         *
+         * @param id The id of the template.
+         * @return The record.
+         */
+        byte[] definition(int id) {
+            lock.lock();
+            try {
+                return definitions[id];
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the definition records of all templates interned so far, written when a file is opened.
+         *
+         * @return The records.
+         */
+        ByteBuffer definitions() {
+            lock.lock();
+            try {
+                int length = 0;
+                for (int id = 1; id <= count; id++) {
+                    length += definitions[id].length;
+                }
+                ByteBuffer records = ByteBuffer.allocate(length);
+                for (int id = 1; id <= count; id++) {
+                    records.put(definitions[id]);
+                }
+                return records.flip();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
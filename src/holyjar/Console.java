@@ -1,15 +1,140 @@
 package holyjar;
 
 
-import java.util.Scanner;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 /**
  * A static utility class for console input and output operations.
  * Provides methods for reading various data types from the console and writing to it.
  */
 public class Console {
-    // Static Scanner instance for all input operations
-    private static Scanner scanner = new Scanner(System.in);
+
+    /**
+     * How console input is read.
+     */
+    public enum InputMode {
+        /** FAST when standard input is redirected, SCANNER on an interactive console. */
+        AUTO,
+        /** Read with java.util.Scanner, which also accepts locale-specific number formats. */
+        SCANNER,
+        /** Read bytes directly with hand-written number parsers; much faster for large redirected input. */
+        FAST,
+        /** Like FAST, but memory-map standard input when it is redirected from a regular file. */
+        MAPPED
+    }
+
+    /**
+     * How console output is written.
+     */
+    public enum OutputMode {
+        /** Every write goes straight to System.out. */
+        DIRECT,
+        /** Writes are collected in a large buffer and written out on flush, when full, before reads and at exit. */
+        BUFFERED
+    }
+
+    /**
+     * How progress started with {@link #StartProgress(String, long)} is shown.
+     */
+    public enum ProgressMode {
+        /** TERMINAL on an interactive console, SUMMARY when standard input or output is redirected. */
+        AUTO,
+        /** The progress lines are redrawn in place with carriage returns and ANSI cursor movement. */
+        TERMINAL,
+        /** A summary line per progress is printed periodically, for logs and pipes. */
+        SUMMARY
+    }
+
+    /**
+     * A running line subscription created by {@link #SubscribeLines(Consumer)}.
+     */
+    public interface LineSubscription extends AutoCloseable {
+
+        /**
+         * Stops delivering lines. A line that is being read when the subscription is cancelled goes to
+         * the next reader instead.
+         */
+        void cancel();
+
+        /**
+         * Checks whether lines are still delivered.
+         * 
+         * @return False after cancellation or the end of input.
+         */
+        boolean isActive();
+
+        /**
+         * Cancels the subscription.
+         */
+        @Override
+        default void close() {
+            cancel();
+        }
+    }
+
+    // System property that selects the input mode at startup: "auto", "scanner", "fast" or "mapped"
+    private static final String INPUT_MODE_PROPERTY = "holyjar.console.input";
+
+    // Selected input mode, and the input itself, created on the first read; the input is only used
+    // with the input lock held
+    private static InputMode inputMode = parseInputMode(System.getProperty(INPUT_MODE_PROPERTY, "auto"));
+    private static PushbackInput reader;
+
+    // Lock serializing reads, because the input readers are not thread-safe; fair, so waiting reads
+    // get their turn between the lines read for the background reader
+    private static final ReentrantLock INPUT_LOCK = new ReentrantLock(true);
+
+    // Background reader behind ReadLineAsync, the timed ReadLine and SubscribeLines
+    private static final LineReader LINES = new LineReader(INPUT_LOCK, () -> input().nextLine());
+
+    // System property that selects the output mode at startup: "direct" or "buffered"
+    private static final String OUTPUT_MODE_PROPERTY = "holyjar.console.output";
+
+    // Output buffer in BUFFERED mode, null in DIRECT mode
+    private static volatile ConsoleOutput output;
+
+    // Lock guarding mode switches, and the hook that writes out buffered output when the JVM exits
+    private static final ReentrantLock OUTPUT_LOCK = new ReentrantLock();
+    private static Thread shutdownHook;
+
+    // System property that selects the progress mode at startup: "auto", "terminal" or "summary"
+    private static final String PROGRESS_MODE_PROPERTY = "holyjar.console.progress";
+
+    // Renderer of the progress lines, and the selected progress mode
+    private static final ProgressRenderer PROGRESS = new ProgressRenderer();
+    private static volatile ProgressMode progressMode;
+
+    static {
+        String mode = System.getProperty(OUTPUT_MODE_PROPERTY, "direct").trim();
+        if (mode.equalsIgnoreCase(OutputMode.BUFFERED.name())) {
+            setOutputMode(OutputMode.BUFFERED);
+        } else if (!mode.equalsIgnoreCase(OutputMode.DIRECT.name())) {
+            System.err.println("Failed to parse console output mode: " + mode);
+        }
+        String progress = System.getProperty(PROGRESS_MODE_PROPERTY, "auto").trim();
+        try {
+            setProgressMode(ProgressMode.valueOf(progress.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Failed to parse console progress mode: " + progress);
+            setProgressMode(ProgressMode.AUTO);
+        }
+    }
 
     /**
      * Private constructor to prevent instantiation of this utility class.
@@ -18,15 +143,173 @@ public class Console {
         // This constructor is intentionally empty to prevent instantiation
     }
 
+    /**
+     * Selects how console input is read. Must be called before the first read, because input already
+     * buffered by the previous reader is not carried over. The mode can also be set at startup with
+     * the system property "holyjar.console.input" (auto, scanner, fast or mapped).
+     * MAPPED reads standard input straight from the page cache when it is a regular file; it must then be
+     * the only reader of System.in, because input buffered by System.in itself is skipped.
+     * 
+     * @param mode The input mode.
+     */
+    public static void setInputMode(InputMode mode) {
+        INPUT_LOCK.lock();
+        try {
+            inputMode = mode;
+            reader = null;
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Returns the selected input mode.
+     * 
+     * @return The input mode.
+     */
+    public static InputMode getInputMode() {
+        return inputMode;
+    }
+
+    /**
+     * Selects how console output is written. In BUFFERED mode output reaches the console when
+     * {@link #flush()} is called, when the buffer is full, before every read and when the JVM exits;
+     * output written directly to System.out in the meantime may appear before it.
+     * The mode can also be set at startup with the system property "holyjar.console.output" (direct or buffered).
+     * 
+     * @param mode The output mode.
+     */
+    public static void setOutputMode(OutputMode mode) {
+        OUTPUT_LOCK.lock();
+        try {
+            if (mode == OutputMode.BUFFERED && output == null) {
+                if (shutdownHook == null) {
+                    shutdownHook = new Thread(Console::flush, "holyjar-console-flush");
+                    Runtime.getRuntime().addShutdownHook(shutdownHook);
+                }
+                output = new ConsoleOutput();
+            } else if (mode == OutputMode.DIRECT && output != null) {
+                ConsoleOutput previous = output;
+                output = null;
+                previous.flush();
+            }
+        } finally {
+            OUTPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Returns the selected output mode.
+     * 
+     * @return The output mode.
+     */
+    public static OutputMode getOutputMode() {
+        return output != null ? OutputMode.BUFFERED : OutputMode.DIRECT;
+    }
+
+    /**
+     * Selects how progress is shown. In TERMINAL mode the lines of the open progresses are redrawn in place,
+     * which needs a terminal that understands ANSI escape sequences; in SUMMARY mode a line per progress is
+     * printed at every summary interval. The mode can also be set at startup with the system property
+     * "holyjar.console.progress" (auto, terminal or summary).
+     * 
+     * @param mode The progress mode.
+     */
+    public static void setProgressMode(ProgressMode mode) {
+        progressMode = mode;
+        PROGRESS.setTerminal(mode == ProgressMode.TERMINAL || (mode == ProgressMode.AUTO && System.console() != null));
+    }
+
+    /**
+     * Returns the selected progress mode.
+     * 
+     * @return The progress mode.
+     */
+    public static ProgressMode getProgressMode() {
+        return progressMode;
+    }
+
+    /**
+     * Sets how often progress is drawn: the maximum redraw rate on a terminal (every 100 milliseconds by default)
+     * and the interval between summary lines otherwise (10 seconds by default).
+     * 
+     * @param redraw The interval between redraws on a terminal.
+     * @param summary The interval between summary lines.
+     */
+    public static void setProgressIntervals(Duration redraw, Duration summary) {
+        if (redraw.isNegative() || redraw.isZero() || summary.isNegative() || summary.isZero()) {
+            throw new IllegalArgumentException("Progress intervals must be positive");
+        }
+        PROGRESS.setIntervals(redraw.toNanos(), summary.toNanos());
+    }
+
+    /**
+     * Writes all buffered output to the console. Does nothing in DIRECT mode.
+     */
+    public static void flush() {
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.flush();
+        }
+    }
+
     /**
      * Closes the scanner when it's no longer needed.
      * This method should only be called when completely finished with all console input operations
-     * as it will release the Scanner resource.
+     * as it will release the input reader and close standard input. A read in progress is finished first.
      */
     public static void closeScanner() {
-        if (scanner != null) {
-            scanner.close();
-            scanner = null;
+        INPUT_LOCK.lock();
+        try {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Returns the input used by the read methods, creating it on first use. Buffered output is flushed first.
+     * In AUTO mode the fast reader is used when there is no interactive console, which is the case when
+     * standard input or output is redirected. MAPPED falls back to the fast reader for pipes and terminals.
+     * Lines the background reader read but nobody claimed, because a timed ReadLine gave up on them, are put
+     * back in front of the input, so every read method sees them before the rest of the input.
+     * Must be called with the input lock held.
+     * 
+     * @return The console input.
+     */
+    private static ConsoleInput input() {
+        // Make prompts and earlier output visible before waiting for input
+        flush();
+        if (reader == null) {
+            ConsoleInput in = inputMode == InputMode.MAPPED ? FastInput.mapStandardInput() : null;
+            boolean fast = in != null
+                    || (inputMode != InputMode.SCANNER && (inputMode != InputMode.AUTO || System.console() == null));
+            if (in == null) {
+                in = fast ? new FastInput(System.in) : new ScannerInput(System.in);
+            }
+            reader = new PushbackInput(in, fast ? FastInput::new : ScannerInput::new);
+        }
+        for (String line = LINES.pollUnclaimed(); line != null; line = LINES.pollUnclaimed()) {
+            reader.pushBack(line);
+        }
+        return reader;
+    }
+
+    /**
+     * Parses the input mode given as system property.
+     * 
+     * @param value The property value.
+     * @return The matching mode, or AUTO if the value is not a mode.
+     */
+    private static InputMode parseInputMode(String value) {
+        try {
+            return InputMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Failed to parse console input mode: " + value);
+            return InputMode.AUTO;
         }
     }
 
@@ -38,14 +321,24 @@ public class Console {
      * @param value The string value to be printed.
      */
     public static void WriteLine(String value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
      * Prints a blank line to the console.
      */
     public static void WriteLine() {
-        System.out.println();
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write("", true);
+        } else {
+            System.out.println();
+        }
     }
 
     /**
@@ -54,7 +347,12 @@ public class Console {
      * @param value The string value to be printed.
      */
     public static void Write(String value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     /**
@@ -63,7 +361,12 @@ public class Console {
      * @param value The integer value to be printed.
      */
     public static void WriteLine(int value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
@@ -72,7 +375,12 @@ public class Console {
      * @param value The integer value to be printed.
      */
     public static void Write(int value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     /**
@@ -81,7 +389,12 @@ public class Console {
      * @param value The double value to be printed.
      */
     public static void Write(double value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     /**
@@ -90,7 +403,12 @@ public class Console {
      * @param value The double value to be printed.
      */
     public static void WriteLine(double value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
@@ -99,7 +417,12 @@ public class Console {
      * @param value The long value to be printed.
      */
     public static void Write(long value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     /**
@@ -108,7 +431,12 @@ public class Console {
      * @param value The long value to be printed.
      */
     public static void WriteLine(long value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
@@ -117,7 +445,12 @@ public class Console {
      * @param value The char value to be printed.
      */
     public static void Write(char value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     /**
@@ -126,7 +459,12 @@ public class Console {
      * @param value The char value to be printed.
      */
     public static void WriteLine(char value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
@@ -135,7 +473,12 @@ public class Console {
      * @param value The boolean value to be printed.
      */
     public static void Write(boolean value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     /**
@@ -144,7 +487,12 @@ public class Console {
      * @param value The boolean value to be printed.
      */
     public static void WriteLine(boolean value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(value, true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
@@ -154,7 +502,12 @@ public class Console {
      * @param value The object to be printed.
      */
     public static void WriteLine(Object value) {
-        System.out.println(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(String.valueOf(value), true);
+        } else {
+            System.out.println(value);
+        }
     }
 
     /**
@@ -164,7 +517,12 @@ public class Console {
      * @param value The object to be printed.
      */
     public static void Write(Object value) {
-        System.out.print(value);
+        ConsoleOutput out = output;
+        if (out != null) {
+            out.write(String.valueOf(value), false);
+        } else {
+            System.out.print(value);
+        }
     }
 
     // Read methods (for user input)
@@ -177,16 +535,133 @@ public class Console {
      */
     public static String ReadLine(String prompt) {
         Write(prompt);
-        return scanner.nextLine();
+        return ReadLine();
     }
 
     /**
      * Reads a full line of input from the user without a prompt message.
+     * A line that arrived after an earlier {@link #ReadLine(Duration)} timed out is returned first.
      * 
      * @return The input string entered by the user.
      */
     public static String ReadLine() {
-        return scanner.nextLine();
+        INPUT_LOCK.lock();
+        try {
+            return input().nextLine();
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reads a full line of input with a prompt message, waiting at most the given time.
+     * 
+     * @param prompt The message to prompt the user.
+     * @param timeout How long to wait for the line.
+     * @return The input string entered by the user, or null if no line arrived in time.
+     */
+    public static String ReadLine(String prompt, Duration timeout) {
+        Write(prompt);
+        return ReadLine(timeout);
+    }
+
+    /**
+     * Reads a full line of input, waiting at most the given time. The line is read by the background
+     * console reader thread; a line that arrives after the timeout is not lost, but read by the next read
+     * method or ReadLineAsync request, whichever comes first.
+     * 
+     * @param timeout How long to wait for the line.
+     * @return The input string entered by the user, or null if no line arrived in time or the thread was interrupted.
+     * @throws java.util.NoSuchElementException If the input has ended.
+     */
+    public static String ReadLine(Duration timeout) {
+        flush();
+        CompletableFuture<String> line = LINES.request();
+        try {
+            return line.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            line.cancel(false);
+        } catch (InterruptedException e) {
+            line.cancel(false);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new IllegalStateException(e.getCause());
+        }
+        // The line may have arrived between the timeout and the cancellation
+        return line.isCancelled() ? null : line.join();
+    }
+
+    /**
+     * Reads a full line of input in the background with a prompt message.
+     * 
+     * @param prompt The message to prompt the user.
+     * @return A future completed with the line.
+     */
+    public static CompletableFuture<String> ReadLineAsync(String prompt) {
+        Write(prompt);
+        return ReadLineAsync();
+    }
+
+    /**
+     * Reads a full line of input in the background, so the calling thread can keep working while it waits.
+     * Requests are served in order by a single console reader thread; dependent actions of the future run
+     * on that thread. Cancelling the future passes the line on to the next request.
+     * 
+     * @return A future completed with the line, or completed exceptionally with a
+     *         {@link java.util.NoSuchElementException} when the input ends.
+     */
+    public static CompletableFuture<String> ReadLineAsync() {
+        flush();
+        return LINES.request();
+    }
+
+    /**
+     * Delivers every input line to a callback until the subscription is cancelled or the input ends.
+     * The callback runs on the console reader thread and receives the lines no ReadLineAsync or timed
+     * ReadLine call is waiting for. While a subscription is active, synchronous reads wait for the line
+     * the reader thread is reading.
+     * 
+     * @param onLine The callback receiving each line.
+     * @return The subscription, which stops the delivery when cancelled or closed.
+     */
+    public static LineSubscription SubscribeLines(Consumer<String> onLine) {
+        flush();
+        return LINES.subscribe(onLine);
+    }
+
+    // Progress reporting
+
+    /**
+     * Starts reporting the progress of a job with a known number of items. Worker threads count items with
+     * {@link ConsoleProgress#increment()}, which only adds to a striped counter; a single renderer thread draws
+     * the completion, the rate and the estimated time left, so the cost of an update never depends on the speed
+     * of the console. Close the progress when the job is done, for example with try-with-resources:
+     * <pre>
+     * try (ConsoleProgress progress = Console.StartProgress("import", files.size())) {
+     *     files.parallelStream().forEach(file -&gt; { load(file); progress.increment(); });
+     * }
+     * </pre>
+     * On a terminal the progress lines are redrawn in place and other console output written meanwhile lands on
+     * them, so per-item text belongs in {@link ConsoleProgress#setStatus(String)}. See {@link ProgressMode}.
+     * 
+     * @param label The name shown before the numbers.
+     * @param total The number of items, or 0 if it is not known.
+     * @return The progress.
+     */
+    public static ConsoleProgress StartProgress(String label, long total) {
+        return new ConsoleProgress(label, total, PROGRESS);
+    }
+
+    /**
+     * Starts reporting the progress of a job with an unknown number of items, shown with its count,
+     * rate and elapsed time.
+     * 
+     * @param label The name shown before the numbers.
+     * @return The progress.
+     */
+    public static ConsoleProgress StartProgress(String label) {
+        return StartProgress(label, 0);
     }
 
     /**
@@ -198,13 +673,7 @@ public class Console {
      */
     public static int ReadInt(String prompt) {
         Write(prompt);
-        while (!scanner.hasNextInt()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige ganze Zahl ein.");
-            scanner.next(); // consume the invalid input
-        }
-        int value = scanner.nextInt();
-        scanner.nextLine(); // consume the line feed
-        return value;
+        return ReadInt();
     }
 
     /**
@@ -214,13 +683,18 @@ public class Console {
      * @return The integer value entered by the user.
      */
     public static int ReadInt() {
-        while (!scanner.hasNextInt()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige ganze Zahl ein.");
-            scanner.next(); // consume the invalid input
+        INPUT_LOCK.lock();
+        try {
+            while (!input().hasNextInt()) {
+                WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige ganze Zahl ein.");
+                input().next(); // consume the invalid input
+            }
+            int value = input().nextInt();
+            input().nextLine(); // consume the line feed
+            return value;
+        } finally {
+            INPUT_LOCK.unlock();
         }
-        int value = scanner.nextInt();
-        scanner.nextLine(); // consume the line feed
-        return value;
     }
 
     /**
@@ -232,13 +706,7 @@ public class Console {
      */
     public static double ReadDouble(String prompt) {
         Write(prompt);
-        while (!scanner.hasNextDouble()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
-            scanner.next(); // consume the invalid input
-        }
-        double value = scanner.nextDouble();
-        scanner.nextLine(); // consume the line feed
-        return value;
+        return ReadDouble();
     }
 
     /**
@@ -248,13 +716,18 @@ public class Console {
      * @return The double value entered by the user.
      */
     public static double ReadDouble() {
-        while (!scanner.hasNextDouble()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
-            scanner.next(); // consume the invalid input
+        INPUT_LOCK.lock();
+        try {
+            while (!input().hasNextDouble()) {
+                WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
+                input().next(); // consume the invalid input
+            }
+            double value = input().nextDouble();
+            input().nextLine(); // consume the line feed
+            return value;
+        } finally {
+            INPUT_LOCK.unlock();
         }
-        double value = scanner.nextDouble();
-        scanner.nextLine(); // consume the line feed
-        return value;
     }
 
     /**
@@ -266,13 +739,7 @@ public class Console {
      */
     public static float ReadFloat(String prompt) {
         Write(prompt);
-        while (!scanner.hasNextFloat()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Dezimalzahl ein.");
-            scanner.next(); // consume the invalid input
-        }
-        float value = scanner.nextFloat();
-        scanner.nextLine(); // consume the line feed
-        return value;
+        return ReadFloat();
     }
 
     /**
@@ -282,13 +749,18 @@ public class Console {
      * @return The float value entered by the user.
      */
     public static float ReadFloat() {
-        while (!scanner.hasNextFloat()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Dezimalzahl ein.");
-            scanner.next(); // consume the invalid input
+        INPUT_LOCK.lock();
+        try {
+            while (!input().hasNextFloat()) {
+                WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Dezimalzahl ein.");
+                input().next(); // consume the invalid input
+            }
+            float value = input().nextFloat();
+            input().nextLine(); // consume the line feed
+            return value;
+        } finally {
+            INPUT_LOCK.unlock();
         }
-        float value = scanner.nextFloat();
-        scanner.nextLine(); // consume the line feed
-        return value;
     }
 
     /**
@@ -300,13 +772,7 @@ public class Console {
      */
     public static boolean ReadBoolean(String prompt) {
         Write(prompt);
-        while (!scanner.hasNextBoolean()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie 'true' oder 'false' ein.");
-            scanner.next(); // consume the invalid input
-        }
-        boolean value = scanner.nextBoolean();
-        scanner.nextLine(); // consume the line feed
-        return value;
+        return ReadBoolean();
     }
 
     /**
@@ -316,13 +782,18 @@ public class Console {
      * @return The boolean value entered by the user.
      */
     public static boolean ReadBoolean() {
-        while (!scanner.hasNextBoolean()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie 'true' oder 'false' ein.");
-            scanner.next(); // consume the invalid input
+        INPUT_LOCK.lock();
+        try {
+            while (!input().hasNextBoolean()) {
+                WriteLine("Ungültige Eingabe! Bitte geben Sie 'true' oder 'false' ein.");
+                input().next(); // consume the invalid input
+            }
+            boolean value = input().nextBoolean();
+            input().nextLine(); // consume the line feed
+            return value;
+        } finally {
+            INPUT_LOCK.unlock();
         }
-        boolean value = scanner.nextBoolean();
-        scanner.nextLine(); // consume the line feed
-        return value;
     }
 
     /**
@@ -334,13 +805,7 @@ public class Console {
      */
     public static long ReadLong(String prompt) {
         Write(prompt);
-        while (!scanner.hasNextLong()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
-            scanner.next(); // consume the invalid input
-        }
-        long value = scanner.nextLong();
-        scanner.nextLine(); // consume the line feed
-        return value;
+        return ReadLong();
     }
 
     /**
@@ -350,13 +815,18 @@ public class Console {
      * @return The long value entered by the user.
      */
     public static long ReadLong() {
-        while (!scanner.hasNextLong()) {
-            WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
-            scanner.next(); // consume the invalid input
+        INPUT_LOCK.lock();
+        try {
+            while (!input().hasNextLong()) {
+                WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
+                input().next(); // consume the invalid input
+            }
+            long value = input().nextLong();
+            input().nextLine(); // consume the line feed
+            return value;
+        } finally {
+            INPUT_LOCK.unlock();
         }
-        long value = scanner.nextLong();
-        scanner.nextLine(); // consume the line feed
-        return value;
     }
 
     /**
@@ -367,9 +837,7 @@ public class Console {
      */
     public static char ReadChar(String prompt) {
         Write(prompt);
-        String input = scanner.next();
-        scanner.nextLine(); // consume the line feed
-        return input.charAt(0);
+        return ReadChar();
     }
 
     /**
@@ -378,8 +846,229 @@ public class Console {
      * @return The char value entered by the user.
      */
     public static char ReadChar() {
-        String input = scanner.next();
-        scanner.nextLine(); // consume the line feed
-        return input.charAt(0);
+        INPUT_LOCK.lock();
+        try {
+            String input = input().next();
+            input().nextLine(); // consume the line feed
+            return input.charAt(0);
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    // Bulk read methods (for large inputs)
+
+    /**
+     * Reads a number of integer values with a prompt message. The values may be separated by spaces
+     * or line breaks; invalid values are reported and skipped. The rest of the line after the last value is consumed.
+     * 
+     * @param prompt The message to prompt the user.
+     * @param count The number of values to read.
+     * @return The values entered by the user.
+     */
+    public static int[] ReadInts(String prompt, int count) {
+        Write(prompt);
+        return ReadInts(count);
+    }
+
+    /**
+     * Reads a number of integer values without a prompt message. The values may be separated by spaces
+     * or line breaks; invalid values are reported and skipped. The rest of the line after the last value is consumed.
+     * 
+     * @param count The number of values to read.
+     * @return The values entered by the user.
+     */
+    public static int[] ReadInts(int count) {
+        INPUT_LOCK.lock();
+        try {
+            ConsoleInput in = input();
+            int[] values = new int[count];
+            for (int i = 0; i < count; i++) {
+                while (!in.hasNextInt()) {
+                    WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige ganze Zahl ein.");
+                    in.next(); // consume the invalid input
+                }
+                values[i] = in.nextInt();
+            }
+            if (count > 0) {
+                in.nextLine(); // consume the line feed
+            }
+            return values;
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reads a number of long values with a prompt message. The values may be separated by spaces
+     * or line breaks; invalid values are reported and skipped. The rest of the line after the last value is consumed.
+     * 
+     * @param prompt The message to prompt the user.
+     * @param count The number of values to read.
+     * @return The values entered by the user.
+     */
+    public static long[] ReadLongs(String prompt, int count) {
+        Write(prompt);
+        return ReadLongs(count);
+    }
+
+    /**
+     * Reads a number of long values without a prompt message. The values may be separated by spaces
+     * or line breaks; invalid values are reported and skipped. The rest of the line after the last value is consumed.
+     * 
+     * @param count The number of values to read.
+     * @return The values entered by the user.
+     */
+    public static long[] ReadLongs(int count) {
+        INPUT_LOCK.lock();
+        try {
+            ConsoleInput in = input();
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                while (!in.hasNextLong()) {
+                    WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
+                    in.next(); // consume the invalid input
+                }
+                values[i] = in.nextLong();
+            }
+            if (count > 0) {
+                in.nextLine(); // consume the line feed
+            }
+            return values;
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reads a number of double values with a prompt message. The values may be separated by spaces
+     * or line breaks; invalid values are reported and skipped. The rest of the line after the last value is consumed.
+     * 
+     * @param prompt The message to prompt the user.
+     * @param count The number of values to read.
+     * @return The values entered by the user.
+     */
+    public static double[] ReadDoubles(String prompt, int count) {
+        Write(prompt);
+        return ReadDoubles(count);
+    }
+
+    /**
+     * Reads a number of double values without a prompt message. The values may be separated by spaces
+     * or line breaks; invalid values are reported and skipped. The rest of the line after the last value is consumed.
+     * 
+     * @param count The number of values to read.
+     * @return The values entered by the user.
+     */
+    public static double[] ReadDoubles(int count) {
+        INPUT_LOCK.lock();
+        try {
+            ConsoleInput in = input();
+            double[] values = new double[count];
+            for (int i = 0; i < count; i++) {
+                while (!in.hasNextDouble()) {
+                    WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
+                    in.next(); // consume the invalid input
+                }
+                values[i] = in.nextDouble();
+            }
+            if (count > 0) {
+                in.nextLine(); // consume the line feed
+            }
+            return values;
+        } finally {
+            INPUT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Returns the remaining integer values of the input as a stream. Values are parsed only as the stream
+     * is consumed, so {@code limit(n)} reads just n values; invalid values are reported and skipped.
+     * The stream ends with the input.
+     * 
+     * @return A sequential stream of the values.
+     */
+    public static IntStream ReadIntStream() {
+        return StreamSupport.intStream(new Spliterators.AbstractIntSpliterator(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(IntConsumer action) {
+                INPUT_LOCK.lock();
+                try {
+                    ConsoleInput in = input();
+                    while (!in.hasNextInt()) {
+                        if (!in.hasNext()) {
+                            return false;
+                        }
+                        WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige ganze Zahl ein.");
+                        in.next(); // consume the invalid input
+                    }
+                    action.accept(in.nextInt());
+                    return true;
+                } finally {
+                    INPUT_LOCK.unlock();
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * Returns the remaining long values of the input as a stream. Values are parsed only as the stream
+     * is consumed; invalid values are reported and skipped. The stream ends with the input.
+     * 
+     * @return A sequential stream of the values.
+     */
+    public static LongStream ReadLongStream() {
+        return StreamSupport.longStream(new Spliterators.AbstractLongSpliterator(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(LongConsumer action) {
+                INPUT_LOCK.lock();
+                try {
+                    ConsoleInput in = input();
+                    while (!in.hasNextLong()) {
+                        if (!in.hasNext()) {
+                            return false;
+                        }
+                        WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
+                        in.next(); // consume the invalid input
+                    }
+                    action.accept(in.nextLong());
+                    return true;
+                } finally {
+                    INPUT_LOCK.unlock();
+                }
+            }
+        }, false);
+    }
+
+    /**
+     * Returns the remaining double values of the input as a stream. Values are parsed only as the stream
+     * is consumed; invalid values are reported and skipped. The stream ends with the input.
+     * 
+     * @return A sequential stream of the values.
+     */
+    public static DoubleStream ReadDoubleStream() {
+        return StreamSupport.doubleStream(new Spliterators.AbstractDoubleSpliterator(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(DoubleConsumer action) {
+                INPUT_LOCK.lock();
+                try {
+                    ConsoleInput in = input();
+                    while (!in.hasNextDouble()) {
+                        if (!in.hasNext()) {
+                            return false;
+                        }
+                        WriteLine("Ungültige Eingabe! Bitte geben Sie eine gültige Zahl ein.");
+                        in.next(); // consume the invalid input
+                    }
+                    action.accept(in.nextDouble());
+                    return true;
+                } finally {
+                    INPUT_LOCK.unlock();
+                }
+            }
+        }, false);
     }
-}
\ No newline at end of file
+}
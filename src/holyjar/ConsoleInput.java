@@ -0,0 +1,122 @@
+package holyjar;
+
+
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * ConsoleInput is the token and line reader behind the Console read methods.
+ * It follows the contract of {@link java.util.Scanner} for the operations Console uses: tokens are separated
+ * by whitespace, the hasNext methods look ahead without consuming input and block until a token is complete,
+ * and nextLine returns the rest of the current line and consumes its line terminator.
+ */
+interface ConsoleInput {
+
+    /**
+     * Returns the rest of the current line and consumes its line terminator.
+     *
+     * @return The line without its terminator.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    String nextLine();
+
+    /**
+     * Checks whether there is another token, blocking until one is complete or the input ends.
+     *
+     * @return True if {@link #next()} will return a token.
+     */
+    boolean hasNext();
+
+    /**
+     * Returns the next token.
+     *
+     * @return The token.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    String next();
+
+    /**
+     * Checks whether the next token is a valid int.
+     *
+     * @return True if the next token can be read with {@link #nextInt()}.
+     */
+    boolean hasNextInt();
+
+    /**
+     * Reads the next token as an int.
+     *
+     * @return The value.
+     * @throws InputMismatchException If the next token is not a valid int.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    int nextInt();
+
+    /**
+     * Checks whether the next token is a valid long.
+     *
+     * @return True if the next token can be read with {@link #nextLong()}.
+     */
+    boolean hasNextLong();
+
+    /**
+     * Reads the next token as a long.
+     *
+     * @return The value.
+     * @throws InputMismatchException If the next token is not a valid long.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    long nextLong();
+
+    /**
+     * Checks whether the next token is a valid double.
+     *
+     * @return True if the next token can be read with {@link #nextDouble()}.
+     */
+    boolean hasNextDouble();
+
+    /**
+     * Reads the next token as a double.
+     *
+     * @return The value.
+     * @throws InputMismatchException If the next token is not a valid double.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    double nextDouble();
+
+    /**
+     * Checks whether the next token is a valid float.
+     *
+     * @return True if the next token can be read with {@link #nextFloat()}.
+     */
+    boolean hasNextFloat();
+
+    /**
+     * Reads the next token as a float.
+     *
+     * @return The value.
+     * @throws InputMismatchException If the next token is not a valid float.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    float nextFloat();
+
+    /**
+     * Checks whether the next token is "true" or "false", ignoring case.
+     *
+     * @return True if the next token can be read with {@link #nextBoolean()}.
+     */
+    boolean hasNextBoolean();
+
+    /**
+     * Reads the next token as a boolean.
+     *
+     * @return The value.
+     * @throws InputMismatchException If the next token is not a valid boolean.
+     * @throws NoSuchElementException If the input has ended.
+     */
+    boolean nextBoolean();
+
+    /**
+     * Closes the input and the underlying stream.
+     */
+    void close();
+}
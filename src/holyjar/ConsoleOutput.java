@@ -0,0 +1,297 @@
+package holyjar;
+
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ConsoleOutput collects console output in a large byte buffer and hands it to System.out in one write
+ * when it is flushed, instead of one synchronized, often flushing call per value.
+ * Numbers are rendered straight into the buffer: integers digit by digit, doubles through a reusable
+ * StringBuilder, so writing a number does not create a String.
+ */
+final class ConsoleOutput {
+
+    // Capacity of the output buffer
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Line separator written by the WriteLine methods, matching println()
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    // Bytes of the boolean values
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    // Longest rendering of a long, "-9223372036854775808"
+    private static final int MAX_LONG_LENGTH = 20;
+
+    // Lock guarding the buffer; output may come from several threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+
+    // Reusable builder for rendering doubles
+    private final StringBuilder number = new StringBuilder(32);
+
+    // Charset of System.out, and whether it is UTF-8 so that strings can be encoded without a copy
+    private final Charset charset;
+    private final boolean utf8;
+
+    /**
+     * Creates an output buffer that encodes text the way System.out does.
+     */
+    ConsoleOutput() {
+        String encoding = System.getProperty("sun.stdout.encoding");
+        Charset stdout = Charset.defaultCharset();
+        if (encoding != null && Charset.isSupported(encoding)) {
+            stdout = Charset.forName(encoding);
+        }
+        this.charset = stdout;
+        this.utf8 = stdout.equals(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a string.
+     *
+     * @param value The string; null is written as "null".
+     * @param newLine True to append a line separator.
+     */
+    void write(String value, boolean newLine) {
+        String text = String.valueOf(value);
+        lock.lock();
+        try {
+            if (utf8) {
+                putUtf8(text);
+            } else {
+                putAsciiOrEncode(text);
+            }
+            if (newLine) {
+                putBytes(LINE_SEPARATOR);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a char.
+     *
+     * @param value The char.
+     * @param newLine True to append a line separator.
+     */
+    void write(char value, boolean newLine) {
+        if (value < 0x80) {
+            lock.lock();
+            try {
+                ensureRoom(1 + LINE_SEPARATOR.length);
+                buffer[count++] = (byte) value;
+                if (newLine) {
+                    putBytes(LINE_SEPARATOR);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } else {
+            write(String.valueOf(value), newLine);
+        }
+    }
+
+    /**
+     * Appends a boolean as "true" or "false".
+     *
+     * @param value The boolean.
+     * @param newLine True to append a line separator.
+     */
+    void write(boolean value, boolean newLine) {
+        lock.lock();
+        try {
+            putBytes(value ? TRUE : FALSE);
+            if (newLine) {
+                putBytes(LINE_SEPARATOR);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the decimal digits of an integer.
+     *
+     * @param value The integer.
+     * @param newLine True to append a line separator.
+     */
+    void write(long value, boolean newLine) {
+        lock.lock();
+        try {
+            ensureRoom(MAX_LONG_LENGTH + LINE_SEPARATOR.length);
+            putLong(value);
+            if (newLine) {
+                putBytes(LINE_SEPARATOR);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a double in the same format as {@link String#valueOf(double)}.
+     *
+     * @param value The double.
+     * @param newLine True to append a line separator.
+     */
+    void write(double value, boolean newLine) {
+        lock.lock();
+        try {
+            number.setLength(0);
+            number.append(value);
+            int length = number.length();
+            ensureRoom(length + LINE_SEPARATOR.length);
+            for (int i = 0; i < length; i++) {
+                // The rendering of a double is plain ASCII
+                buffer[count++] = (byte) number.charAt(i);
+            }
+            if (newLine) {
+                putBytes(LINE_SEPARATOR);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered output to System.out and flushes it.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            drain();
+            System.out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to System.out. Must be called with the lock held.
+     */
+    private void drain() {
+        if (count > 0) {
+            System.out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Makes room for the given number of bytes, writing out the buffer if they do not fit.
+     * Must be called with the lock held.
+     *
+     * @param length The number of bytes about to be appended; at most the buffer size.
+     */
+    private void ensureRoom(int length) {
+        if (count + length > buffer.length) {
+            drain();
+        }
+    }
+
+    /**
+     * Appends raw bytes, writing larger arrays straight through. Must be called with the lock held.
+     *
+     * @param bytes The bytes.
+     */
+    private void putBytes(byte[] bytes) {
+        if (bytes.length > buffer.length) {
+            drain();
+            System.out.write(bytes, 0, bytes.length);
+            return;
+        }
+        ensureRoom(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Renders the digits of an integer into the buffer, right to left. Must be called with the lock held
+     * and room for {@link #MAX_LONG_LENGTH} bytes.
+     *
+     * @param value The integer.
+     */
+    private void putLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            for (char c : "-9223372036854775808".toCharArray()) {
+                buffer[count++] = (byte) c;
+            }
+            return;
+        }
+        if (value < 0) {
+            buffer[count++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int position = count + digits;
+        count = position;
+        do {
+            buffer[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    /**
+     * Encodes a string as UTF-8 into the buffer. Unpaired surrogates are written as '?'.
+     * Must be called with the lock held.
+     *
+     * @param text The string.
+     */
+    private void putUtf8(String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            // Four bytes cover the longest encoding of one code point
+            ensureRoom(4);
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer[count++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[count++] = (byte) (0xC0 | (c >> 6));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[count++] = '?';
+                }
+            } else {
+                buffer[count++] = (byte) (0xE0 | (c >> 12));
+                buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Appends a string in a charset other than UTF-8: ASCII text is copied directly, anything else
+     * is encoded by the charset. Must be called with the lock held.
+     *
+     * @param text The string.
+     */
+    private void putAsciiOrEncode(String text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) >= 0x80) {
+                putBytes(text.getBytes(charset));
+                return;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            ensureRoom(1);
+            buffer[count++] = (byte) text.charAt(i);
+        }
+    }
+}
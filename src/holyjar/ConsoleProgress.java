@@ -0,0 +1,271 @@
+package holyjar;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConsoleProgress reports the progress of a long-running job on the console, started with
+ * {@link Console#StartProgress(String, long)}. Worker threads only add to striped counters, so an update costs
+ * a few nanoseconds and never waits for the console; a single renderer thread reads the counters and draws the
+ * progress at a fixed maximum rate, with the completion, the rate and the estimated time left:
+ * <pre>
+ * import [#########-----------]  45.2% 452000/1000000 12.3k/s ETA 0:45 reading part-0042
+ * </pre>
+ * On a terminal the line is redrawn in place; otherwise a summary line is printed periodically. Closing the
+ * progress draws it a last time with the total duration, so it is best used with try-with-resources.
+ */
+public final class ConsoleProgress implements AutoCloseable {
+
+    // Number of characters of the bar drawn on a terminal
+    private static final int BAR_WIDTH = 20;
+
+    // Time constant of the smoothed rate: changes in speed show after a few seconds, short stalls do not
+    private static final long RATE_TIME_CONSTANT_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    private final String label;
+    private final long total;
+    private final ProgressRenderer renderer;
+    private final long startNanos = System.nanoTime();
+
+    // Counters updated by the workers
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    // Free text shown after the numbers
+    private volatile String status;
+
+    // State of the renderer: whether the progress ended and when, its last sample and the smoothed rate
+    // in items per second
+    private boolean ended;
+    private long endNanos;
+    private long sampleNanos;
+    private long sampleCount;
+    private double rate = Double.NaN;
+
+    /**
+     * Creates a progress and hands it to the renderer.
+     *
+     * @param label The name shown before the numbers.
+     * @param total The number of items of the job, or 0 if it is not known.
+     * @param renderer The renderer that draws it.
+     */
+    ConsoleProgress(String label, long total, ProgressRenderer renderer) {
+        this.label = String.valueOf(label);
+        this.total = Math.max(total, 0);
+        this.renderer = renderer;
+        this.sampleNanos = startNanos;
+        renderer.start(this);
+    }
+
+    /**
+     * Counts one completed item.
+     */
+    public void increment() {
+        completed.increment();
+    }
+
+    /**
+     * Counts completed items.
+     *
+     * @param count The number of items.
+     */
+    public void add(long count) {
+        completed.add(count);
+    }
+
+    /**
+     * Counts one failed item. Failed items are shown separately and do not count as completed.
+     */
+    public void fail() {
+        failed.increment();
+    }
+
+    /**
+     * Sets the text shown after the numbers, such as the item being worked on. Only the latest text is drawn.
+     *
+     * @param status The text, or null for none.
+     */
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * Returns the number of completed items.
+     *
+     * @return The count.
+     */
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * Returns the number of failed items.
+     *
+     * @return The count.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the number of items of the job.
+     *
+     * @return The total, or 0 if it is not known.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Stops the progress and draws it a last time, with the average rate and the total duration, before returning.
+     * Later calls do nothing.
+     */
+    @Override
+    public void close() {
+        renderer.finish(this);
+    }
+
+    /**
+     * Records the end of the progress. Called by the renderer once, with its lock held.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    void end(long now) {
+        ended = true;
+        endNanos = now;
+    }
+
+    /**
+     * Appends the current state of the progress. Called by the renderer with its lock held.
+     *
+     * @param sb The builder to append to.
+     * @param now The current {@link System#nanoTime()}.
+     * @param bar True to draw a bar, for a terminal.
+     */
+    void render(StringBuilder sb, long now, boolean bar) {
+        long done = completed.sum();
+        long failures = failed.sum();
+        boolean finished = ended;
+        sample(finished ? endNanos : now, done);
+
+        sb.append(label);
+        if (total > 0) {
+            double fraction = Math.min(1.0, (double) done / total);
+            if (bar) {
+                int filled = (int) (fraction * BAR_WIDTH);
+                sb.append(" [");
+                for (int i = 0; i < BAR_WIDTH; i++) {
+                    sb.append(i < filled ? '#' : '-');
+                }
+                sb.append(']');
+            }
+            long tenths = (long) (fraction * 1000);
+            sb.append(' ');
+            if (tenths < 1000) {
+                sb.append(' ');
+                if (tenths < 100) {
+                    sb.append(' ');
+                }
+            }
+            sb.append(tenths / 10).append('.').append(tenths % 10).append('%');
+            sb.append(' ').append(done).append('/').append(total);
+        } else {
+            sb.append(' ').append(done);
+        }
+        if (failures > 0) {
+            sb.append(' ').append(failures).append(" failed");
+        }
+
+        long elapsed = (finished ? endNanos : now) - startNanos;
+        double shownRate = finished && elapsed > 0 ? done * 1e9 / elapsed : rate;
+        if (!Double.isNaN(shownRate)) {
+            sb.append(' ');
+            appendScaled(sb, shownRate);
+            sb.append("/s");
+        }
+        if (finished) {
+            sb.append(" done in ");
+            appendDuration(sb, elapsed);
+            return;
+        }
+        if (total > 0 && done < total && rate > 0) {
+            sb.append(" ETA ");
+            appendDuration(sb, (long) ((total - done) / rate * 1e9));
+        } else {
+            sb.append(' ');
+            appendDuration(sb, elapsed);
+        }
+        String text = status;
+        if (text != null && !text.isEmpty()) {
+            sb.append(' ').append(text);
+        }
+    }
+
+    /**
+     * Updates the smoothed rate with the items completed since the last sample.
+     *
+     * @param now The time of the sample.
+     * @param done The completed items.
+     */
+    private void sample(long now, long done) {
+        long interval = now - sampleNanos;
+        if (interval <= 0) {
+            return;
+        }
+        double current = (done - sampleCount) * 1e9 / interval;
+        if (Double.isNaN(rate)) {
+            // The first sample covers the time since the start
+            rate = current;
+        } else {
+            rate += (1 - Math.exp(-(double) interval / RATE_TIME_CONSTANT_NANOS)) * (current - rate);
+        }
+        sampleNanos = now;
+        sampleCount = done;
+    }
+
+    /**
+     * Appends a rate with one decimal, scaled to thousands or millions with a "k" or "M" suffix.
+     *
+     * @param sb The builder to append to.
+     * @param value The rate.
+     */
+    private static void appendScaled(StringBuilder sb, double value) {
+        char suffix = 0;
+        if (value >= 999_950) {
+            value /= 1_000_000;
+            suffix = 'M';
+        } else if (value >= 999.95) {
+            value /= 1000;
+            suffix = 'k';
+        }
+        long tenths = Math.round(value * 10);
+        sb.append(tenths / 10).append('.').append(tenths % 10);
+        if (suffix != 0) {
+            sb.append(suffix);
+        }
+    }
+
+    /**
+     * Appends a duration as "m:ss", or "h:mm:ss" from one hour on.
+     *
+     * @param sb The builder to append to.
+     * @param nanos The duration in nanoseconds.
+     */
+    private static void appendDuration(StringBuilder sb, long nanos) {
+        long seconds = Math.max(0, nanos / 1_000_000_000L);
+        long hours = seconds / 3600;
+        long minutes = seconds / 60 % 60;
+        if (hours > 0) {
+            sb.append(hours).append(':');
+            if (minutes < 10) {
+                sb.append('0');
+            }
+        }
+        sb.append(minutes).append(':');
+        if (seconds % 60 < 10) {
+            sb.append('0');
+        }
+        sb.append(seconds % 60);
+    }
+}
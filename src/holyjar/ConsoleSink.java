@@ -0,0 +1,39 @@
+package holyjar;
+
+
+import java.io.PrintStream;
+
+/**
+ * ConsoleSink prints log entries to a console stream, by default standard output.
+ * Entries of a batch are printed together and flushed once, instead of one flush per line.
+ */
+public final class ConsoleSink implements LogSink {
+
+    private final PrintStream out;
+
+    /**
+     * Creates a sink printing to standard output.
+     */
+    public ConsoleSink() {
+        this(System.out);
+    }
+
+    /**
+     * Creates a sink printing to the given stream.
+     *
+     * @param out The stream to print to.
+     */
+    public ConsoleSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(long timestamp, String level, String message) {
+        out.print(LogEncoder.get().format(timestamp, level, message).toString() + System.lineSeparator());
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+}
@@ -0,0 +1,709 @@
+package holyjar;
+
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * FastInput reads console input straight from the bytes of the input stream, with hand-written parsers
+ * for the primitive types instead of Scanner's regular expressions. Reading a number allocates nothing.
+ * <p>
+ * Tokens are separated by ASCII whitespace. Numbers are plain decimal: an optional sign, digits and,
+ * for floating point values, the decimal separator of the default locale and an optional exponent.
+ * Unlike Scanner, grouping separators such as "1.000" are not accepted.
+ * <p>
+ * Input that is a regular file can be memory-mapped instead of read, so the parsers work directly on the
+ * page cache without copying. The file is mapped in windows, so files larger than 2 GB work as well.
+ */
+final class FastInput implements ConsoleInput {
+
+    // Initial buffer size; the buffer grows when a single token or line does not fit
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Size of the region mapped at a time when reading a file
+    private static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Link to the file behind standard input on Linux
+    private static final Path STANDARD_INPUT_LINK = Paths.get("/proc/self/fd/0");
+
+    // Kinds of values remembered by the last successful hasNext check
+    private static final int PARSED_NONE = 0;
+    private static final int PARSED_INT = 1;
+    private static final int PARSED_LONG = 2;
+    private static final int PARSED_DOUBLE = 3;
+    private static final int PARSED_FLOAT = 4;
+
+    // Powers of ten that are exact doubles, for the fast floating point path
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Significant digits that still fit exactly into a double's mantissa
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    // Significant digits collected at most; further digits only matter for the slow path
+    private static final int MAX_DIGITS = 18;
+
+    // Source of the input: a stream, or a file that is mapped window by window
+    private final InputStream in;
+    private final FileChannel file;
+    private long windowStart;
+    private long fileSize;
+    private final Charset charset = Charset.defaultCharset();
+
+    // Decimal separator of the default locale, as Scanner uses it
+    private final byte decimalSeparator;
+
+    // Unread input is buffer[position, limit)
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private int position;
+    private int limit;
+    private boolean ended;
+
+    // Reusable array for decoding tokens and lines into strings
+    private byte[] scratch = new byte[256];
+
+    // Result of the last successful number parse
+    private long parsedLong;
+    private double parsedDouble;
+
+    // What the last successful hasNext check parsed, so the following next call can reuse it
+    private int parsedKind = PARSED_NONE;
+    private int parsedEnd;
+
+    /**
+     * Creates a byte-level input over a stream.
+     *
+     * @param in The stream to read.
+     */
+    FastInput(InputStream in) {
+        this(in, null);
+    }
+
+    /**
+     * Creates a byte-level input.
+     *
+     * @param in The stream to read, or the stream to close for a mapped file.
+     * @param file The file to map from its current position, or null to read the stream.
+     */
+    private FastInput(InputStream in, FileChannel file) {
+        this.in = in;
+        this.file = file;
+        char separator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        this.decimalSeparator = separator < 0x80 ? (byte) separator : (byte) '.';
+    }
+
+    /**
+     * Creates an input that memory-maps standard input, provided it is redirected from a regular file.
+     * Reading starts at the current file offset. Input already consumed through System.in's own buffer
+     * is not seen, so the mapped input must be the only reader of standard input.
+     *
+     * @return The mapped input, or null if standard input is not a regular file.
+     */
+    static FastInput mapStandardInput() {
+        // Without /proc, only probe standard input when it is not a terminal
+        boolean linked = Files.exists(STANDARD_INPUT_LINK, LinkOption.NOFOLLOW_LINKS);
+        if (linked ? !Files.isRegularFile(STANDARD_INPUT_LINK) : System.console() != null) {
+            return null;
+        }
+        FileInputStream stream = new FileInputStream(FileDescriptor.in);
+        FileChannel channel = stream.getChannel();
+        try {
+            // Pipes cannot seek, so this fails for everything that is not a file
+            long start = channel.position();
+            FastInput input = new FastInput(stream, channel);
+            input.windowStart = start;
+            input.fileSize = channel.size();
+            input.ended = start >= input.fileSize;
+            return input;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String nextLine() {
+        int end = 0;
+        int b;
+        while ((b = peek(end)) >= 0 && b != '\n' && b != '\r') {
+            end++;
+        }
+        if (b < 0 && end == 0) {
+            throw new NoSuchElementException("No line found");
+        }
+        String line = decode(0, end);
+        int consumed = end;
+        if (b == '\n') {
+            consumed++;
+        } else if (b == '\r') {
+            consumed += peek(end + 1) == '\n' ? 2 : 1;
+        }
+        consume(consumed);
+        return line;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return tokenStart() >= 0;
+    }
+
+    @Override
+    public String next() {
+        int start = requireToken();
+        int end = tokenEnd(start);
+        String token = decode(start, end);
+        consume(end);
+        return token;
+    }
+
+    @Override
+    public boolean hasNextInt() {
+        int start = tokenStart();
+        if (start < 0) {
+            return false;
+        }
+        int end = tokenEnd(start);
+        return parseLong(start, end, Integer.MIN_VALUE, Integer.MAX_VALUE) && remember(PARSED_INT, end);
+    }
+
+    @Override
+    public int nextInt() {
+        return (int) nextLong(PARSED_INT, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNextLong() {
+        int start = tokenStart();
+        if (start < 0) {
+            return false;
+        }
+        int end = tokenEnd(start);
+        return parseLong(start, end, Long.MIN_VALUE, Long.MAX_VALUE) && remember(PARSED_LONG, end);
+    }
+
+    @Override
+    public long nextLong() {
+        return nextLong(PARSED_LONG, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean hasNextDouble() {
+        int start = tokenStart();
+        if (start < 0) {
+            return false;
+        }
+        int end = tokenEnd(start);
+        return parseDouble(start, end, false) && remember(PARSED_DOUBLE, end);
+    }
+
+    @Override
+    public double nextDouble() {
+        if (!reuse(PARSED_DOUBLE)) {
+            int start = requireToken();
+            int end = tokenEnd(start);
+            if (!parseDouble(start, end, false)) {
+                throw mismatch(start, end);
+            }
+            consume(end);
+        }
+        return parsedDouble;
+    }
+
+    @Override
+    public boolean hasNextFloat() {
+        int start = tokenStart();
+        if (start < 0) {
+            return false;
+        }
+        int end = tokenEnd(start);
+        return parseDouble(start, end, true) && remember(PARSED_FLOAT, end);
+    }
+
+    @Override
+    public float nextFloat() {
+        if (!reuse(PARSED_FLOAT)) {
+            int start = requireToken();
+            int end = tokenEnd(start);
+            if (!parseDouble(start, end, true)) {
+                throw mismatch(start, end);
+            }
+            consume(end);
+        }
+        return (float) parsedDouble;
+    }
+
+    @Override
+    public boolean hasNextBoolean() {
+        int start = tokenStart();
+        return start >= 0 && parseBoolean(start, tokenEnd(start)) >= 0;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        int start = requireToken();
+        int end = tokenEnd(start);
+        int value = parseBoolean(start, end);
+        if (value < 0) {
+            throw mismatch(start, end);
+        }
+        consume(end);
+        return value == 1;
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Scanner ignores errors on close as well
+        }
+        buffer = ByteBuffer.allocate(0);
+        position = 0;
+        limit = 0;
+        ended = true;
+    }
+
+    /**
+     * Reads the next token as an integer within the given range.
+     *
+     * @param kind The kind of value, PARSED_INT or PARSED_LONG.
+     * @param min The smallest accepted value.
+     * @param max The largest accepted value.
+     * @return The value.
+     */
+    private long nextLong(int kind, long min, long max) {
+        if (!reuse(kind)) {
+            int start = requireToken();
+            int end = tokenEnd(start);
+            if (!parseLong(start, end, min, max)) {
+                throw mismatch(start, end);
+            }
+            consume(end);
+        }
+        return parsedLong;
+    }
+
+    /**
+     * Remembers a successful hasNext check, so that the matching next call does not parse the token again.
+     *
+     * @param kind The kind of value parsed.
+     * @param end The offset just after the token.
+     * @return Always true, for use in the hasNext expressions.
+     */
+    private boolean remember(int kind, int end) {
+        parsedKind = kind;
+        parsedEnd = end;
+        return true;
+    }
+
+    /**
+     * Consumes the token parsed by the last hasNext check if it was of the requested kind.
+     *
+     * @param kind The kind of value requested.
+     * @return True if the parsed value is available in parsedLong or parsedDouble.
+     */
+    private boolean reuse(int kind) {
+        if (parsedKind != kind) {
+            return false;
+        }
+        consume(parsedEnd);
+        return true;
+    }
+
+    /**
+     * Consumes input and forgets the last hasNext result, which referred to the old position.
+     *
+     * @param count The number of bytes to consume.
+     */
+    private void consume(int count) {
+        position += count;
+        parsedKind = PARSED_NONE;
+    }
+
+    /**
+     * Returns the offset of the next token, failing if the input has ended.
+     * Like Scanner, a failed read still consumes the whitespace it skipped.
+     *
+     * @return The offset of the first byte of the token.
+     */
+    private int requireToken() {
+        int start = tokenStart();
+        if (start < 0) {
+            consume(limit - position);
+            throw new NoSuchElementException();
+        }
+        return start;
+    }
+
+    /**
+     * Creates the exception for a token of the wrong type, consuming the whitespace before the token
+     * but not the token itself, as Scanner does.
+     *
+     * @param start The offset of the token.
+     * @param end The offset just after the token.
+     * @return The exception to throw.
+     */
+    private InputMismatchException mismatch(int start, int end) {
+        String token = decode(start, end);
+        consume(start);
+        return new InputMismatchException(token);
+    }
+
+    /**
+     * Finds the next token without consuming anything, reading more input as needed.
+     *
+     * @return The offset of the first byte of the token from the current position, or -1 if the input ended first.
+     */
+    private int tokenStart() {
+        int offset = 0;
+        int b;
+        while ((b = peek(offset)) >= 0) {
+            if (!isWhitespace(b)) {
+                return offset;
+            }
+            offset++;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the end of a token, reading more input as needed.
+     * Afterwards the whole token is in the buffer until the position changes.
+     *
+     * @param start The offset of the first byte of the token.
+     * @return The offset just after the last byte of the token.
+     */
+    private int tokenEnd(int start) {
+        int end = start;
+        int b;
+        while ((b = peek(end)) >= 0 && !isWhitespace(b)) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Parses a token as a decimal integer into {@link #parsedLong}.
+     *
+     * @param start The offset of the token.
+     * @param end The offset just after the token.
+     * @param min The smallest accepted value.
+     * @param max The largest accepted value.
+     * @return True if the token is an integer within the range.
+     */
+    private boolean parseLong(int start, int end, long min, long max) {
+        int i = start;
+        boolean negative = false;
+        int first = byteAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        // Accumulate negatively, as Long.parseLong does, so that MIN_VALUE fits
+        long limit = negative ? min : -max;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = byteAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+        }
+        parsedLong = negative ? result : -result;
+        return true;
+    }
+
+    /**
+     * Parses a token as a decimal floating point number into {@link #parsedDouble}.
+     * Numbers with up to 15 significant digits and a small exponent are computed exactly from their digits;
+     * others fall back to the JDK parser.
+     *
+     * @param start The offset of the token.
+     * @param end The offset just after the token.
+     * @param asFloat True to round the value as a float rather than a double.
+     * @return True if the token is a number.
+     */
+    private boolean parseDouble(int start, int end, boolean asFloat) {
+        int i = start;
+        boolean negative = false;
+        int first = byteAt(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        int b;
+        while (i < end && (b = byteAt(i) - '0') >= 0 && b <= 9) {
+            anyDigit = true;
+            if (digits < MAX_DIGITS) {
+                mantissa = mantissa * 10 + b;
+                digits += mantissa != 0 ? 1 : 0;
+            } else {
+                exponent++;
+            }
+            i++;
+        }
+        if (i < end && byteAt(i) == decimalSeparator) {
+            i++;
+            while (i < end && (b = byteAt(i) - '0') >= 0 && b <= 9) {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + b;
+                    digits += mantissa != 0 ? 1 : 0;
+                    exponent--;
+                }
+                i++;
+            }
+        }
+        if (!anyDigit) {
+            return parseSpecial(start, end, asFloat);
+        }
+        boolean truncated = digits >= MAX_DIGITS;
+
+        if (i < end && (byteAt(i) | 0x20) == 'e') {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (byteAt(i) == '-' || byteAt(i) == '+')) {
+                negativeExponent = byteAt(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                return false;
+            }
+            int value = 0;
+            for (; i < end; i++) {
+                int digit = byteAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    return false;
+                }
+                // Anything this large under- or overflows anyway
+                value = Math.min(value * 10 + digit, 100_000);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end) {
+            return false;
+        }
+
+        if (!asFloat && !truncated && digits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+            // Both operands are exact, so the single rounding of the division or product is correct
+            double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+            parsedDouble = negative ? -value : value;
+        } else {
+            String text = asciiText(start, end);
+            parsedDouble = asFloat ? Float.parseFloat(text) : Double.parseDouble(text);
+        }
+        return true;
+    }
+
+    /**
+     * Parses the tokens "NaN" and "Infinity", with an optional sign.
+     *
+     * @param start The offset of the token.
+     * @param end The offset just after the token.
+     * @param asFloat True to produce a float value.
+     * @return True if the token is one of the special values.
+     */
+    private boolean parseSpecial(int start, int end, boolean asFloat) {
+        String text = asciiText(start, end);
+        String unsigned = text.startsWith("-") || text.startsWith("+") ? text.substring(1) : text;
+        if (!unsigned.equals("NaN") && !unsigned.equals("Infinity")) {
+            return false;
+        }
+        parsedDouble = asFloat ? Float.parseFloat(text) : Double.parseDouble(text);
+        return true;
+    }
+
+    /**
+     * Parses a token as a boolean, ignoring case.
+     *
+     * @param start The offset of the token.
+     * @param end The offset just after the token.
+     * @return 1 for true, 0 for false, or -1 if the token is neither.
+     */
+    private int parseBoolean(int start, int end) {
+        int length = end - start;
+        if (length == 4 && matches(start, "true")) {
+            return 1;
+        }
+        if (length == 5 && matches(start, "false")) {
+            return 0;
+        }
+        return -1;
+    }
+
+    /**
+     * Compares buffered bytes with a lowercase ASCII word, ignoring case.
+     *
+     * @param start The offset of the first byte.
+     * @param word The word.
+     * @return True if the bytes spell the word.
+     */
+    private boolean matches(int start, String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if ((byteAt(start + i) | 0x20) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns buffered bytes as a numeric string for the JDK parsers, with the locale's decimal separator
+     * replaced by a dot. Only used for tokens that consist of ASCII characters.
+     *
+     * @param start The offset of the first byte.
+     * @param end The offset just after the last byte.
+     * @return The text.
+     */
+    private String asciiText(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            int b = byteAt(i);
+            chars[i - start] = b == decimalSeparator ? '.' : (char) b;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodes buffered bytes into a string using the platform charset, as Scanner does.
+     *
+     * @param start The offset of the first byte.
+     * @param end The offset just after the last byte.
+     * @return The decoded text.
+     */
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            // The rest of a line after a number is usually empty
+            return "";
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(position + start, scratch, 0, length);
+        return new String(scratch, 0, length, charset);
+    }
+
+    /**
+     * Returns a byte that is known to be buffered.
+     *
+     * @param offset The offset from the current position.
+     * @return The byte value.
+     */
+    private int byteAt(int offset) {
+        return buffer.get(position + offset);
+    }
+
+    /**
+     * Returns a byte of unread input without consuming it, reading more input if needed.
+     *
+     * @param offset The offset from the current position.
+     * @return The byte value from 0 to 255, or -1 if the input ends before it.
+     */
+    private int peek(int offset) {
+        if (position + offset >= limit && !fill(offset)) {
+            return -1;
+        }
+        return buffer.get(position + offset) & 0xFF;
+    }
+
+    /**
+     * Reads input until the byte at the given offset is buffered. Unread bytes are moved to the front
+     * of the buffer first, so that offsets from the current position stay valid.
+     *
+     * @param offset The offset from the current position that has to be buffered.
+     * @return False if the input ended before that byte.
+     */
+    private boolean fill(int offset) {
+        while (position + offset >= limit) {
+            if (ended) {
+                return false;
+            }
+            if (file != null) {
+                mapNextWindow();
+                continue;
+            }
+            byte[] bytes = buffer.array();
+            if (position > 0) {
+                System.arraycopy(bytes, position, bytes, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            if (limit == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            int count;
+            try {
+                count = in.read(bytes, limit, bytes.length - limit);
+            } catch (IOException e) {
+                // Like Scanner, treat a failing stream as the end of the input
+                count = -1;
+            }
+            if (count < 0) {
+                ended = true;
+            } else {
+                limit += count;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps the next window of the file, starting at the current position so that the unread bytes
+     * stay in view. The window grows when the unread bytes alone fill it.
+     */
+    private void mapNextWindow() {
+        long start = windowStart + position;
+        long grown = Math.min(Integer.MAX_VALUE, 2L * (limit - position));
+        long size = Math.min(fileSize - start, Math.max(MAP_WINDOW_SIZE, grown));
+        try {
+            buffer = file.map(FileChannel.MapMode.READ_ONLY, start, size);
+        } catch (IOException e) {
+            // Like Scanner, treat a failing input as the end of the input
+            ended = true;
+            return;
+        }
+        windowStart = start;
+        limit = (int) size;
+        position = 0;
+        ended = start + size >= fileSize;
+    }
+
+    /**
+     * Checks whether a byte is a whitespace character that separates tokens.
+     *
+     * @param b The byte value.
+     * @return True for space, tab, line feed, vertical tab, form feed, carriage return and the separator controls.
+     */
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+    }
+}
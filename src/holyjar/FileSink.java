@@ -0,0 +1,54 @@
+package holyjar;
+
+
+/**
+ * FileSink writes log entries to an additional log file, for example to collect all errors in one place.
+ * The file is kept open and rotated by size like the main log file of a logger.
+ */
+public final class FileSink implements LogSink {
+
+    // Maximum log file size in bytes before rotation (default: 10MB)
+    private static final long DEFAULT_MAX_LOG_SIZE = 10 * 1024 * 1024;
+
+    // Maximum number of backup log files to keep
+    private static final int DEFAULT_MAX_BACKUP_FILES = 5;
+
+    private final LogFile logFile;
+
+    /**
+     * Creates a sink writing to the given file with the default rotation settings.
+     *
+     * @param path The path of the log file.
+     */
+    public FileSink(String path) {
+        this(path, DEFAULT_MAX_LOG_SIZE, DEFAULT_MAX_BACKUP_FILES);
+    }
+
+    /**
+     * Creates a sink writing to the given file.
+     *
+     * @param path The path of the log file.
+     * @param maxLogSize The maximum size in bytes before rotation occurs.
+     * @param maxBackupFiles The maximum number of backup files to keep.
+     */
+    public FileSink(String path, long maxLogSize, int maxBackupFiles) {
+        this.logFile = new LogFile(path, maxLogSize, maxBackupFiles > 0 ? maxBackupFiles : 1);
+        // The sink flushes after every batch, so entries only need to be buffered within a batch
+        this.logFile.setDurability(Logger.Durability.BATCHED, Integer.MAX_VALUE, Long.MAX_VALUE / 2);
+    }
+
+    @Override
+    public void write(long timestamp, String level, String message) {
+        logFile.write(Logger.severity(level), timestamp, level, message);
+    }
+
+    @Override
+    public void flush() {
+        logFile.flush(false);
+    }
+
+    @Override
+    public void close() {
+        logFile.close();
+    }
+}
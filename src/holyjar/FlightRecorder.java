@@ -0,0 +1,311 @@
+package holyjar;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * FlightRecorder keeps the most recent log entries of every level in a fixed-size off-heap ring buffer,
+ * so that the context of a failure is available even when the level threshold kept it out of the log file.
+ * The buffer is divided into fixed-size slots; a writer claims a slot with one atomic increment and copies
+ * the entry into it without locking or allocating, truncating long messages. Each slot carries its sequence
+ * number, written last with release semantics, so a dump can tell complete entries from ones being overwritten.
+ * The buffer is written to a separate file only when it is dumped.
+ */
+final class FlightRecorder {
+
+    // Size of one slot; the header takes the first 28 bytes, the message the rest
+    static final int SLOT_SIZE = 256;
+
+    // Offsets of the slot fields
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int THREAD_OFFSET = 16;
+    private static final int SEVERITY_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 25;
+    private static final int LENGTH_OFFSET = 26;
+    private static final int MESSAGE_OFFSET = 28;
+    private static final int MAX_MESSAGE_BYTES = SLOT_SIZE - MESSAGE_OFFSET;
+
+    // Flag set on entries whose message did not fit into the slot
+    private static final byte TRUNCATED = 1;
+
+    // Ordered access to the sequence numbers, which mark a slot as complete
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    // Layout of the timestamps in a dump, with milliseconds
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    // Recorders that are dumped when a thread dies of an uncaught exception
+    private static final CopyOnWriteArrayList<FlightRecorder> ACTIVE = new CopyOnWriteArrayList<>();
+    private static final ReentrantLock HANDLER_LOCK = new ReentrantLock();
+    private static boolean handlerInstalled;
+
+    private final ByteBuffer slots;
+    private final int slotCount;
+    private final AtomicLong next = new AtomicLong();
+    private final Path dumpPath;
+
+    // Lock serializing dumps into the dump file
+    private final ReentrantLock dumpLock = new ReentrantLock();
+
+    /**
+     * Creates a recorder and registers it for dumps on uncaught exceptions.
+     *
+     * @param capacityBytes The size of the ring buffer; it holds capacityBytes / 256 entries.
+     * @param dumpPath The file dumps are appended to.
+     */
+    FlightRecorder(int capacityBytes, Path dumpPath) {
+        this.slotCount = Math.max(1, capacityBytes / SLOT_SIZE);
+        // Aligned so the sequence numbers can be accessed atomically
+        this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_SIZE + 8).alignedSlice(8).order(ByteOrder.nativeOrder());
+        this.dumpPath = dumpPath;
+        ACTIVE.add(this);
+        installUncaughtExceptionHandler();
+    }
+
+    /**
+     * Stops dumping this recorder on uncaught exceptions. The off-heap memory is released with the recorder.
+     */
+    void close() {
+        ACTIVE.remove(this);
+    }
+
+    /**
+     * Returns the file dumps are appended to.
+     *
+     * @return The dump file.
+     */
+    Path getDumpPath() {
+        return dumpPath;
+    }
+
+    /**
+     * Records an entry.
+     *
+     * @param severity The severity rank of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param message The message.
+     * @param thrown An exception whose class and message are appended, or null.
+     */
+    void record(int severity, long timestamp, CharSequence message, Throwable thrown) {
+        long sequence = next.getAndIncrement();
+        int base = (int) (sequence % slotCount) * SLOT_SIZE;
+
+        // Mark the slot as being written before touching its content
+        LONGS.setVolatile(slots, base + SEQUENCE_OFFSET, 0L);
+        slots.putLong(base + TIMESTAMP_OFFSET, timestamp);
+        slots.putLong(base + THREAD_OFFSET, Thread.currentThread().getId());
+        slots.put(base + SEVERITY_OFFSET, (byte) severity);
+
+        int start = base + MESSAGE_OFFSET;
+        int end = start + MAX_MESSAGE_BYTES;
+        int position = putUtf8(message, start, end);
+        if (thrown != null && position >= 0) {
+            position = putUtf8(" | ", position, end);
+            position = position >= 0 ? putUtf8(thrown.getClass().getName(), position, end) : position;
+            String detail = thrown.getMessage();
+            if (detail != null && position >= 0) {
+                position = putUtf8(": ", position, end);
+                position = position >= 0 ? putUtf8(detail, position, end) : position;
+            }
+        }
+        boolean truncated = position < 0;
+        int length = truncated ? -position - start : position - start;
+        slots.put(base + FLAGS_OFFSET, truncated ? TRUNCATED : 0);
+        slots.putShort(base + LENGTH_OFFSET, (short) length);
+
+        // Publish the entry; sequence numbers are stored plus one, so zero means empty or incomplete
+        LONGS.setRelease(slots, base + SEQUENCE_OFFSET, sequence + 1);
+    }
+
+    /**
+     * Appends the recorded entries, oldest first, to the dump file.
+     *
+     * @param reason Why the recorder is dumped, written into the header of the dump.
+     */
+    void dump(String reason) {
+        List<Entry> entries = snapshot();
+        dumpLock.lock();
+        try {
+            Path parent = dumpPath.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(dumpPath, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                writer.write("=== Flight recorder dump at " + TIMESTAMP_FORMAT.format(Instant.now())
+                        + " (" + reason + "), " + entries.size() + " entries ===");
+                writer.newLine();
+                for (Entry entry : entries) {
+                    writer.write(TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(entry.timestamp)));
+                    writer.write(" [" + Level.ofSeverity(entry.severity).name() + "] [thread " + entry.thread + "] ");
+                    writer.write(entry.message);
+                    if (entry.truncated) {
+                        writer.write("...");
+                    }
+                    writer.newLine();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to write flight recorder dump: " + e.getMessage());
+        } finally {
+            dumpLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the complete entries out of the ring buffer, skipping slots that are being overwritten.
+     *
+     * @return The entries in the order they were recorded.
+     */
+    private List<Entry> snapshot() {
+        List<Entry> entries = new ArrayList<>(slotCount);
+        byte[] message = new byte[MAX_MESSAGE_BYTES];
+        for (int slot = 0; slot < slotCount; slot++) {
+            int base = slot * SLOT_SIZE;
+            long sequence = (long) LONGS.getAcquire(slots, base + SEQUENCE_OFFSET);
+            if (sequence == 0) {
+                continue;
+            }
+            long timestamp = slots.getLong(base + TIMESTAMP_OFFSET);
+            long thread = slots.getLong(base + THREAD_OFFSET);
+            int severity = slots.get(base + SEVERITY_OFFSET);
+            boolean truncated = slots.get(base + FLAGS_OFFSET) == TRUNCATED;
+            int length = Math.min(MAX_MESSAGE_BYTES, Math.max(0, slots.getShort(base + LENGTH_OFFSET)));
+            slots.get(base + MESSAGE_OFFSET, message, 0, length);
+
+            // The copy is only valid if no writer claimed the slot in the meantime
+            VarHandle.acquireFence();
+            if ((long) LONGS.getVolatile(slots, base + SEQUENCE_OFFSET) != sequence
+                    || severity < 0 || severity > Level.FATAL.ordinal()) {
+                continue;
+            }
+            entries.add(new Entry(sequence, timestamp, thread, severity, truncated,
+                    new String(message, 0, length, StandardCharsets.UTF_8)));
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.sequence));
+        return entries;
+    }
+
+    /**
+     * Encodes text as UTF-8 into the slot, stopping at the end of the message area.
+     *
+     * @param text The text.
+     * @param position The absolute position to start at.
+     * @param end The absolute end of the message area.
+     * @return The position after the text, or the negated position where encoding stopped if the text did not fit.
+     */
+    private int putUtf8(CharSequence text, int position, int end) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (position >= end) {
+                    return -position;
+                }
+                slots.put(position++, (byte) c);
+            } else if (c < 0x800) {
+                if (position + 2 > end) {
+                    return -position;
+                }
+                slots.put(position++, (byte) (0xC0 | (c >> 6)));
+                slots.put(position++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                if (position + 4 > end) {
+                    return -position;
+                }
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                slots.put(position++, (byte) (0xF0 | (codePoint >> 18)));
+                slots.put(position++, (byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                slots.put(position++, (byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                slots.put(position++, (byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are written as '?'
+                if (position >= end) {
+                    return -position;
+                }
+                slots.put(position++, (byte) '?');
+            } else {
+                if (position + 3 > end) {
+                    return -position;
+                }
+                slots.put(position++, (byte) (0xE0 | (c >> 12)));
+                slots.put(position++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                slots.put(position++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Chains a default uncaught exception handler that dumps all active recorders before the previous
+     * handler runs. Installed once, on the first recorder.
+     */
+    private static void installUncaughtExceptionHandler() {
+        HANDLER_LOCK.lock();
+        try {
+            if (handlerInstalled) {
+                return;
+            }
+            handlerInstalled = true;
+            Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+            Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+                for (FlightRecorder recorder : ACTIVE) {
+                    recorder.record(Level.FATAL.ordinal(), System.currentTimeMillis(),
+                            "Uncaught exception in thread " + thread.getName(), e);
+                    recorder.dump("uncaught exception in thread " + thread.getName());
+                }
+                if (previous != null) {
+                    previous.uncaughtException(thread, e);
+                } else {
+                    // What the thread group would print; calling it would come back to this handler
+                    System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                    e.printStackTrace(System.err);
+                }
+            });
+        } finally {
+            HANDLER_LOCK.unlock();
+        }
+    }
+
+    /**
+     * An entry copied out of the ring buffer.
+     */
+    private static final class Entry {
+
+        final long sequence;
+        final long timestamp;
+        final long thread;
+        final int severity;
+        final boolean truncated;
+        final String message;
+
+        Entry(long sequence, long timestamp, long thread, int severity, boolean truncated, String message) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.thread = thread;
+            this.severity = severity;
+            this.truncated = truncated;
+            this.message = message;
+        }
+    }
+}
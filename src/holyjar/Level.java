@@ -0,0 +1,47 @@
+package holyjar;
+
+
+/**
+ * Severity levels of log entries, ordered from the least to the most severe.
+ * The name of each level is the label written into the log entry.
+ */
+public enum Level {
+    DEBUG,
+    INFO,
+    WARNING,
+    ERROR,
+    FATAL;
+
+    // Cached values() copy, so lookups by rank do not clone the array
+    private static final Level[] LEVELS = values();
+
+    /**
+     * Returns the level with the given label, or INFO for labels that are not one of the standard levels.
+     *
+     * @param label The level label, for example "WARNING".
+     * @return The matching level.
+     */
+    public static Level of(String label) {
+        return LEVELS[Logger.severity(label)];
+    }
+
+    /**
+     * Returns the level with the given severity rank.
+     *
+     * @param severity The rank, from 0 for DEBUG up to 4 for FATAL.
+     * @return The matching level.
+     */
+    static Level ofSeverity(int severity) {
+        return LEVELS[severity];
+    }
+
+    /**
+     * Checks whether this level is at least as severe as another one.
+     *
+     * @param other The level to compare with.
+     * @return True if this level is the same as or more severe than the other level.
+     */
+    public boolean isAtLeast(Level other) {
+        return ordinal() >= other.ordinal();
+    }
+}
@@ -0,0 +1,264 @@
+package holyjar;
+
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * LineReader lets callers wait for console lines without blocking their own thread.
+ * A single daemon thread reads lines while someone is waiting for one and hands each line to the oldest
+ * pending request, or to the subscribers while no request is pending. Lines nobody claims, for example
+ * because the request that caused the read timed out, are kept for the next request.
+ */
+final class LineReader {
+
+    // Source of the lines; blocks until a line is complete and throws NoSuchElementException at the end of input
+    private final Supplier<String> source;
+
+    // Lock shared with the synchronous reads; held from reading a line until it is handed over,
+    // so a synchronous read never misses a line that is about to become unclaimed
+    private final ReentrantLock inputLock;
+
+    // Lock guarding the queues; never held while reading or while running callbacks
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition demand = lock.newCondition();
+
+    // Pending requests in arrival order, and lines read that no request or subscriber took
+    private final ArrayDeque<CompletableFuture<String>> requests = new ArrayDeque<>();
+    private final ArrayDeque<String> unclaimed = new ArrayDeque<>();
+
+    private final CopyOnWriteArrayList<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+    // Set when the source reported the end of input
+    private RuntimeException end;
+    private Thread thread;
+
+    /**
+     * Creates a line reader. The reading thread is started by the first request or subscription.
+     *
+     * @param inputLock The lock that serializes all reads of the source.
+     * @param source The source of the lines.
+     */
+    LineReader(ReentrantLock inputLock, Supplier<String> source) {
+        this.inputLock = inputLock;
+        this.source = source;
+    }
+
+    /**
+     * Requests the next line.
+     *
+     * @return A future completed with the line, or completed exceptionally with a NoSuchElementException
+     *         when the input ends. Cancelling it gives the line to the next request instead.
+     */
+    CompletableFuture<String> request() {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            String line = unclaimed.poll();
+            if (line != null) {
+                future.complete(line);
+            } else if (end != null) {
+                future.completeExceptionally(end);
+            } else {
+                requests.add(future);
+                start();
+                demand.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Takes a line that was read in the background but not claimed.
+     *
+     * @return The oldest unclaimed line, or null if there is none.
+     */
+    String pollUnclaimed() {
+        lock.lock();
+        try {
+            return unclaimed.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delivers lines to a callback until the subscription is cancelled or the input ends.
+     * The callback runs on the reading thread and only receives lines no request is waiting for.
+     *
+     * @param onLine The callback.
+     * @return The subscription.
+     */
+    Console.LineSubscription subscribe(Consumer<String> onLine) {
+        Subscription subscription = new Subscription(onLine);
+        lock.lock();
+        try {
+            if (end != null) {
+                subscription.active = false;
+                return subscription;
+            }
+            subscribers.add(subscription);
+            start();
+            demand.signal();
+        } finally {
+            lock.unlock();
+        }
+        return subscription;
+    }
+
+    /**
+     * Starts the reading thread if it is not running. Must be called with the lock held.
+     */
+    private void start() {
+        if (thread == null) {
+            thread = new Thread(this::readLoop, "holyjar-console-reader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Checks whether anyone is waiting for a line. Must be called with the lock held.
+     *
+     * @return True if a request is pending or a subscription is active.
+     */
+    private boolean hasDemand() {
+        while (!requests.isEmpty() && requests.peek().isDone()) {
+            // Cancelled while waiting
+            requests.poll();
+        }
+        return !requests.isEmpty() || !subscribers.isEmpty();
+    }
+
+    /**
+     * Main loop of the reading thread: waits until a line is wanted, reads it and delivers it.
+     */
+    private void readLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                while (!hasDemand()) {
+                    demand.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            String line;
+            inputLock.lock();
+            try {
+                line = source.get();
+                if (handOver(line)) {
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                finish(e instanceof NoSuchElementException ? e : new NoSuchElementException(e.getMessage()));
+                return;
+            } finally {
+                inputLock.unlock();
+            }
+            publish(line);
+        }
+    }
+
+    /**
+     * Hands a line to the oldest pending request, or keeps it if there is neither a request nor a subscriber.
+     * Must be called with the input lock held.
+     *
+     * @param line The line.
+     * @return True if the line was handed over or kept, false if it goes to the subscribers.
+     */
+    private boolean handOver(String line) {
+        while (true) {
+            CompletableFuture<String> future;
+            lock.lock();
+            try {
+                future = requests.poll();
+                if (future == null) {
+                    if (!subscribers.isEmpty()) {
+                        return false;
+                    }
+                    unclaimed.add(line);
+                    return true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // Completing outside the queue lock, because dependent actions run on this thread
+            if (future.complete(line)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Passes a line to every subscriber.
+     *
+     * @param line The line.
+     */
+    private void publish(String line) {
+        for (Subscription subscription : subscribers) {
+            try {
+                subscription.onLine.accept(line);
+            } catch (RuntimeException e) {
+                System.err.println("Failed to handle console line: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fails every pending request and ends every subscription after the input ended.
+     *
+     * @param cause The exception reported by the source.
+     */
+    private void finish(RuntimeException cause) {
+        ArrayDeque<CompletableFuture<String>> pending;
+        lock.lock();
+        try {
+            end = cause;
+            pending = new ArrayDeque<>(requests);
+            requests.clear();
+            thread = null;
+        } finally {
+            lock.unlock();
+        }
+        for (CompletableFuture<String> future : pending) {
+            future.completeExceptionally(cause);
+        }
+        for (Subscription subscription : subscribers) {
+            subscription.cancel();
+        }
+    }
+
+    /**
+     * A callback registered with {@link #subscribe(Consumer)}.
+     */
+    private final class Subscription implements Console.LineSubscription {
+
+        private final Consumer<String> onLine;
+        private volatile boolean active = true;
+
+        Subscription(Consumer<String> onLine) {
+            this.onLine = onLine;
+        }
+
+        @Override
+        public void cancel() {
+            active = false;
+            subscribers.remove(this);
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+package holyjar;
+
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * LogDecoder reads the records of a log file written in {@link Logger.FileFormat#BINARY} format, as laid out by
+ * {@link BinaryLogEncoder}, and renders their messages on demand. Queries use it for binary files; it is also
+ * the command-line tool that turns binary logs back into text:
+ * <pre>
+ * java -cp HolyJAR.jar holyjar.LogDecoder logs/Logs.log
+ * </pre>
+ * For every log file given, its backups are rendered first, oldest first, followed by the file itself, each entry
+ * as "yyyy-MM-dd HH:mm:ss [LEVEL] message" on standard output. Gzipped backups are decompressed, and files
+ * written as text or JSON lines are copied unchanged, so a log that switched formats is rendered completely.
+ */
+public final class LogDecoder {
+
+    // Size of the read buffer
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPosition;
+    private int bufferLimit;
+
+    // Reusable array for decoding strings
+    private byte[] scratch = new byte[256];
+
+    // Templates defined so far, by id
+    private String[] templates = new String[64];
+
+    // The current entry: sequence number or -1, time, level, and the template with its arguments or the message
+    private long sequence;
+    private long timestamp;
+    private int severity;
+    private String label;
+    private String template;
+    private Object[] args = new Object[8];
+    private int argCount;
+    private String message;
+    private String suffix;
+
+    /**
+     * Starts decoding a binary log file.
+     *
+     * @param input The uncompressed content of the file, from its start. It is not closed by the decoder.
+     * @throws IOException If the content does not start like a binary log file.
+     */
+    LogDecoder(InputStream input) throws IOException {
+        this.input = input;
+        for (byte b : BinaryLogEncoder.MAGIC) {
+            if (readByte() != (b & 0xFF)) {
+                throw new IOException("Not a binary log file");
+            }
+        }
+    }
+
+    /**
+     * Determines the format of a log file from its first bytes: binary files start with the magic bytes,
+     * JSON entries with a brace, and anything else is taken as text.
+     *
+     * @param file The file, plain or gzipped.
+     * @return The format of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    static Logger.FileFormat formatOf(Path file) throws IOException {
+        byte[] start;
+        try (InputStream in = open(file)) {
+            start = in.readNBytes(BinaryLogEncoder.MAGIC.length);
+        }
+        if (isBinary(start)) {
+            return Logger.FileFormat.BINARY;
+        }
+        return start.length > 0 && start[0] == '{' ? Logger.FileFormat.JSON : Logger.FileFormat.TEXT;
+    }
+
+    /**
+     * Checks whether the first bytes of a file are those of a log file in binary format.
+     *
+     * @param start The first bytes of the file.
+     * @return True if they start a binary log file.
+     */
+    static boolean isBinary(byte[] start) {
+        return Arrays.equals(start, BinaryLogEncoder.MAGIC);
+    }
+
+    /**
+     * Opens the uncompressed content of a log file.
+     *
+     * @param file The file, plain or gzipped.
+     * @return The content.
+     * @throws IOException If the file cannot be opened.
+     */
+    private static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (!file.getFileName().toString().endsWith(LogRotator.GZIP_EXTENSION)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves to the next entry, reading the template definitions before it.
+     *
+     * @return False at the end of the data. A last record cut off by a write in progress is not returned.
+     * @throws IOException If the file cannot be read or is damaged.
+     */
+    boolean next() throws IOException {
+        try {
+            while (true) {
+                int kind = readByte();
+                switch (kind) {
+                    case -1:
+                    case 0:
+                        // End of the file, or the zero-filled rest of a file cut off by a crash
+                        return false;
+                    case BinaryLogEncoder.DEFINE:
+                        define((int) readVarint(), readString());
+                        break;
+                    case BinaryLogEncoder.ENTRY:
+                        sequence = -1;
+                        readEntry();
+                        return true;
+                    case BinaryLogEncoder.SEQUENCED_ENTRY:
+                        sequence = readFixed(Long.BYTES);
+                        readEntry();
+                        return true;
+                    default:
+                        throw new IOException("Unknown record kind " + kind + " in binary log file");
+                }
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the time of the current entry.
+     *
+     * @return The time in epoch milliseconds.
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the severity rank of the current entry.
+     *
+     * @return The severity rank, INFO for a custom level label.
+     */
+    int getSeverity() {
+        return severity;
+    }
+
+    /**
+     * Returns the level label of the current entry.
+     *
+     * @return The label as it was logged.
+     */
+    String getLabel() {
+        return label;
+    }
+
+    /**
+     * Returns the sequence number of the current entry.
+     *
+     * @return The sequence number, or -1 if the entry has none.
+     */
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Renders the message of the current entry, with its exception, as it would have been written as text.
+     *
+     * @return The message.
+     */
+    String getMessage() {
+        CharSequence rendered = template != null ? MessageFormatter.format(template, args, argCount) : message;
+        return suffix.isEmpty() ? rendered.toString() : rendered + suffix;
+    }
+
+    /**
+     * Returns the current entry.
+     *
+     * @return The entry with its rendered message.
+     */
+    LogEntry toEntry() {
+        return new LogEntry(timestamp, Level.ofSeverity(severity), getMessage(), sequence);
+    }
+
+    /**
+     * Renders log files and their backups as text on standard output.
+     *
+     * @param args The log files.
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: java -cp HolyJAR.jar holyjar.LogDecoder <log file>...");
+            System.err.println("Renders each log file, preceded by its backups, as text on standard output.");
+            System.exit(2);
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE);
+        int status = 0;
+        for (String arg : args) {
+            try {
+                List<Path> files = LogRotator.listFiles(Paths.get(arg));
+                if (files.isEmpty()) {
+                    throw new IOException("No such log file: " + arg);
+                }
+                for (Path file : files) {
+                    render(file, out);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to decode log file: " + e.getMessage());
+                status = 1;
+            }
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            System.err.println("Failed to write output: " + e.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /**
+     * Renders one file as text: binary entries are decoded, text and JSON lines are copied as they are.
+     *
+     * @param file The file, plain or gzipped.
+     * @param out Where the text goes.
+     * @throws IOException If the file cannot be read or is damaged.
+     */
+    static void render(Path file, OutputStream out) throws IOException {
+        if (formatOf(file) != Logger.FileFormat.BINARY) {
+            try (InputStream in = open(file)) {
+                in.transferTo(out);
+            }
+            return;
+        }
+        try (InputStream in = open(file)) {
+            LogDecoder decoder = new LogDecoder(in);
+            LogEncoder encoder = LogEncoder.get();
+            while (decoder.next()) {
+                long sequence = decoder.getSequence();
+                ByteBuffer entry = encoder.encode(decoder.getTimestamp(), decoder.getLabel(), decoder.getMessage(),
+                        sequence >= 0);
+                if (sequence >= 0) {
+                    LogEncoder.putSequence(entry, sequence);
+                }
+                out.write(entry.array(), entry.position(), entry.remaining());
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of an entry record after its kind and sequence number.
+     *
+     * @throws IOException If the data is damaged or ends within the record.
+     */
+    private void readEntry() throws IOException {
+        timestamp = readVarint();
+        int level = readByte();
+        if (level == BinaryLogEncoder.CUSTOM_LEVEL) {
+            label = readString();
+            severity = Logger.severity(label);
+        } else if (level >= 0 && level < Level.values().length) {
+            severity = level;
+            label = Level.ofSeverity(level).name();
+        } else {
+            throw level < 0 ? new EOFException() : new IOException("Unknown level " + level + " in binary log file");
+        }
+        long templateId = readVarint();
+        if (templateId == 0) {
+            template = null;
+            argCount = 0;
+            message = readString();
+        } else {
+            template = templateId < templates.length ? templates[(int) templateId] : null;
+            if (template == null) {
+                throw new IOException("Undefined template " + templateId + " in binary log file");
+            }
+            argCount = (int) readVarint();
+            if (args.length < argCount) {
+                args = new Object[Math.max(argCount, args.length * 2)];
+            }
+            for (int i = 0; i < argCount; i++) {
+                args[i] = readArgument();
+            }
+        }
+        suffix = readString();
+    }
+
+    /**
+     * Reads an argument as the boxed value the template rendering expects.
+     *
+     * @return The argument.
+     * @throws IOException If the data is damaged or ends within the argument.
+     */
+    private Object readArgument() throws IOException {
+        int tag = readByte();
+        switch (tag) {
+            case BinaryLogEncoder.NULL:
+                return null;
+            case BinaryLogEncoder.LONG:
+                long value = readVarint();
+                return (value >>> 1) ^ -(value & 1);
+            case BinaryLogEncoder.DOUBLE:
+                return Double.longBitsToDouble(readFixed(Long.BYTES));
+            case BinaryLogEncoder.FLOAT:
+                return Float.intBitsToFloat((int) readFixed(Integer.BYTES));
+            case BinaryLogEncoder.TRUE:
+                return Boolean.TRUE;
+            case BinaryLogEncoder.FALSE:
+                return Boolean.FALSE;
+            case BinaryLogEncoder.STRING:
+                return readString();
+            case -1:
+                throw new EOFException();
+            default:
+                throw new IOException("Unknown argument type " + tag + " in binary log file");
+        }
+    }
+
+    /**
+     * Stores a template definition.
+     *
+     * @param id The id of the template.
+     * @param definition The template.
+     * @throws IOException If the id is invalid.
+     */
+    private void define(int id, String definition) throws IOException {
+        if (id <= 0) {
+            throw new IOException("Invalid template id " + id + " in binary log file");
+        }
+        if (id >= templates.length) {
+            templates = Arrays.copyOf(templates, Math.max(id + 1, templates.length * 2));
+        }
+        templates[id] = definition;
+    }
+
+    /**
+     * Reads a string as its UTF-8 byte length and bytes.
+     *
+     * @return The string.
+     * @throws IOException If the data ends within the string.
+     */
+    private String readString() throws IOException {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Invalid string length " + length + " in binary log file");
+        }
+        if (scratch.length < length) {
+            scratch = new byte[(int) Math.max(length, scratch.length * 2L)];
+        }
+        int filled = 0;
+        while (filled < length) {
+            if (bufferPosition == bufferLimit && !fill()) {
+                throw new EOFException();
+            }
+            int count = (int) Math.min(length - filled, bufferLimit - bufferPosition);
+            System.arraycopy(buffer, bufferPosition, scratch, filled, count);
+            bufferPosition += count;
+            filled += count;
+        }
+        return new String(scratch, 0, (int) length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads an unsigned LEB128 varint.
+     *
+     * @return The value.
+     * @throws IOException If the data ends within the varint.
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = readByte();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint in binary log file");
+    }
+
+    /**
+     * Reads a big-endian fixed-size value.
+     *
+     * @param length The number of bytes.
+     * @return The value.
+     * @throws IOException If the data ends within the value.
+     */
+    private long readFixed(int length) throws IOException {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            int b = readByte();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * Reads one byte.
+     *
+     * @return The byte, or -1 at the end of the data.
+     * @throws IOException If the data cannot be read.
+     */
+    private int readByte() throws IOException {
+        if (bufferPosition == bufferLimit && !fill()) {
+            return -1;
+        }
+        return buffer[bufferPosition++] & 0xFF;
+    }
+
+    /**
+     * Refills the read buffer.
+     *
+     * @return False at the end of the data.
+     * @throws IOException If the data cannot be read.
+     */
+    private boolean fill() throws IOException {
+        int read = input.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        bufferPosition = 0;
+        bufferLimit = read;
+        return true;
+    }
+}
@@ -0,0 +1,470 @@
+package holyjar;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+/**
+ * LogEncoder turns a log entry into its UTF-8 bytes, in the format "yyyy-MM-dd HH:mm:ss [LEVEL] message",
+ * without allocating in the steady state. Each thread owns one encoder with a reusable byte buffer,
+ * and the rendered timestamp is cached per second so only changed digits are rewritten.
+ * <p>
+ * Entries of sharded log files carry a sequence number between the timestamp and the level,
+ * "yyyy-MM-dd HH:mm:ss #0000000000000000042 [LEVEL] message". It is encoded as zeros and filled in
+ * with {@link #putSequence(ByteBuffer, long)} once the entry's place in its file is decided.
+ * <p>
+ * In {@link Logger.FileFormat#JSON} format an entry is one JSON object per line with a fixed start,
+ * {"time":"yyyy-MM-dd HH:mm:ss","level":"LEVEL","message":"..."}, and the fields of a structured {@link LogEvent}
+ * as further members. The sequence number of sharded files is the string member "sequence" after "time".
+ */
+final class LogEncoder {
+
+    // Line separator appended after every entry, matching BufferedWriter.newLine()
+    static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    // Length of the rendered "yyyy-MM-dd HH:mm:ss" timestamp
+    static final int TIMESTAMP_LENGTH = 19;
+
+    // Number of digits of the sequence number field, enough for any non-negative long
+    static final int SEQUENCE_DIGITS = 19;
+
+    // Fixed parts of a JSON entry, in the order they are written
+    static final byte[] JSON_TIME = "{\"time\":\"".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] JSON_SEQUENCE = "\",\"sequence\":\"".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] JSON_LEVEL = "\",\"level\":\"".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] JSON_MESSAGE = "\",\"message\":\"".getBytes(StandardCharsets.US_ASCII);
+
+    // Hexadecimal digits for escaped control characters in JSON strings
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // How often the zone offset is looked up again, to follow daylight saving changes
+    private static final long OFFSET_CHECK_INTERVAL_SECONDS = 60;
+
+    // Seconds per day, for the date arithmetic
+    private static final long SECONDS_PER_DAY = 86400;
+
+    // One encoder per thread, so encoding needs no locking
+    private static final ThreadLocal<LogEncoder> ENCODERS = ThreadLocal.withInitial(LogEncoder::new);
+
+    // Reusable output buffer and a ByteBuffer view over it
+    private byte[] bytes = new byte[1024];
+    private ByteBuffer view = ByteBuffer.wrap(bytes);
+
+    // Reusable builder for the text form of an entry, and for the digits of numeric JSON values
+    private final StringBuilder text = new StringBuilder(256);
+    private final StringBuilder number = new StringBuilder(32);
+
+    // Cached rendering of the current second
+    private final byte[] timestamp = new byte[TIMESTAMP_LENGTH];
+    private long cachedSecond = Long.MIN_VALUE;
+
+    // Cached zone offset and the epoch second at which it has to be looked up again
+    private final ZoneId zone = ZoneId.systemDefault();
+    private int offsetSeconds;
+    private long nextOffsetCheck = Long.MIN_VALUE;
+
+    /**
+     * Creates an encoder. Use {@link #get()} to obtain the encoder of the current thread.
+     */
+    private LogEncoder() {
+        // This constructor is intentionally empty; encoders are obtained through get()
+    }
+
+    /**
+     * Returns the encoder owned by the current thread.
+     *
+     * @return The thread's encoder.
+     */
+    static LogEncoder get() {
+        return ENCODERS.get();
+    }
+
+    /**
+     * Encodes a log entry followed by a line separator.
+     * The returned buffer is owned by this encoder and only valid until its next use.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @return A buffer positioned at the start of the encoded entry, with its limit at the end.
+     */
+    ByteBuffer encode(long millis, String level, CharSequence message) {
+        return encode(millis, level, message, false);
+    }
+
+    /**
+     * Encodes a log entry followed by a line separator, optionally with an empty sequence number field.
+     * The returned buffer is owned by this encoder and only valid until its next use.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param sequenced True to reserve the sequence number field.
+     * @return A buffer positioned at the start of the encoded entry, with its limit at the end.
+     */
+    ByteBuffer encode(long millis, String level, CharSequence message, boolean sequenced) {
+        // Worst case is three bytes per char; the brackets, spaces, sequence field and separator add a few more
+        ensureCapacity(TIMESTAMP_LENGTH + SEQUENCE_DIGITS + 6 + 3 * (level.length() + message.length())
+                + LINE_SEPARATOR.length);
+
+        int position = 0;
+        updateTimestamp(Math.floorDiv(millis, 1000));
+        System.arraycopy(timestamp, 0, bytes, position, TIMESTAMP_LENGTH);
+        position += TIMESTAMP_LENGTH;
+        bytes[position++] = ' ';
+        if (sequenced) {
+            bytes[position++] = '#';
+            for (int i = 0; i < SEQUENCE_DIGITS; i++) {
+                bytes[position++] = '0';
+            }
+            bytes[position++] = ' ';
+        }
+        bytes[position++] = '[';
+        position = putUtf8(bytes, position, level);
+        bytes[position++] = ']';
+        bytes[position++] = ' ';
+        position = putUtf8(bytes, position, message);
+        System.arraycopy(LINE_SEPARATOR, 0, bytes, position, LINE_SEPARATOR.length);
+        position += LINE_SEPARATOR.length;
+
+        view.limit(position).position(0);
+        return view;
+    }
+
+    /**
+     * Fills in the sequence number field of an entry encoded with the field reserved.
+     *
+     * @param entry The encoded entry, positioned at its start.
+     * @param sequence The sequence number, not negative.
+     */
+    static void putSequence(ByteBuffer entry, long sequence) {
+        putDigits(entry, entry.position() + TIMESTAMP_LENGTH + 2 + SEQUENCE_DIGITS, sequence);
+    }
+
+    /**
+     * Encodes a log entry as a JSON object followed by a line separator, optionally with an empty sequence number
+     * member. The fields of a structured event are written as members after the message, numbers and booleans
+     * unquoted; numbers that JSON cannot represent, such as NaN, are written as strings.
+     * The returned buffer is owned by this encoder and only valid until its next use.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param fields The fields of a structured event, or null for none.
+     * @param sequenced True to reserve the sequence number member.
+     * @return A buffer positioned at the start of the encoded entry, with its limit at the end.
+     */
+    ByteBuffer encodeJson(long millis, String level, CharSequence message, LogEvent fields, boolean sequenced) {
+        updateTimestamp(Math.floorDiv(millis, 1000));
+        ensureCapacity(JSON_TIME.length + TIMESTAMP_LENGTH + JSON_SEQUENCE.length + SEQUENCE_DIGITS
+                + JSON_LEVEL.length);
+        int position = put(JSON_TIME, 0);
+        System.arraycopy(timestamp, 0, bytes, position, TIMESTAMP_LENGTH);
+        position += TIMESTAMP_LENGTH;
+        if (sequenced) {
+            position = put(JSON_SEQUENCE, position);
+            for (int i = 0; i < SEQUENCE_DIGITS; i++) {
+                bytes[position++] = '0';
+            }
+        }
+        position = put(JSON_LEVEL, position);
+        position = putJsonString(level, position);
+        position = put(JSON_MESSAGE, position);
+        position = putJsonString(message, position);
+        bytes[position++] = '"';
+        int count = fields != null ? fields.size() : 0;
+        for (int i = 0; i < count; i++) {
+            ensureCapacity(position + 2);
+            bytes[position++] = ',';
+            bytes[position++] = '"';
+            position = putJsonString(fields.key(i), position);
+            ensureCapacity(position + 3);
+            bytes[position++] = '"';
+            bytes[position++] = ':';
+            switch (fields.type(i)) {
+                case LogEvent.LONG:
+                    number.setLength(0);
+                    position = putNumber(number.append(fields.longValue(i)), position);
+                    break;
+                case LogEvent.DOUBLE:
+                    double value = fields.doubleValue(i);
+                    number.setLength(0);
+                    number.append(value);
+                    if (Double.isFinite(value)) {
+                        position = putNumber(number, position);
+                    } else {
+                        position = putQuoted(number, position);
+                    }
+                    break;
+                case LogEvent.BOOLEAN:
+                    position = putNumber(fields.longValue(i) != 0 ? "true" : "false", position);
+                    break;
+                default:
+                    String string = fields.stringValue(i);
+                    position = string == null ? putNumber("null", position) : putQuoted(string, position);
+            }
+        }
+        ensureCapacity(position + 1 + LINE_SEPARATOR.length);
+        bytes[position++] = '}';
+        System.arraycopy(LINE_SEPARATOR, 0, bytes, position, LINE_SEPARATOR.length);
+        position += LINE_SEPARATOR.length;
+
+        view.limit(position).position(0);
+        return view;
+    }
+
+    /**
+     * Fills in the sequence number member of a JSON entry encoded with the member reserved.
+     *
+     * @param entry The encoded entry, positioned at its start.
+     * @param sequence The sequence number, not negative.
+     */
+    static void putJsonSequence(ByteBuffer entry, long sequence) {
+        putDigits(entry, entry.position() + JSON_TIME.length + TIMESTAMP_LENGTH + JSON_SEQUENCE.length
+                + SEQUENCE_DIGITS, sequence);
+    }
+
+    /**
+     * Writes a number as zero-padded decimal digits that end before a position.
+     *
+     * @param entry The encoded entry.
+     * @param end The position after the last digit.
+     * @param value The number, not negative.
+     */
+    private static void putDigits(ByteBuffer entry, int end, long value) {
+        for (int i = end - 1; i >= end - SEQUENCE_DIGITS; i--) {
+            entry.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    /**
+     * Copies fixed bytes into the output buffer, which has to have room for them.
+     *
+     * @param part The bytes.
+     * @param position The position to start writing at.
+     * @return The position after the last written byte.
+     */
+    private int put(byte[] part, int position) {
+        System.arraycopy(part, 0, bytes, position, part.length);
+        return position + part.length;
+    }
+
+    /**
+     * Writes ASCII characters, such as the digits of a number, as they are.
+     *
+     * @param ascii The characters.
+     * @param position The position to start writing at.
+     * @return The position after the last written byte.
+     */
+    private int putNumber(CharSequence ascii, int position) {
+        ensureCapacity(position + ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            bytes[position++] = (byte) ascii.charAt(i);
+        }
+        return position;
+    }
+
+    /**
+     * Writes a JSON string value, with its quotes.
+     *
+     * @param value The characters of the string.
+     * @param position The position to start writing at.
+     * @return The position after the closing quote.
+     */
+    private int putQuoted(CharSequence value, int position) {
+        ensureCapacity(position + 1);
+        bytes[position++] = '"';
+        position = putJsonString(value, position);
+        ensureCapacity(position + 1);
+        bytes[position++] = '"';
+        return position;
+    }
+
+    /**
+     * Writes the characters of a JSON string as UTF-8, escaping quotes, backslashes and control characters.
+     * The quotes around the string are not written.
+     *
+     * @param value The characters.
+     * @param position The position to start writing at.
+     * @return The position after the last written byte.
+     */
+    private int putJsonString(CharSequence value, int position) {
+        // Escapes take up to six bytes per char, and no escaped char is part of a multi-byte sequence
+        int length = value.length();
+        ensureCapacity(position + 6 * length);
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            position = putUtf8(bytes, position, value, runStart, i);
+            bytes[position++] = '\\';
+            switch (c) {
+                case '"':
+                case '\\':
+                    bytes[position++] = (byte) c;
+                    break;
+                case '\n':
+                    bytes[position++] = 'n';
+                    break;
+                case '\r':
+                    bytes[position++] = 'r';
+                    break;
+                case '\t':
+                    bytes[position++] = 't';
+                    break;
+                default:
+                    bytes[position++] = 'u';
+                    bytes[position++] = '0';
+                    bytes[position++] = '0';
+                    bytes[position++] = HEX_DIGITS[c >> 4];
+                    bytes[position++] = HEX_DIGITS[c & 0xF];
+            }
+            runStart = i + 1;
+        }
+        return putUtf8(bytes, position, value, runStart, length);
+    }
+
+    /**
+     * Formats a log entry as text, without the line separator, for outputs that write characters.
+     * The returned builder is owned by this encoder and only valid until its next use.
+     *
+     * @param millis The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @return The formatted entry.
+     */
+    CharSequence format(long millis, String level, CharSequence message) {
+        updateTimestamp(Math.floorDiv(millis, 1000));
+        text.setLength(0);
+        for (byte b : timestamp) {
+            text.append((char) b);
+        }
+        text.append(" [").append(level).append("] ").append(message);
+        return text;
+    }
+
+    /**
+     * Grows the output buffer, keeping its content, if it cannot hold the given number of bytes.
+     *
+     * @param required The number of bytes needed.
+     */
+    private void ensureCapacity(int required) {
+        if (bytes.length < required) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+            view = ByteBuffer.wrap(bytes);
+        }
+    }
+
+    /**
+     * Encodes characters as UTF-8 into a byte array. Unpaired surrogates are written as '?'.
+     *
+     * @param out The array to write to, with room for three bytes per char.
+     * @param position The position to start writing at.
+     * @param text The characters to encode.
+     * @return The position after the last written byte.
+     */
+    static int putUtf8(byte[] out, int position, CharSequence text) {
+        return putUtf8(out, position, text, 0, text.length());
+    }
+
+    /**
+     * Encodes a range of characters as UTF-8 into a byte array. Unpaired surrogates are written as '?'.
+     *
+     * @param out The array to write to, with room for three bytes per char.
+     * @param position The position to start writing at.
+     * @param text The characters to encode.
+     * @param start The index of the first char.
+     * @param length The index after the last char.
+     * @return The position after the last written byte.
+     */
+    static int putUtf8(byte[] out, int position, CharSequence text, int start, int length) {
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    out[position++] = '?';
+                }
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Renders the timestamp for the given second into the cached prefix, unless it is already cached.
+     * The local date and time are computed arithmetically so that no date objects are created.
+     *
+     * @param epochSecond The time in epoch seconds.
+     */
+    private void updateTimestamp(long epochSecond) {
+        if (epochSecond == cachedSecond) {
+            return;
+        }
+        if (epochSecond >= nextOffsetCheck || epochSecond < cachedSecond) {
+            offsetSeconds = zone.getRules().getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+            nextOffsetCheck = epochSecond + OFFSET_CHECK_INTERVAL_SECONDS;
+        }
+        cachedSecond = epochSecond;
+
+        long localSecond = epochSecond + offsetSeconds;
+        long epochDay = Math.floorDiv(localSecond, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(localSecond, SECONDS_PER_DAY);
+
+        // Civil date from days since 1970-01-01 (proleptic Gregorian calendar)
+        long days = epochDay + 719468;
+        long era = Math.floorDiv(days, 146097);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        putDigits((int) year, 0, 4);
+        timestamp[4] = '-';
+        putDigits(month, 5, 2);
+        timestamp[7] = '-';
+        putDigits(day, 8, 2);
+        timestamp[10] = ' ';
+        putDigits(secondOfDay / 3600, 11, 2);
+        timestamp[13] = ':';
+        putDigits(secondOfDay / 60 % 60, 14, 2);
+        timestamp[16] = ':';
+        putDigits(secondOfDay % 60, 17, 2);
+    }
+
+    /**
+     * Writes a zero-padded decimal number into the cached timestamp.
+     *
+     * @param value The number to write.
+     * @param offset The index of the first digit.
+     * @param width The number of digits to write.
+     */
+    private void putDigits(int value, int offset, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            timestamp[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package holyjar;
+
+
+/**
+ * LogEntry is one log entry as returned by {@link NamedLogger#query} and delivered to subscriptions.
+ * Entries read back from a log file have the timestamp precision of the file, whole seconds.
+ */
+public final class LogEntry {
+
+    private final long timestamp;
+    private final Level level;
+    private final String message;
+    private final long sequence;
+
+    /**
+     * Creates an entry without a sequence number.
+     *
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The level of the entry.
+     * @param message The message of the entry, including the lines of a stack trace.
+     */
+    LogEntry(long timestamp, Level level, String message) {
+        this(timestamp, level, message, -1);
+    }
+
+    /**
+     * Creates an entry.
+     *
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The level of the entry.
+     * @param message The message of the entry, including the lines of a stack trace.
+     * @param sequence The sequence number of the entry, or -1 if it has none.
+     */
+    LogEntry(long timestamp, Level level, String message, long sequence) {
+        this.timestamp = timestamp;
+        this.level = level;
+        this.message = message;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Returns the time of the entry.
+     *
+     * @return The time in epoch milliseconds, rounded down to the second if the entry was read from a file.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the level of the entry. Entries with a custom level label are reported as INFO.
+     *
+     * @return The level.
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns the message of the entry. Multi-line messages, such as entries with a stack trace,
+     * keep their line breaks.
+     *
+     * @return The message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the sequence number of the entry. Entries written in sharded mode carry a number that is
+     * unique and increasing across all shards, in the order the entries were logged.
+     *
+     * @return The sequence number, or -1 for entries that were not written in sharded mode.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Formats the entry as it appears in the log file.
+     *
+     * @return The entry in the format "yyyy-MM-dd HH:mm:ss [LEVEL] message".
+     */
+    @Override
+    public String toString() {
+        return LogEncoder.get().format(timestamp, level.name(), message).toString();
+    }
+}
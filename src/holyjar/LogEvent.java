@@ -0,0 +1,367 @@
+package holyjar;
+
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * LogEvent builds a structured log entry: a message with typed key-value fields, started with
+ * {@link NamedLogger#at(Level)} and written by {@link #log(String)}.
+ * <pre>
+ * Logger.at(Level.INFO).kv("userId", userId).kv("latencyMs", 4.2).log("Request served");
+ * </pre>
+ * Each thread reuses its events, and numbers and booleans are kept in primitive arrays, so building an event
+ * allocates nothing in the steady state. For a disabled level a shared event is returned whose methods do nothing.
+ * <p>
+ * In {@link Logger.FileFormat#JSON} format the fields become members of the JSON object of the entry, with numbers
+ * and booleans unquoted. Everywhere else they follow the message as logfmt pairs, "message userId=42 latencyMs=4.2",
+ * with values quoted where they contain spaces, quotes, '=' or control characters.
+ * <p>
+ * An event belongs to the thread that started it and must be finished with {@link #log(String)}. An event that is
+ * never finished, for example because computing a field value threw, is simply dropped, and the thread goes on
+ * reusing the others.
+ */
+public final class LogEvent {
+
+    // Field types
+    static final int LONG = 0;
+    static final int DOUBLE = 1;
+    static final int BOOLEAN = 2;
+    static final int STRING = 3;
+
+    // Builders above this capacity are not kept, so one huge event does not pin memory forever
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    // Returned for disabled levels; it never has a logger, so all its methods return at once
+    static final LogEvent DISABLED = new LogEvent();
+
+    // Number of finished events each thread keeps for reuse; more are only needed while events are nested
+    private static final int MAX_POOLED = 4;
+
+    // Finished events of each thread, ready for reuse
+    private static final ThreadLocal<ArrayDeque<LogEvent>> POOLS =
+            ThreadLocal.withInitial(() -> new ArrayDeque<>(MAX_POOLED));
+
+    // The pool of the thread that started the event, which it returns to once written
+    private ArrayDeque<LogEvent> pool;
+
+    // The logger and level of the event being built, null while the event is not in use
+    private NamedLogger logger;
+    private Level level;
+
+    // The fields: keys, types, and the values in the array matching their type
+    private String[] keys = new String[8];
+    private byte[] types = new byte[8];
+    private long[] longs = new long[8];
+    private double[] doubles = new double[8];
+    private String[] strings = new String[8];
+    private int count;
+
+    // Reusable builder for the text form of the event
+    private StringBuilder text = new StringBuilder(256);
+
+    /**
+     * Creates an event. Use {@link #start(NamedLogger, Level)} to obtain the event of the current thread.
+     */
+    private LogEvent() {
+        // This constructor is intentionally empty; events are obtained through start()
+    }
+
+    /**
+     * Starts an event on the current thread, reusing a finished one if the thread has any. While all of them
+     * are being built, for example because a field value logs an entry itself, a new event is created.
+     *
+     * @param logger The logger that writes the event.
+     * @param level The level of the event.
+     * @return The event.
+     */
+    static LogEvent start(NamedLogger logger, Level level) {
+        ArrayDeque<LogEvent> free = POOLS.get();
+        LogEvent event = free.poll();
+        if (event == null) {
+            event = new LogEvent();
+        }
+        event.pool = free;
+        event.logger = logger;
+        event.level = level;
+        return event;
+    }
+
+    /**
+     * Adds an integer field.
+     *
+     * @param key The field name.
+     * @param value The value.
+     * @return This event.
+     */
+    public LogEvent kv(String key, long value) {
+        if (logger != null) {
+            int index = add(key, LONG);
+            longs[index] = value;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a floating-point field.
+     *
+     * @param key The field name.
+     * @param value The value.
+     * @return This event.
+     */
+    public LogEvent kv(String key, double value) {
+        if (logger != null) {
+            int index = add(key, DOUBLE);
+            doubles[index] = value;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a boolean field.
+     *
+     * @param key The field name.
+     * @param value The value.
+     * @return This event.
+     */
+    public LogEvent kv(String key, boolean value) {
+        if (logger != null) {
+            int index = add(key, BOOLEAN);
+            longs[index] = value ? 1 : 0;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a string field.
+     *
+     * @param key The field name.
+     * @param value The value, or null.
+     * @return This event.
+     */
+    public LogEvent kv(String key, String value) {
+        if (logger != null) {
+            int index = add(key, STRING);
+            strings[index] = value;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a field of any type. Boxed numbers and booleans are stored like their primitive values,
+     * any other value as its string form, taken now.
+     *
+     * @param key The field name.
+     * @param value The value, or null.
+     * @return This event.
+     */
+    public LogEvent kv(String key, Object value) {
+        if (logger == null) {
+            return this;
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return kv(key, ((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return kv(key, ((Number) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return kv(key, ((Boolean) value).booleanValue());
+        }
+        return kv(key, value == null ? null
+                : value instanceof Object[] ? Arrays.deepToString((Object[]) value) : value.toString());
+    }
+
+    /**
+     * Writes the event with a message and makes it available for the next event of the thread.
+     *
+     * @param message The message.
+     */
+    public void log(String message) {
+        NamedLogger target = logger;
+        if (target == null) {
+            return;
+        }
+        try {
+            target.logEvent(level, message, this);
+        } finally {
+            clear();
+        }
+    }
+
+    /**
+     * Returns the number of fields.
+     *
+     * @return The field count.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the name of a field.
+     *
+     * @param index The index of the field.
+     * @return The name.
+     */
+    String key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Returns the type of a field.
+     *
+     * @param index The index of the field.
+     * @return {@link #LONG}, {@link #DOUBLE}, {@link #BOOLEAN} or {@link #STRING}.
+     */
+    int type(int index) {
+        return types[index];
+    }
+
+    /**
+     * Returns the value of an integer field, or of a boolean field as 1 or 0.
+     *
+     * @param index The index of the field.
+     * @return The value.
+     */
+    long longValue(int index) {
+        return longs[index];
+    }
+
+    /**
+     * Returns the value of a floating-point field.
+     *
+     * @param index The index of the field.
+     * @return The value.
+     */
+    double doubleValue(int index) {
+        return doubles[index];
+    }
+
+    /**
+     * Returns the value of a string field.
+     *
+     * @param index The index of the field.
+     * @return The value, or null.
+     */
+    String stringValue(int index) {
+        return strings[index];
+    }
+
+    /**
+     * Formats the message followed by the fields as logfmt pairs, for outputs that take text.
+     * The returned builder is owned by this event and only valid until its next use.
+     *
+     * @param message The message.
+     * @return The formatted entry.
+     */
+    CharSequence format(CharSequence message) {
+        if (text.capacity() > MAX_RETAINED_CAPACITY) {
+            text = new StringBuilder(256);
+        }
+        StringBuilder sb = text;
+        sb.setLength(0);
+        sb.append(message);
+        for (int i = 0; i < count; i++) {
+            sb.append(' ').append(keys[i]).append('=');
+            switch (types[i]) {
+                case LONG:
+                    sb.append(longs[i]);
+                    break;
+                case DOUBLE:
+                    sb.append(doubles[i]);
+                    break;
+                case BOOLEAN:
+                    sb.append(longs[i] != 0);
+                    break;
+                default:
+                    appendLogfmtValue(sb, strings[i]);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * Appends a string value, quoted and escaped if it is empty or contains spaces, quotes, '=' or control characters.
+     *
+     * @param sb The builder to append to.
+     * @param value The value, or null.
+     */
+    static void appendLogfmtValue(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        boolean quoted = value.isEmpty();
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c <= ' ' || c == '"' || c == '=' || c == '\\';
+        }
+        if (!quoted) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Adds a field, growing the arrays if needed.
+     *
+     * @param key The field name.
+     * @param type The field type.
+     * @return The index of the field.
+     */
+    private int add(String key, int type) {
+        if (count == keys.length) {
+            int capacity = count * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            longs = Arrays.copyOf(longs, capacity);
+            doubles = Arrays.copyOf(doubles, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+        }
+        keys[count] = key;
+        types[count] = (byte) type;
+        return count++;
+    }
+
+    /**
+     * Removes the fields and returns the event to its thread's pool, dropping the references to keys and
+     * string values.
+     */
+    private void clear() {
+        Arrays.fill(keys, 0, count, null);
+        Arrays.fill(strings, 0, count, null);
+        count = 0;
+        logger = null;
+        level = null;
+        ArrayDeque<LogEvent> free = pool;
+        pool = null;
+        if (free.size() < MAX_POOLED) {
+            free.push(this);
+        }
+    }
+}
@@ -0,0 +1,1191 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LogFile owns the output side of a log: one long-lived channel to the current log file,
+ * the in-memory byte count used for rotation and the rotation of backup files.
+ * The file is only reopened when the path changes, on rotation, on clear or when it vanished from disk.
+ * <p>
+ * Entries are appended to an in-memory buffer and written by group commit: a flush swaps the buffer out
+ * and writes it while new entries keep accumulating in the other buffer, to be merged into the next write.
+ * When the buffer is flushed is decided by the {@link Logger.Durability} policy.
+ * <p>
+ * In {@link Logger.OutputMode#MAPPED} mode a flush copies the buffer into a memory-mapped window over the file
+ * instead of issuing a write call. The mapped region past the last entry is zero-filled; it is cut off again
+ * when the file is closed or, after a crash, when it is reopened.
+ * <p>
+ * Unless disabled, a sparse {@link LogIndex} is kept next to the file. The buffers carry the timestamp and
+ * severity of every entry alongside its bytes, so the index learns the file offset of each entry as it is written.
+ * <p>
+ * In multi-process mode several processes append to the same file. Every batch is written under a
+ * {@link ProcessLock} with the actual size of the file, after reopening the file if another process rotated it,
+ * so batches never interleave and exactly one process rotates a full file. Memory mapping and the index,
+ * which assume a single writer, are not used in this mode.
+ * <p>
+ * The files of a {@link LogShards sharded} log number their entries: the sequence number is taken while the entry
+ * is copied into the buffer, under the buffer lock, so the numbers in every file are increasing.
+ * <p>
+ * In {@link Logger.FileFormat#BINARY} format entries are encoded by {@link BinaryLogEncoder}. The templates interned
+ * so far are written whenever a file is opened, and a template interned later is defined in the buffer just before
+ * its first entry, so every file defines the templates it uses. An entry encoded in the format the file had before
+ * a switch is encoded again, and a file holding another format is rotated before it is written, so no file
+ * mixes formats. Binary files are always written with write calls, without an index, and multi-process mode
+ * writes text, because the template ids of the processes would collide.
+ * <p>
+ * In {@link Logger.FileFormat#JSON} format entries are encoded by {@link LogEncoder#encodeJson}, with the fields
+ * of a structured {@link LogEvent} as typed members. JSON files are line-based like text files, so they are
+ * indexed and can be memory-mapped and shared between processes.
+ */
+final class LogFile {
+
+    // How often the writer checks that the open file is still the one at the log path
+    private static final long FILE_CHECK_INTERVAL_MILLIS = 1000;
+
+    // Capacity of each of the two entry buffers
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Size of the region mapped at a time in MAPPED mode
+    private static final long WINDOW_SIZE = 4 * 1024 * 1024;
+
+    // Lock guarding the channel, the size counter and the rotation; held for the duration of a flush
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Lock guarding the active buffer; held only while copying an entry into it
+    private final ReentrantLock bufferLock = new ReentrantLock();
+
+    private Path path;
+    private long maxSize;
+    private int maxBackups;
+
+    // Whether backups are gzipped, and the disk budget for all backups (0 for none)
+    private volatile boolean compressBackups;
+    private volatile long maxTotalBackupSize;
+
+    // Currently open channel, null until the first write or after the file was closed
+    private FileChannel channel;
+
+    // Identity of the open file, used to detect deletion or replacement outside the process
+    private Object fileKey;
+    private long nextFileCheck;
+
+    // Bytes in the current file as seen by this writer; in MAPPED mode also the offset of the next write
+    private long size;
+
+    // How entries reach the file, and the currently mapped window in MAPPED mode
+    private volatile Logger.OutputMode outputMode = Logger.OutputMode.STREAM;
+    private MappedByteBuffer window;
+
+    // Whether other processes write the same file, and the lock shared with them
+    private volatile boolean shared;
+    private ProcessLock processLock;
+
+    // Configured file format, and the format entries are currently encoded in; changed under both locks
+    private volatile Logger.FileFormat format = Logger.FileFormat.TEXT;
+    private volatile Logger.FileFormat encoding = Logger.FileFormat.TEXT;
+
+    // Templates of binary entries, which of them are defined in the written data, and whether the open file
+    // still needs the definitions of all templates
+    private final BinaryLogEncoder.Templates templates = new BinaryLogEncoder.Templates();
+    private final BitSet definedTemplates = new BitSet();
+    private boolean definitionsPending;
+
+    // Buffer that log calls append to, and the buffer being written by the current flush
+    private ByteBuffer active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer flushing = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    // Entries appended to the active buffer since the last flush
+    private int pendingEntries;
+
+    // Position, time and severity of the entries in the active and the flushing buffer, and of an oversized entry
+    private Marks activeMarks = new Marks();
+    private Marks flushingMarks = new Marks();
+    private final Marks directMarks = new Marks();
+
+    // Sparse index of the current file, and whether it is kept
+    private final LogIndex index = new LogIndex();
+    private boolean indexing = true;
+
+    // Durability policy and the batching limits used by the batched policies
+    private volatile Logger.Durability durability = Logger.Durability.EVERY_ENTRY;
+    private volatile int batchEntries = 1;
+    private long batchDelayMillis;
+    private ScheduledFuture<?> flushTask;
+
+    // Whether entries carry a sequence number, as in the files of a sharded log
+    private final boolean sequenced;
+
+    // Writes out buffered entries when the JVM exits, registered once a batched policy or MAPPED mode is used
+    private Thread shutdownHook;
+
+    // Counters and latencies of this file, also exposed over JMX; shared by the shards of a log
+    private final LoggerMetrics metrics;
+
+    /**
+     * Creates a log file writer. The file itself is opened lazily on the first write.
+     *
+     * @param path The path of the log file.
+     * @param maxSize The maximum size in bytes before rotation occurs.
+     * @param maxBackups The maximum number of backup files to keep.
+     */
+    LogFile(String path, long maxSize, int maxBackups) {
+        this(Paths.get(path), maxSize, maxBackups, new LoggerMetrics(), false);
+    }
+
+    /**
+     * Creates a log file writer.
+     *
+     * @param path The path of the log file.
+     * @param maxSize The maximum size in bytes before rotation occurs.
+     * @param maxBackups The maximum number of backup files to keep.
+     * @param metrics The metrics the file reports to.
+     * @param sequenced True to number the entries.
+     */
+    private LogFile(Path path, long maxSize, int maxBackups, LoggerMetrics metrics, boolean sequenced) {
+        this.path = path;
+        this.maxSize = maxSize;
+        this.maxBackups = maxBackups;
+        this.metrics = metrics;
+        this.sequenced = sequenced;
+    }
+
+    /**
+     * Creates the writer of one shard of this log, with numbered entries and the settings of this file.
+     * The shard reports to the metrics of this file.
+     *
+     * @param shardPath The path of the shard file.
+     * @return The shard writer.
+     */
+    LogFile newShard(Path shardPath) {
+        lock.lock();
+        try {
+            LogFile shard = new LogFile(shardPath, maxSize, maxBackups, metrics, true);
+            shard.compressBackups = compressBackups;
+            shard.maxTotalBackupSize = maxTotalBackupSize;
+            shard.indexing = indexing;
+            shard.setShared(shared);
+            shard.setFileFormat(format);
+            shard.setOutputMode(outputMode);
+            shard.setDurability(durability, batchEntries, batchDelayMillis);
+            return shard;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the metrics of this log file.
+     *
+     * @return The metrics.
+     */
+    LoggerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Switches to a new log file path, closing the current file.
+     *
+     * @param path The new path for the log file.
+     */
+    void setPath(String path) {
+        lock.lock();
+        try {
+            Path newPath = Paths.get(path);
+            if (!newPath.equals(this.path)) {
+                flush(false);
+                closeChannel();
+                this.path = newPath;
+                processLock = shared ? ProcessLock.of(newPath) : null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the path of the log file.
+     *
+     * @return The current log file path.
+     */
+    Path getPath() {
+        lock.lock();
+        try {
+            return path;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the maximum size of the log file before rotation occurs.
+     *
+     * @param sizeInBytes The maximum size in bytes.
+     */
+    void setMaxSize(long sizeInBytes) {
+        maxSize = sizeInBytes;
+    }
+
+    /**
+     * Sets the maximum number of backup log files to keep.
+     *
+     * @param count The maximum number of backup files.
+     */
+    void setMaxBackups(int count) {
+        maxBackups = count;
+    }
+
+    /**
+     * Enables or disables gzip compression of rotated backups.
+     *
+     * @param compress True to compress backups.
+     */
+    void setCompressBackups(boolean compress) {
+        compressBackups = compress;
+    }
+
+    /**
+     * Sets the disk budget for all backups together; the oldest backups are deleted first to stay within it.
+     *
+     * @param sizeInBytes The budget in bytes, or 0 for no budget.
+     */
+    void setMaxTotalBackupSize(long sizeInBytes) {
+        maxTotalBackupSize = sizeInBytes;
+    }
+
+    /**
+     * Switches between write calls and a memory-mapped window, closing the current file.
+     *
+     * @param mode The new output mode.
+     */
+    void setOutputMode(Logger.OutputMode mode) {
+        lock.lock();
+        try {
+            if (mode != outputMode) {
+                flush(false);
+                closeChannel();
+                outputMode = mode;
+                if (mode == Logger.OutputMode.MAPPED) {
+                    registerShutdownHook();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Enables or disables multi-process mode, closing the current file.
+     *
+     * @param shared True if other processes write the same log file.
+     */
+    void setShared(boolean shared) {
+        lock.lock();
+        try {
+            if (shared != this.shared) {
+                // Shared files are written as text, so the encoding may change as well
+                drainAndChange(() -> {
+                    this.shared = shared;
+                    encoding = encodingOf(format, shared);
+                });
+                processLock = shared ? ProcessLock.of(path) : null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Switches the format of the entries, closing the current file.
+     *
+     * @param format The new file format.
+     */
+    void setFileFormat(Logger.FileFormat format) {
+        lock.lock();
+        try {
+            if (format != this.format) {
+                drainAndChange(() -> {
+                    this.format = format;
+                    encoding = encodingOf(format, shared);
+                });
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Determines the format entries are encoded in: the configured one, except that shared files are written
+     * as text instead of binary records.
+     *
+     * @param format The configured file format.
+     * @param shared True if other processes write the same log file.
+     * @return The format of the entries.
+     */
+    private static Logger.FileFormat encodingOf(Logger.FileFormat format, boolean shared) {
+        return format == Logger.FileFormat.BINARY && shared ? Logger.FileFormat.TEXT : format;
+    }
+
+    /**
+     * Writes out the buffered entries and applies a change of the encoding once the entry buffer is empty,
+     * so the entries still written to the current file all have its format. Entries that were encoded in the old
+     * format but not appended yet are encoded again by their writers. The file is closed afterwards.
+     * Must be called with the lock held.
+     *
+     * @param change The change, applied under the buffer lock.
+     */
+    private void drainAndChange(Runnable change) {
+        while (true) {
+            flush(false);
+            bufferLock.lock();
+            try {
+                if (active.position() == 0) {
+                    change.run();
+                    break;
+                }
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+        closeChannel();
+    }
+
+    /**
+     * Enables or disables the sparse index of the log file, closing the current file.
+     *
+     * @param enabled True to keep the index up to date.
+     */
+    void setIndexing(boolean enabled) {
+        lock.lock();
+        try {
+            if (enabled != indexing) {
+                flush(false);
+                closeChannel();
+                indexing = enabled;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets when buffered entries are written to the log file.
+     *
+     * @param durability The durability policy.
+     * @param maxEntries For the batched policies, the number of buffered entries that triggers a write.
+     * @param maxDelayMillis For the batched policies, the longest time an entry stays buffered.
+     */
+    void setDurability(Logger.Durability durability, int maxEntries, long maxDelayMillis) {
+        lock.lock();
+        try {
+            this.durability = durability;
+            this.batchEntries = durability == Logger.Durability.EVERY_ENTRY ? 1 : Math.max(1, maxEntries);
+            this.batchDelayMillis = maxDelayMillis;
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            if (durability != Logger.Durability.EVERY_ENTRY) {
+                registerShutdownHook();
+                long delay = Math.max(1, maxDelayMillis);
+                flushTask = LogScheduler.get().scheduleWithFixedDelay(() -> flush(false), delay, delay, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        flush(false);
+    }
+
+    /**
+     * Appends an entry to the log file, followed by a line separator.
+     * Depending on the durability policy the entry is written before this method returns
+     * or stays buffered until a later flush.
+     *
+     * @param severity The severity rank of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     */
+    void write(int severity, long timestamp, String level, CharSequence message) {
+        write(severity, timestamp, level, message, null);
+    }
+
+    /**
+     * Appends a structured entry: in JSON format its fields become members of the entry, in the other
+     * formats they follow the message as logfmt pairs.
+     *
+     * @param severity The severity rank of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param fields The fields of the entry, or null for none.
+     */
+    void write(int severity, long timestamp, String level, CharSequence message, LogEvent fields) {
+        long start = System.nanoTime();
+        append(severity, timestamp, level, message, fields);
+        commit(severity);
+        metrics.recordWrite(System.nanoTime() - start);
+    }
+
+    /**
+     * Appends an entry given as a message template and its arguments. In binary format the template is interned
+     * and the arguments are stored raw, so the message is never rendered while logging; in the other formats the
+     * message is rendered and written like any other.
+     *
+     * @param severity The severity rank of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param template The message template with "{}" placeholders.
+     * @param args The arguments of the template.
+     * @param argCount The number of arguments used from the array.
+     * @param suffix The rendered exception appended to the message, or null for none.
+     */
+    void write(int severity, long timestamp, String level, String template, Object[] args, int argCount,
+               CharSequence suffix) {
+        long start = System.nanoTime();
+        int templateId = encoding == Logger.FileFormat.BINARY ? templates.idOf(template) : 0;
+        while (true) {
+            Logger.FileFormat entryFormat = encoding;
+            boolean binaryEntry = entryFormat == Logger.FileFormat.BINARY;
+            ByteBuffer entry;
+            if (binaryEntry && templateId > 0) {
+                entry = BinaryLogEncoder.get().encode(timestamp, level, templateId, args, argCount, suffix, sequenced);
+            } else {
+                CharSequence message = MessageFormatter.format(template, args, argCount);
+                if (suffix != null) {
+                    message = new StringBuilder(message).append(suffix);
+                }
+                entry = encode(entryFormat, timestamp, level, message, null);
+            }
+            int length = entry.remaining();
+            if (append(entry, timestamp, severity, entryFormat, binaryEntry ? templateId : 0)) {
+                metrics.recordEntry(severity, length);
+                break;
+            }
+            if (templateId == 0) {
+                templateId = templates.idOf(template);
+            }
+        }
+        commit(severity);
+        metrics.recordWrite(System.nanoTime() - start);
+    }
+
+    /**
+     * Appends a batch of entries to the log file, each followed by a line separator.
+     *
+     * @param timestamps The entry timestamps in epoch milliseconds.
+     * @param levels The entry log levels.
+     * @param messages The entry messages.
+     * @param count The number of entries in the batch.
+     */
+    void write(long[] timestamps, String[] levels, String[] messages, int count) {
+        long start = System.nanoTime();
+        int maxSeverity = 0;
+        for (int i = 0; i < count; i++) {
+            int severity = Logger.severity(levels[i]);
+            append(severity, timestamps[i], levels[i], messages[i], null);
+            maxSeverity = Math.max(maxSeverity, severity);
+        }
+        commit(maxSeverity);
+        metrics.recordWrite(System.nanoTime() - start);
+    }
+
+    /**
+     * Flushes the appended entries if the durability policy requires it.
+     *
+     * @param severity The highest severity rank among the appended entries.
+     */
+    private void commit(int severity) {
+        Logger.Durability policy = durability;
+        boolean force = policy == Logger.Durability.FORCE_ON_WARNING && severity >= Logger.severity(Logger.WARNING);
+        boolean due;
+        bufferLock.lock();
+        try {
+            due = policy == Logger.Durability.EVERY_ENTRY || pendingEntries >= batchEntries;
+        } finally {
+            bufferLock.unlock();
+        }
+        if (due || force || severity >= Logger.severity(Logger.ERROR)) {
+            flush(force);
+        }
+    }
+
+    /**
+     * Writes all buffered entries to the log file.
+     *
+     * @param force True to also force the written data to the storage device.
+     */
+    void flush(boolean force) {
+        metrics.lock(lock);
+        try {
+            // Swap buffers so that entries arriving during the write are merged into the next one
+            metrics.lock(bufferLock);
+            try {
+                ByteBuffer full = active;
+                active = flushing;
+                flushing = full;
+                Marks marks = activeMarks;
+                activeMarks = flushingMarks;
+                flushingMarks = marks;
+                pendingEntries = 0;
+            } finally {
+                bufferLock.unlock();
+            }
+
+            flushing.flip();
+            if (!flushing.hasRemaining() && !force) {
+                flushing.clear();
+                return;
+            }
+            long start = System.nanoTime();
+            writeOut(flushing, flushingMarks);
+            if (force && window != null) {
+                window.force();
+            } else if (force && channel != null) {
+                channel.force(false);
+            }
+            metrics.recordFlush(System.nanoTime() - start);
+        } catch (IOException e) {
+            System.err.println("Failed to write log: " + e.getMessage());
+            metrics.recordFailure();
+            closeChannel();
+        } finally {
+            flushing.clear();
+            flushingMarks.clear();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers the shutdown hook once. Must be called with the lock held.
+     */
+    private void registerShutdownHook() {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(this::shutdown, "holyjar-log-flush");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * Switches back to writing every entry immediately with write calls, writes out what is buffered
+     * and trims a mapped file. Entries that arrive from other shutdown hooks afterwards see the new
+     * settings and are written directly.
+     */
+    private void shutdown() {
+        durability = Logger.Durability.EVERY_ENTRY;
+        batchEntries = 1;
+        lock.lock();
+        try {
+            flush(false);
+            if (outputMode == Logger.OutputMode.MAPPED) {
+                closeChannel();
+                outputMode = Logger.OutputMode.STREAM;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encodes an entry in the current format and copies it into the active buffer.
+     *
+     * @param severity The severity rank of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param fields The fields of a structured entry, or null for none.
+     */
+    private void append(int severity, long timestamp, String level, CharSequence message, LogEvent fields) {
+        while (true) {
+            Logger.FileFormat entryFormat = encoding;
+            ByteBuffer entry = encode(entryFormat, timestamp, level, message, fields);
+            int length = entry.remaining();
+            if (append(entry, timestamp, severity, entryFormat, 0)) {
+                metrics.recordEntry(severity, length);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encodes an entry with a rendered message in a format, with the sequence number field reserved in a
+     * sequenced file. The returned buffer is owned by the encoder of the current thread.
+     *
+     * @param entryFormat The format to encode the entry in.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The log level of the entry.
+     * @param message The message of the entry.
+     * @param fields The fields of a structured entry, or null for none.
+     * @return A buffer positioned at the start of the encoded entry, with its limit at the end.
+     */
+    private ByteBuffer encode(Logger.FileFormat entryFormat, long timestamp, String level, CharSequence message,
+                              LogEvent fields) {
+        switch (entryFormat) {
+            case JSON:
+                return LogEncoder.get().encodeJson(timestamp, level, message, fields, sequenced);
+            case BINARY:
+                return BinaryLogEncoder.get().encode(timestamp, level,
+                        fields != null ? fields.format(message) : message, sequenced);
+            default:
+                return LogEncoder.get().encode(timestamp, level,
+                        fields != null ? fields.format(message) : message, sequenced);
+        }
+    }
+
+    /**
+     * Copies one encoded entry into the active buffer, numbering it first in a sequenced file, and defining
+     * its template first if the template has not been defined in the written data yet.
+     * Entries larger than the buffer are written straight to the file after flushing what is buffered.
+     *
+     * @param entry The encoded entry, including its line separator.
+     * @param timestamp The time of the entry in epoch milliseconds, for the index.
+     * @param severity The severity rank of the entry, for the index.
+     * @param entryFormat The format the entry is encoded in.
+     * @param templateId The template of a binary entry, or 0 for none.
+     * @return False if the format changed since the entry was encoded; it has to be encoded again.
+     */
+    private boolean append(ByteBuffer entry, long timestamp, int severity, Logger.FileFormat entryFormat,
+                           int templateId) {
+        int length = entry.remaining();
+        if (length > BUFFER_SIZE) {
+            metrics.lock(lock);
+            // Holding the buffer lock keeps other entries out of the file until this one is written
+            bufferLock.lock();
+            try {
+                if (entryFormat != encoding) {
+                    return false;
+                }
+                flush(false);
+                if (templateId > 0 && !definedTemplates.get(templateId)) {
+                    writeOut(ByteBuffer.wrap(templates.definition(templateId)), directMarks);
+                    definedTemplates.set(templateId);
+                }
+                if (sequenced) {
+                    putSequence(entry, entryFormat);
+                }
+                directMarks.add(entry.position(), timestamp, severity);
+                writeOut(entry, directMarks);
+            } catch (IOException e) {
+                System.err.println("Failed to write log: " + e.getMessage());
+                metrics.recordFailure();
+                closeChannel();
+            } finally {
+                directMarks.clear();
+                bufferLock.unlock();
+                lock.unlock();
+            }
+            return true;
+        }
+
+        while (true) {
+            metrics.lock(bufferLock);
+            try {
+                if (entryFormat != encoding) {
+                    return false;
+                }
+                if (templateId > 0 && !definedTemplates.get(templateId)) {
+                    byte[] definition = templates.definition(templateId);
+                    if (active.remaining() >= definition.length) {
+                        active.put(definition);
+                        definedTemplates.set(templateId);
+                    }
+                }
+                if ((templateId == 0 || definedTemplates.get(templateId)) && active.remaining() >= length) {
+                    if (sequenced) {
+                        putSequence(entry, entryFormat);
+                    }
+                    activeMarks.add(active.position(), timestamp, severity);
+                    active.put(entry);
+                    pendingEntries++;
+                    return true;
+                }
+            } finally {
+                bufferLock.unlock();
+            }
+            // Buffer full: write it out, joining any flush already in progress
+            flush(false);
+        }
+    }
+
+    /**
+     * Numbers an entry with the next sequence number. Must be called with the buffer lock held.
+     *
+     * @param entry The encoded entry, positioned at its start.
+     * @param entryFormat The format the entry is encoded in.
+     */
+    private static void putSequence(ByteBuffer entry, Logger.FileFormat entryFormat) {
+        switch (entryFormat) {
+            case JSON:
+                LogEncoder.putJsonSequence(entry, LogShards.nextSequence());
+                break;
+            case BINARY:
+                BinaryLogEncoder.putSequence(entry, LogShards.nextSequence());
+                break;
+            default:
+                LogEncoder.putSequence(entry, LogShards.nextSequence());
+        }
+    }
+
+    /**
+     * Writes a flipped buffer to the log file, opening or rotating the file first if needed.
+     * Must be called with the lock held.
+     *
+     * @param data The bytes to write.
+     * @param marks The entries in the bytes, reported to the index.
+     * @throws IOException If the write fails.
+     */
+    private void writeOut(ByteBuffer data, Marks marks) throws IOException {
+        if (shared) {
+            writeShared(data);
+            return;
+        }
+        ensureOpen();
+        if (outputMode == Logger.OutputMode.MAPPED && encoding != Logger.FileFormat.BINARY) {
+            writeMapped(data, marks);
+            return;
+        }
+
+        // Check if log rotation is needed
+        if (size > maxSize) {
+            rotate();
+            ensureOpen();
+        }
+        if (definitionsPending) {
+            writeDefinitions();
+        }
+
+        marks.index(index, data.position(), data.limit(), size);
+        while (data.hasRemaining()) {
+            size += channel.write(data);
+        }
+    }
+
+    /**
+     * Writes the definitions of all templates interned so far to a newly opened binary file, after the
+     * magic bytes if the file is empty. Must be called with the lock held.
+     *
+     * @throws IOException If the write fails.
+     */
+    private void writeDefinitions() throws IOException {
+        if (size == 0) {
+            ByteBuffer magic = ByteBuffer.wrap(BinaryLogEncoder.MAGIC);
+            while (magic.hasRemaining()) {
+                size += channel.write(magic);
+            }
+        }
+        ByteBuffer definitions = templates.definitions();
+        while (definitions.hasRemaining()) {
+            size += channel.write(definitions);
+        }
+        definitionsPending = false;
+    }
+
+    /**
+     * Appends a flipped buffer to a log file shared with other processes, holding the file lock for the whole
+     * buffer. The file is checked under the lock: another process may have rotated or cleared it, or made it
+     * full, since this process last wrote. Must be called with the lock held.
+     *
+     * @param data The bytes to write.
+     * @throws IOException If the file cannot be locked or written.
+     */
+    private void writeShared(ByteBuffer data) throws IOException {
+        processLock.lock(ProcessLock.WRITES);
+        try {
+            if (channel != null && !isSameFile()) {
+                closeChannel();
+            }
+            ensureOpen();
+            size = channel.size();
+            if (size > maxSize) {
+                rotate();
+                ensureOpen();
+            }
+            while (data.hasRemaining()) {
+                size += channel.write(data);
+            }
+        } finally {
+            processLock.unlock(ProcessLock.WRITES);
+        }
+    }
+
+    /**
+     * Copies a flipped buffer into the mapped window, mapping the next region whenever the window is full.
+     * Rotation is only considered at window boundaries that fall between two entries, so a file may exceed
+     * the maximum size by up to one window.
+     * Must be called with the lock held.
+     *
+     * @param data The bytes to write.
+     * @param marks The entries in the bytes, reported to the index.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private void writeMapped(ByteBuffer data, Marks marks) throws IOException {
+        while (data.hasRemaining()) {
+            if (window == null || !window.hasRemaining()) {
+                long windowSize = Math.min(WINDOW_SIZE, Math.max(BUFFER_SIZE, maxSize));
+                if (size > maxSize) {
+                    if (marks.startsAt(data.position())) {
+                        rotate();
+                        ensureOpen();
+                    } else {
+                        // Finish the entry cut by the window boundary in this file, then rotate
+                        windowSize = marks.nextStart(data.position(), data.limit()) - data.position();
+                    }
+                }
+                // Map from the end of the data; mapping past the end of the file extends it with zeros
+                window = channel.map(FileChannel.MapMode.READ_WRITE, size, windowSize);
+            }
+            int count = Math.min(data.remaining(), window.remaining());
+            marks.index(index, data.position(), data.position() + count, size);
+            int limit = data.limit();
+            data.limit(data.position() + count);
+            window.put(data);
+            data.limit(limit);
+            size += count;
+        }
+    }
+
+    /**
+     * Truncates the log file, removing all existing log entries.
+     */
+    void clear() {
+        lock.lock();
+        try {
+            // Entries buffered before the clear are discarded along with the file content
+            bufferLock.lock();
+            try {
+                active.clear();
+                activeMarks.clear();
+                pendingEntries = 0;
+            } finally {
+                bufferLock.unlock();
+            }
+            closeChannel();
+            if (shared) {
+                // Other processes must not append between the truncation and their next size check
+                processLock.lock(ProcessLock.WRITES);
+            }
+            try {
+                ensureOpen();
+                channel.truncate(0);
+                size = 0;
+                definitionsPending = encoding == Logger.FileFormat.BINARY;
+                index.reset();
+            } finally {
+                if (shared) {
+                    processLock.unlock(ProcessLock.WRITES);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to clear log file: " + e.getMessage());
+            metrics.recordFailure();
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out buffered entries and closes the log file. The next write reopens it.
+     */
+    void close() {
+        lock.lock();
+        try {
+            flush(false);
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes out buffered entries and closes the log file for good, for a shard that is no longer written.
+     * The periodic flush and the shutdown hook of the file are removed.
+     */
+    void release() {
+        lock.lock();
+        try {
+            if (flushTask != null) {
+                flushTask.cancel(false);
+                flushTask = null;
+            }
+            flush(false);
+            closeChannel();
+            if (shutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException e) {
+                    // The JVM is already shutting down and runs the hook anyway
+                }
+                shutdownHook = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Opens the log file if it is not open yet, and periodically checks that the open file
+     * still exists at the log path so that a file deleted or replaced outside the process gets recreated.
+     *
+     * @throws IOException If the file cannot be opened.
+     */
+    private void ensureOpen() throws IOException {
+        if (channel != null) {
+            long now = System.currentTimeMillis();
+            if (now < nextFileCheck) {
+                return;
+            }
+            nextFileCheck = now + FILE_CHECK_INTERVAL_MILLIS;
+            if (isSameFile()) {
+                return;
+            }
+            closeChannel();
+        }
+
+        open();
+        if (size > 0 && LogDecoder.formatOf(path) != encoding) {
+            // Every file holds a single format: entries written in another format become a backup first
+            rotate();
+            open();
+        }
+    }
+
+    /**
+     * Opens the log file for appending, creating it and its directory if needed.
+     *
+     * @throws IOException If the file cannot be opened.
+     */
+    private void open() throws IOException {
+        // Ensure the directory exists
+        Path directoryPath = path.getParent();
+        if (directoryPath != null) {
+            Files.createDirectories(directoryPath);
+        }
+
+        if (outputMode == Logger.OutputMode.MAPPED && !shared && encoding != Logger.FileFormat.BINARY) {
+            // Mapping needs a readable channel, and writes go to explicit offsets instead of appending
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = findEndOfData(channel);
+            if (size < channel.size()) {
+                channel.truncate(size);
+            }
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            size = channel.size();
+        }
+        fileKey = readFileKey();
+        nextFileCheck = System.currentTimeMillis() + FILE_CHECK_INTERVAL_MILLIS;
+        definitionsPending = encoding == Logger.FileFormat.BINARY;
+        if (indexing && !shared && encoding != Logger.FileFormat.BINARY) {
+            index.open(path, size);
+        }
+    }
+
+    /**
+     * Finds the end of the log data in a file that may carry a zero-filled mapped tail after a crash.
+     * Trailing zero bytes are skipped, and a last line that was cut off mid-copy is dropped as well,
+     * so the result is the offset just after the last complete line.
+     *
+     * @param file The channel of the log file.
+     * @return The offset just after the last complete entry.
+     * @throws IOException If the file cannot be read.
+     */
+    static long findEndOfData(FileChannel file) throws IOException {
+        long end = file.size();
+        if (end == 0) {
+            return 0;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+        long dataEnd = -1;
+        long position = end;
+        while (position > 0) {
+            int length = (int) Math.min(chunk.capacity(), position);
+            position -= length;
+            chunk.clear().limit(length);
+            while (chunk.hasRemaining() && file.read(chunk, position + chunk.position()) >= 0) {
+                // Keep reading until the chunk is full
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                byte b = chunk.get(i);
+                if (dataEnd < 0) {
+                    if (b == 0) {
+                        continue;
+                    }
+                    dataEnd = position + i + 1;
+                    if (dataEnd == end) {
+                        // A file that ends with data rather than zeros was closed cleanly: leave it alone
+                        return end;
+                    }
+                }
+                if (b == '\n') {
+                    return position + i + 1;
+                }
+            }
+        }
+        return Math.max(dataEnd, 0);
+    }
+
+    /**
+     * Checks whether the file at the log path is still the file this writer has open.
+     *
+     * @return True if the open file is still in place.
+     * @throws IOException If the file attributes cannot be read.
+     */
+    private boolean isSameFile() throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        return fileKey == null || Objects.equals(fileKey, readFileKey());
+    }
+
+    /**
+     * Reads the file system identity of the file at the log path.
+     *
+     * @return The file key, or null if the file system does not provide one.
+     * @throws IOException If the file attributes cannot be read.
+     */
+    private Object readFileKey() throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes the channel, ignoring errors.
+     */
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                if (window != null) {
+                    // Cut off the zero-filled rest of the mapped window so readers see only complete entries
+                    window = null;
+                    if (channel.size() > size) {
+                        channel.truncate(size);
+                    }
+                }
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close log file: " + e.getMessage());
+            }
+            index.close(size);
+            channel = null;
+            fileKey = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * Rotates log files when the current log file exceeds the maximum size.
+     * Only the rename of the full file happens here; the backups are shifted, compressed
+     * and pruned by a background task, so writers wait for one rename instead of the whole rotation.
+     */
+    private void rotate() {
+        long start = System.nanoTime();
+        closeChannel();
+        try {
+            if (LogRotator.detach(path)) {
+                LogRotator.schedule(path, maxBackups, compressBackups, maxTotalBackupSize, shared);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to rotate log files: " + e.getMessage());
+            metrics.recordFailure();
+        }
+        metrics.recordRotation(System.nanoTime() - start);
+    }
+
+    /**
+     * The buffer position, time and severity of the entries in one entry buffer, in buffer order.
+     * Guarded by the lock of the buffer it belongs to.
+     */
+    private static final class Marks {
+
+        private int[] positions = new int[256];
+        private long[] timestamps = new long[256];
+        private byte[] severities = new byte[256];
+        private int count;
+
+        // First entry not reported to the index yet
+        private int next;
+
+        /**
+         * Adds an entry.
+         *
+         * @param position The position of the entry in its buffer.
+         * @param timestamp The time of the entry in epoch milliseconds.
+         * @param severity The severity rank of the entry.
+         */
+        void add(int position, long timestamp, int severity) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                timestamps = Arrays.copyOf(timestamps, count * 2);
+                severities = Arrays.copyOf(severities, count * 2);
+            }
+            positions[count] = position;
+            timestamps[count] = timestamp;
+            severities[count] = (byte) severity;
+            count++;
+        }
+
+        /**
+         * Reports the entries that start in a range of the buffer to the index.
+         *
+         * @param index The index of the file the range is written to.
+         * @param from The start of the range in the buffer.
+         * @param to The end of the range in the buffer.
+         * @param fileOffset The file offset the start of the range is written to.
+         */
+        void index(LogIndex index, int from, int to, long fileOffset) {
+            while (next < count && positions[next] < to) {
+                index.add(fileOffset + positions[next] - from, timestamps[next], severities[next]);
+                next++;
+            }
+        }
+
+        /**
+         * Checks whether the next entry not reported to the index starts at a buffer position.
+         *
+         * @param position The position in the buffer.
+         * @return True if an entry starts there.
+         */
+        boolean startsAt(int position) {
+            return next < count && positions[next] == position;
+        }
+
+        /**
+         * Returns where the first entry not reported to the index starts, which is after the given position
+         * unless {@link #startsAt(int)} holds.
+         *
+         * @param position The current position in the buffer.
+         * @param limit The end of the data in the buffer.
+         * @return The start of that entry, or the limit if all entries have been reported.
+         */
+        int nextStart(int position, int limit) {
+            return next < count ? Math.max(position, positions[next]) : limit;
+        }
+
+        /**
+         * Removes all entries.
+         */
+        void clear() {
+            count = 0;
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * LogFollower follows a log file like "tail -F" and passes every entry appended to it to a listener.
+ * A WatchService on the directory wakes the follower when the file changes, and the file is also checked
+ * periodically for file systems that report changes late or not at all. Each check reads only the bytes
+ * appended since the offset reached so far.
+ * <p>
+ * When the log rotates, the rest of the renamed file is read through the channel that is still open before
+ * the new file at the path is followed from its start. When the file is truncated, as by
+ * {@link NamedLogger#clearLog()}, following restarts at its start; a truncated file that has already grown
+ * past the old offset again is recognized by the bytes just before the offset no longer matching.
+ */
+final class LogFollower implements Logger.Subscription {
+
+    // Longest wait for a change notification before the file is checked anyway
+    private static final long POLL_INTERVAL_MILLIS = 500;
+
+    // Number of bytes before the offset that are compared to recognize a rewritten file
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    // Initial size of the read buffer; it grows for entries that do not fit
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final Consumer<LogEntry> listener;
+    private final LogParser parser;
+    private final Thread thread;
+    private volatile boolean active = true;
+    private volatile WatchService watcher;
+
+    // The followed file and the offset up to which its entries have been delivered
+    private FileChannel channel;
+    private Object fileKey;
+    private long offset;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // The bytes just before the offset, as last read
+    private final byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+    private int fingerprintLength;
+
+    /**
+     * Starts following a log file at its current end.
+     *
+     * @param path The path of the log file; it does not need to exist yet.
+     * @param minLevel The lowest level passed to the listener.
+     * @param listener The listener, called on the follower thread.
+     */
+    LogFollower(Path path, Level minLevel, Consumer<LogEntry> listener) {
+        this.path = path.toAbsolutePath();
+        this.listener = listener;
+        this.parser = new LogParser(Long.MIN_VALUE, Long.MAX_VALUE, minLevel);
+        try {
+            // Opened here, so entries written after this constructor returns are never skipped
+            open(true);
+        } catch (IOException e) {
+            System.err.println("Failed to follow log file: " + e.getMessage());
+        }
+        this.thread = new Thread(this::run, "holyjar-log-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void cancel() {
+        active = false;
+        WatchService current = watcher;
+        if (current != null) {
+            try {
+                // Wakes the follower thread
+                current.close();
+            } catch (IOException e) {
+                System.err.println("Failed to stop following log file: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Main loop of the follower thread: waits for a change or the poll interval, then reads what was appended.
+     */
+    private void run() {
+        try (WatchService service = path.getFileSystem().newWatchService()) {
+            watcher = service;
+            WatchKey registration = null;
+            while (active) {
+                if (registration == null || !registration.isValid()) {
+                    registration = register(service);
+                }
+                check();
+                WatchKey key = service.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    // Any change in the directory triggers a check; the events themselves are not needed
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Cancelled
+        } catch (IOException e) {
+            System.err.println("Failed to follow log file: " + e.getMessage());
+        } finally {
+            active = false;
+            closeChannel();
+        }
+    }
+
+    /**
+     * Watches the directory of the file for changes.
+     *
+     * @param service The watch service.
+     * @return The registration, or null if the directory does not exist yet.
+     * @throws IOException If the directory cannot be watched.
+     */
+    private WatchKey register(WatchService service) throws IOException {
+        try {
+            return path.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (NoSuchFileException e) {
+            // Like a missing file: checked every poll interval until the directory is created
+            return null;
+        }
+    }
+
+    /**
+     * Delivers the entries appended since the last check and switches to a new file after a rotation.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    private void check() throws IOException {
+        if (channel == null) {
+            open(false);
+            if (channel == null) {
+                return;
+            }
+        }
+        readAppended();
+        Object current = readFileKey();
+        if (current != null && !current.equals(fileKey)) {
+            // Rotated: the renamed file is complete now, so read its rest before following the new one
+            readAppended();
+            closeChannel();
+            open(false);
+            if (channel != null) {
+                readAppended();
+            }
+        }
+    }
+
+    /**
+     * Opens the file at the path, if it exists.
+     *
+     * @param atEnd True to start after the last complete entry, false to start at the beginning.
+     * @throws IOException If the file cannot be opened.
+     */
+    private void open(boolean atEnd) throws IOException {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        fileKey = readFileKey();
+        offset = atEnd ? LogFile.findEndOfData(channel) : 0;
+        readFingerprint();
+    }
+
+    /**
+     * Reads the bytes appended to the open file and delivers the complete entries in them.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    private void readAppended() throws IOException {
+        long size = channel.size();
+        if (size < offset || !fingerprintMatches()) {
+            // Truncated, and possibly written again since
+            offset = 0;
+            fingerprintLength = 0;
+        }
+        long start = offset;
+        while (active && offset < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - offset));
+            while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            int read = buffer.position();
+            // A memory-mapped log file ends in zeros that are overwritten in place later
+            int length = dataEnd(read);
+            boolean atEnd = length < read || offset + read >= size;
+            int consumed = atEnd ? lineEnd(length) : LogParser.lastEntryStart(buffer, length);
+            if (consumed <= 0) {
+                if (atEnd) {
+                    // Only an incomplete entry so far
+                    break;
+                }
+                // One entry larger than the buffer
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                continue;
+            }
+            parser.reset(buffer, consumed);
+            while (parser.hasRemaining()) {
+                LogEntry entry = parser.next();
+                if (entry != null) {
+                    deliver(entry);
+                }
+            }
+            parser.reset(null, 0);
+            offset += consumed;
+            if (atEnd) {
+                break;
+            }
+        }
+        if (offset != start) {
+            readFingerprint();
+        }
+    }
+
+    /**
+     * Passes an entry to the listener, reporting instead of propagating its failures.
+     *
+     * @param entry The entry.
+     */
+    private void deliver(LogEntry entry) {
+        try {
+            listener.accept(entry);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to handle log entry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds where the data in the buffer ends: at the first zero byte, or after all bytes read.
+     *
+     * @param read The number of bytes read.
+     * @return The length of the data.
+     */
+    private int dataEnd(int read) {
+        byte[] bytes = buffer.array();
+        for (int i = 0; i < read; i++) {
+            if (bytes[i] == 0) {
+                return i;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Finds the end of the last complete line in the buffer.
+     *
+     * @param length The length of the data.
+     * @return The position after the last line separator, or 0 if there is none.
+     */
+    private int lineEnd(int length) {
+        byte[] bytes = buffer.array();
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Remembers the bytes just before the offset.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    private void readFingerprint() throws IOException {
+        fingerprintLength = (int) Math.min(FINGERPRINT_LENGTH, offset);
+        ByteBuffer target = ByteBuffer.wrap(fingerprint, 0, fingerprintLength);
+        readFully(target, offset - fingerprintLength);
+        fingerprintLength = target.position();
+    }
+
+    /**
+     * Checks whether the bytes just before the offset are still the ones remembered.
+     *
+     * @return True if they match, or nothing was remembered.
+     * @throws IOException If the file cannot be read.
+     */
+    private boolean fingerprintMatches() throws IOException {
+        if (fingerprintLength == 0) {
+            return true;
+        }
+        byte[] current = new byte[fingerprintLength];
+        ByteBuffer target = ByteBuffer.wrap(current);
+        readFully(target, offset - fingerprintLength);
+        return Arrays.equals(current, 0, fingerprintLength, fingerprint, 0, fingerprintLength);
+    }
+
+    /**
+     * Reads until a buffer is full or the end of the file is reached.
+     *
+     * @param target The buffer.
+     * @param position The file position to read from.
+     * @throws IOException If the read fails.
+     */
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * Reads the file system identity of the file at the path.
+     *
+     * @return The file key, or null if the file does not exist or the file system has no keys.
+     * @throws IOException If the attributes cannot be read.
+     */
+    private Object readFileKey() throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes the followed file, ignoring errors.
+     */
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close log file: " + e.getMessage());
+            }
+            channel = null;
+            fileKey = null;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * LogIndex maintains the sparse side index of a log file, stored next to it as "&lt;log file&gt;.idx".
+ * The index holds one record for every block of about 64 KB of entries: the byte range of the block,
+ * the earliest and latest entry time in it and its number of entries per level. A query reads the index
+ * and only touches the blocks that can contain matching entries, instead of scanning whole files.
+ * <p>
+ * The writer side is driven by {@link LogFile} with its lock held: it reports the file offset of every entry
+ * as it is written, and a record is appended whenever a block is full, so indexing costs one small write per block.
+ * The block still being filled is written when the file is closed or rotated; until then queries scan it.
+ * Bytes the index does not describe, such as a file written before indexing was enabled, are covered by
+ * a record marked as unknown, which queries always scan.
+ */
+final class LogIndex {
+
+    // Extension appended to the log file name
+    static final String EXTENSION = ".idx";
+
+    // Amount of log data after which a block is closed
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    // File header: magic number "HJIX" and format version
+    private static final int MAGIC = 0x484A4958;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    // Record layout: offset, length, earliest and latest time, flags, then one entry count per level
+    private static final int LEVEL_COUNT = Level.values().length;
+    private static final int RECORD_SIZE = 4 * Long.BYTES + Integer.BYTES + LEVEL_COUNT * Integer.BYTES;
+
+    // Flag of records over bytes whose entries are not known
+    private static final int UNKNOWN = 1;
+
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    // Open index file, null while closed or after a write failed
+    private FileChannel channel;
+
+    // The block being filled: its start offset, time range and entry counts
+    private long blockStart;
+    private long earliest;
+    private long latest;
+    private final int[] counts = new int[LEVEL_COUNT];
+    private int entries;
+
+    /**
+     * Returns the path of the index of a log file.
+     *
+     * @param logPath The path of the log file.
+     * @return The path of its index.
+     */
+    static Path pathOf(Path logPath) {
+        return logPath.resolveSibling(logPath.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Opens the index of a log file that was just opened for writing. An index that does not match the file,
+     * because the file was replaced or truncated, is started over. Bytes written while the index was not
+     * kept up to date are recorded as an unknown block.
+     *
+     * @param logPath The path of the log file.
+     * @param logSize The size of the log data in the file.
+     */
+    void open(Path logPath, long logSize) {
+        try {
+            channel = FileChannel.open(pathOf(logPath), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long end = coveredEnd(logSize);
+            if (end < 0) {
+                channel.truncate(0);
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                writeFully(header, 0);
+                end = 0;
+            }
+            channel.position(channel.size());
+            startBlock(end);
+            if (end < logSize) {
+                writeRecord(end, logSize - end, Long.MIN_VALUE, Long.MAX_VALUE, UNKNOWN);
+                startBlock(logSize);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Records an entry that is being written to the log file. Entries must be reported in file order.
+     *
+     * @param offset The file offset of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param severity The severity rank of the entry.
+     */
+    void add(long offset, long timestamp, int severity) {
+        if (channel == null) {
+            return;
+        }
+        if (offset - blockStart >= BLOCK_SIZE) {
+            writeBlock(offset);
+            startBlock(offset);
+        }
+        earliest = Math.min(earliest, timestamp);
+        latest = Math.max(latest, timestamp);
+        counts[severity]++;
+        entries++;
+    }
+
+    /**
+     * Starts the index over after the log file was truncated.
+     */
+    void reset() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.truncate(HEADER_SIZE);
+            channel.position(HEADER_SIZE);
+            startBlock(0);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Writes the block being filled and closes the index.
+     *
+     * @param logSize The size of the log data in the file, which is where the last block ends.
+     */
+    void close(long logSize) {
+        if (channel == null) {
+            return;
+        }
+        writeBlock(logSize);
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close log index: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    /**
+     * Validates the index file against the log file and cuts off a record that was only partly written.
+     *
+     * @param logSize The size of the log data in the file.
+     * @return The end of the log data covered by the index, or -1 if the index has to be started over.
+     * @throws IOException If the index cannot be read.
+     */
+    private long coveredEnd(long logSize) throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            return -1;
+        }
+        long records = (size - HEADER_SIZE) / RECORD_SIZE;
+        if (HEADER_SIZE + records * RECORD_SIZE < size) {
+            channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+        }
+        if (records == 0) {
+            return 0;
+        }
+        ByteBuffer last = ByteBuffer.allocate(2 * Long.BYTES);
+        readFully(channel, last, HEADER_SIZE + (records - 1) * RECORD_SIZE);
+        long end = last.getLong(0) + last.getLong(Long.BYTES);
+        return end <= logSize ? end : -1;
+    }
+
+    /**
+     * Starts a new, empty block.
+     *
+     * @param offset The file offset at which the block starts.
+     */
+    private void startBlock(long offset) {
+        blockStart = offset;
+        earliest = Long.MAX_VALUE;
+        latest = Long.MIN_VALUE;
+        Arrays.fill(counts, 0);
+        entries = 0;
+    }
+
+    /**
+     * Appends the record of the block being filled, if it covers any bytes.
+     *
+     * @param end The file offset at which the block ends.
+     */
+    private void writeBlock(long end) {
+        if (end <= blockStart) {
+            return;
+        }
+        // A block without entries holds only the continuation of an entry from the previous file
+        writeRecord(blockStart, end - blockStart, earliest, latest, entries == 0 ? UNKNOWN : 0);
+    }
+
+    /**
+     * Appends one record to the index file.
+     *
+     * @param offset The start of the block.
+     * @param length The length of the block in bytes.
+     * @param first The earliest entry time.
+     * @param last The latest entry time.
+     * @param flags The record flags.
+     */
+    private void writeRecord(long offset, long length, long first, long last, int flags) {
+        record.clear();
+        record.putLong(offset).putLong(length).putLong(first).putLong(last).putInt(flags);
+        for (int count : counts) {
+            record.putInt(flags == UNKNOWN ? 0 : count);
+        }
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stops indexing this file after a write failed. Queries fall back to scanning what is not indexed.
+     *
+     * @param e The failure.
+     */
+    private void fail(IOException e) {
+        System.err.println("Failed to write log index: " + e.getMessage());
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException closeFailure) {
+                // Already reported the write failure
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes a buffer at an explicit position.
+     *
+     * @param data The bytes to write.
+     * @param position The file position.
+     * @throws IOException If the write fails.
+     */
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * Reads the index of a log file.
+     *
+     * @param indexPath The path of the index.
+     * @return The blocks in file order, or an empty list if there is no valid index.
+     */
+    static List<Block> read(Path indexPath) {
+        List<Block> blocks = new ArrayList<>();
+        try (FileChannel file = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long size = file.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return blocks;
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) size);
+            readFully(file, data, 0);
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                return blocks;
+            }
+            for (int position = HEADER_SIZE; position + RECORD_SIZE <= size; position += RECORD_SIZE) {
+                data.position(position);
+                Block block = new Block(data.getLong(), data.getLong(), data.getLong(), data.getLong(),
+                        (data.getInt() & UNKNOWN) != 0);
+                for (int level = 0; level < LEVEL_COUNT; level++) {
+                    block.counts[level] = data.getInt();
+                }
+                blocks.add(block);
+            }
+        } catch (NoSuchFileException e) {
+            return blocks;
+        } catch (IOException e) {
+            System.err.println("Failed to read log index: " + e.getMessage());
+            blocks.clear();
+        }
+        return blocks;
+    }
+
+    /**
+     * Reads until a buffer is full or the end of the file is reached.
+     *
+     * @param file The file.
+     * @param data The buffer to fill.
+     * @param position The file position to read from.
+     * @throws IOException If the read fails.
+     */
+    private static void readFully(FileChannel file, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            int read = file.read(data, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * One indexed block of a log file.
+     */
+    static final class Block {
+
+        final long offset;
+        final long length;
+        final long first;
+        final long last;
+
+        // Set if the entries of the block are not known, so it has to be scanned by every query
+        final boolean unknown;
+        final int[] counts = new int[LEVEL_COUNT];
+
+        Block(long offset, long length, long first, long last, boolean unknown) {
+            this.offset = offset;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+            this.unknown = unknown;
+        }
+
+        /**
+         * Checks whether the block can contain entries in a time range at or above a level.
+         *
+         * @param from The start of the range in epoch milliseconds, rounded down to the second.
+         * @param to The end of the range in epoch milliseconds.
+         * @param minSeverity The lowest severity rank wanted.
+         * @return True if the block has to be read.
+         */
+        boolean matches(long from, long to, int minSeverity) {
+            if (unknown) {
+                return true;
+            }
+            if (last < from || first > to) {
+                return false;
+            }
+            for (int level = minSeverity; level < LEVEL_COUNT; level++) {
+                if (counts[level] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package holyjar;
+
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * LogMerger combines the shards of a {@link LogShards sharded} log into one view in the order the entries were
+ * logged. Every shard, read with its backups through a {@link LogReader}, is already in sequence order,
+ * so the merge only compares the next entry of each shard and holds one entry per shard in memory.
+ * <p>
+ * The merged entries can be read on demand or consolidated in the background into a single plain log file.
+ */
+final class LogMerger {
+
+    // Orders entries by sequence number; entries without one, written before sharding, come first by time
+    private static final Comparator<Head> ORDER = Comparator.comparingLong((Head head) -> head.entry.getSequence())
+            .thenComparingLong(head -> head.entry.getTimestamp());
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private LogMerger() {
+        // This constructor is intentionally empty to prevent instantiation
+    }
+
+    /**
+     * Queries the shards of a log lazily and merges them. The stream holds the files open and must be closed.
+     *
+     * @param shardPaths The shard files.
+     * @param from The start of the time range in epoch milliseconds.
+     * @param to The end of the time range in epoch milliseconds, inclusive.
+     * @param minLevel The lowest level returned.
+     * @return The matching entries of all shards in sequence order.
+     */
+    static Stream<LogEntry> query(List<Path> shardPaths, long from, long to, Level minLevel) {
+        List<Stream<LogEntry>> streams = new ArrayList<>();
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, shardPaths.size()), ORDER);
+        try {
+            for (Path shard : shardPaths) {
+                Stream<LogEntry> stream = LogReader.query(shard, from, to, minLevel);
+                streams.add(stream);
+                Head head = new Head(stream.iterator());
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        } catch (RuntimeException e) {
+            streams.forEach(Stream::close);
+            throw e;
+        }
+        Stream<LogEntry> merged = StreamSupport.stream(new Spliterators.AbstractSpliterator<LogEntry>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super LogEntry> action) {
+                Head head = heads.poll();
+                if (head == null) {
+                    return false;
+                }
+                LogEntry entry = head.entry;
+                if (head.advance()) {
+                    heads.add(head);
+                }
+                action.accept(entry);
+                return true;
+            }
+        }, false);
+        return merged.onClose(() -> streams.forEach(Stream::close));
+    }
+
+    /**
+     * Writes all entries of the shards of a log, in sequence order, into one plain log file on the background
+     * thread. The target is written under a temporary name and replaces an existing file only when complete.
+     * Entries with a custom level label are written as INFO, like they are read back.
+     *
+     * @param shardPaths The shard files.
+     * @param target The consolidated log file.
+     * @return A future completing with the number of entries written.
+     */
+    static CompletableFuture<Long> consolidate(List<Path> shardPaths, Path target) {
+        return CompletableFuture.supplyAsync(() -> {
+            Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+            long count = 0;
+            try (Stream<LogEntry> entries = query(shardPaths, Long.MIN_VALUE, Long.MAX_VALUE, Level.DEBUG);
+                 OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                LogEncoder encoder = LogEncoder.get();
+                Iterator<LogEntry> iterator = entries.iterator();
+                while (iterator.hasNext()) {
+                    LogEntry entry = iterator.next();
+                    ByteBuffer bytes = encoder.encode(entry.getTimestamp(), entry.getLevel().name(), entry.getMessage());
+                    out.write(bytes.array(), bytes.position(), bytes.remaining());
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to consolidate log shards", e);
+            }
+            try {
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to consolidate log shards", e);
+            }
+            return count;
+        }, LogScheduler.background());
+    }
+
+    /**
+     * The next entry of one shard and the rest of its entries.
+     */
+    private static final class Head {
+
+        private final Iterator<LogEntry> remaining;
+        private LogEntry entry;
+
+        Head(Iterator<LogEntry> remaining) {
+            this.remaining = remaining;
+        }
+
+        /**
+         * Moves to the next entry of the shard.
+         *
+         * @return False if the shard has no further entry.
+         */
+        boolean advance() {
+            if (!remaining.hasNext()) {
+                return false;
+            }
+            entry = remaining.next();
+            return true;
+        }
+    }
+}
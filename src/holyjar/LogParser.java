@@ -0,0 +1,549 @@
+package holyjar;
+
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * LogParser splits the bytes of a log file into entries and decodes the ones that pass a level and time filter.
+ * An entry starts with a line in the format written by {@link LogEncoder}, "yyyy-MM-dd HH:mm:ss [LEVEL] ",
+ * and includes the following lines that do not, such as the lines of a stack trace. The level and the time
+ * are checked on the raw bytes, so the message is only decoded for matching entries.
+ * The sequence number of entries in sharded log files, "#42 " between the timestamp and the level, is optional.
+ * <p>
+ * Lines of the {@link Logger.FileFormat#JSON} format are entries as well, recognized by their fixed start
+ * {"time":"yyyy-MM-dd HH:mm:ss","level":"LEVEL","message":", with an optional "sequence" member after the time.
+ * The fields of a structured entry that follow its message are appended to it as logfmt pairs, the way
+ * {@link LogEvent} renders them in text format, so both formats read back the same.
+ */
+final class LogParser {
+
+    // Length of the "yyyy-MM-dd HH:mm:ss " prefix of an entry, and the longest level label considered
+    private static final int TIMESTAMP_PREFIX_LENGTH = 20;
+    private static final int MAX_LABEL_LENGTH = 32;
+
+    // Start of the time member of a JSON entry, and the position of its timestamp
+    private static final int JSON_TIMESTAMP_OFFSET = LogEncoder.JSON_TIME.length;
+
+    // Level labels as bytes, indexed by severity rank
+    private static final byte[][] LABELS = new byte[Level.values().length][];
+
+    static {
+        for (Level level : Level.values()) {
+            LABELS[level.ordinal()] = level.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    // The filter: time range in epoch milliseconds, inclusive, and the lowest severity rank
+    private final long from;
+    private final long to;
+    private final int minSeverity;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // The data being parsed, the position of the next entry and the end of the data
+    private ByteBuffer window;
+    private int windowPosition;
+    private int windowLimit;
+
+    // Local minute of the last parsed timestamp and its epoch second, since entries mostly share the minute
+    private long cachedMinute = Long.MIN_VALUE;
+    private long cachedMinuteEpoch;
+
+    /**
+     * Creates a parser.
+     *
+     * @param from The start of the time range in epoch milliseconds, a whole second.
+     * @param to The end of the time range in epoch milliseconds, inclusive.
+     * @param minLevel The lowest level passed.
+     */
+    LogParser(long from, long to, Level minLevel) {
+        this.from = from;
+        this.to = to;
+        this.minSeverity = minLevel.ordinal();
+    }
+
+    /**
+     * Starts parsing new data. The data has to start at an entry or at continuation lines, which are skipped,
+     * and end after a complete entry.
+     *
+     * @param data The data, read with absolute positions from 0, or null to release the previous data.
+     * @param limit The end of the data.
+     */
+    void reset(ByteBuffer data, int limit) {
+        window = data;
+        windowPosition = 0;
+        windowLimit = data != null ? limit : 0;
+    }
+
+    /**
+     * Checks whether the data has unparsed bytes left.
+     *
+     * @return True if {@link #next()} can be called.
+     */
+    boolean hasRemaining() {
+        return windowPosition < windowLimit;
+    }
+
+    /**
+     * Parses the entry at the current position of the window and moves past it.
+     *
+     * @return The entry if it matches the filter, otherwise null.
+     */
+    LogEntry next() {
+        ByteBuffer data = window;
+        int start = windowPosition;
+        if (data.get(start) == 0) {
+            // Zero-filled tail of a memory-mapped file
+            windowPosition = windowLimit;
+            return null;
+        }
+        boolean json = data.get(start) == '{';
+        int labelStart = labelStart(data, start, windowLimit);
+        int labelEnd = labelStart < 0 ? -1 : labelEnd(data, labelStart, windowLimit, json);
+        int end = nextEntryStart(data, start, windowLimit);
+        windowPosition = end;
+        if (labelEnd < 0) {
+            // Continuation lines of an entry that started before this range
+            return null;
+        }
+        int severity = severity(data, labelStart, labelEnd);
+        if (severity < minSeverity) {
+            return null;
+        }
+        long timestamp = parseTimestamp(data, json ? start + JSON_TIMESTAMP_OFFSET : start);
+        if (timestamp < from || timestamp > to) {
+            return null;
+        }
+        if (json) {
+            return parseJson(data, start, labelStart, labelEnd, end, timestamp, severity);
+        }
+
+        // Message after "] ", without the line separator
+        int messageStart = Math.min(labelEnd + 2, end);
+        int messageEnd = end;
+        if (messageEnd > messageStart && data.get(messageEnd - 1) == '\n') {
+            messageEnd--;
+            if (messageEnd > messageStart && data.get(messageEnd - 1) == '\r') {
+                messageEnd--;
+            }
+        }
+        byte[] bytes = new byte[messageEnd - messageStart];
+        data.get(messageStart, bytes);
+        // "#digits " ends just before the bracket of the label
+        long sequence = labelStart > start + TIMESTAMP_PREFIX_LENGTH + 1
+                ? parseLong(data, start + TIMESTAMP_PREFIX_LENGTH + 1, labelStart - 2) : -1;
+        return new LogEntry(timestamp, Level.ofSeverity(severity), new String(bytes, StandardCharsets.UTF_8), sequence);
+    }
+
+    /**
+     * Decodes the message and the fields of a JSON entry whose header passed the filter.
+     *
+     * @param data The window.
+     * @param start The start of the entry.
+     * @param labelStart The first byte of the level label.
+     * @param labelEnd The position of the quote closing the level label.
+     * @param end The start of the next entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param severity The severity rank of the entry.
+     * @return The entry.
+     */
+    private static LogEntry parseJson(ByteBuffer data, int start, int labelStart, int labelEnd, int end,
+                                      long timestamp, int severity) {
+        int messageStart = labelEnd + LogEncoder.JSON_MESSAGE.length;
+        int messageEnd = jsonStringEnd(data, messageStart, end);
+        String message = jsonString(data, messageStart, messageEnd);
+        StringBuilder fields = null;
+        int position = messageEnd + 1;
+        // Members after the message: ,"key":value, where the value is a string or a literal
+        while (position + 1 < end && data.get(position) == ',' && data.get(position + 1) == '"') {
+            int keyEnd = jsonStringEnd(data, position + 2, end);
+            if (keyEnd + 2 >= end || data.get(keyEnd + 1) != ':') {
+                break;
+            }
+            if (fields == null) {
+                fields = new StringBuilder(message);
+            }
+            fields.append(' ').append(jsonString(data, position + 2, keyEnd)).append('=');
+            position = keyEnd + 2;
+            if (data.get(position) == '"') {
+                int valueEnd = jsonStringEnd(data, position + 1, end);
+                LogEvent.appendLogfmtValue(fields, jsonString(data, position + 1, valueEnd));
+                position = valueEnd + 1;
+            } else {
+                while (position < end && data.get(position) != ',' && data.get(position) != '}') {
+                    fields.append((char) data.get(position++));
+                }
+            }
+        }
+        // The sequence member ends just before the quote that starts the level member
+        int sequenceStart = start + JSON_TIMESTAMP_OFFSET + LogEncoder.TIMESTAMP_LENGTH
+                + LogEncoder.JSON_SEQUENCE.length;
+        long sequence = labelStart > sequenceStart + LogEncoder.JSON_LEVEL.length
+                ? parseLong(data, sequenceStart, labelStart - LogEncoder.JSON_LEVEL.length) : -1;
+        return new LogEntry(timestamp, Level.ofSeverity(severity), fields != null ? fields.toString() : message,
+                sequence);
+    }
+
+    /**
+     * Finds the quote that closes a JSON string.
+     *
+     * @param data The window.
+     * @param start The first byte after the opening quote.
+     * @param limit The end of the entry.
+     * @return The position of the closing quote, or the limit if the string is not closed.
+     */
+    private static int jsonStringEnd(ByteBuffer data, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            byte b = data.get(i);
+            if (b == '"') {
+                return i;
+            }
+            if (b == '\\') {
+                i++;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Decodes the characters of a JSON string, resolving its escapes.
+     *
+     * @param data The window.
+     * @param start The first byte after the opening quote.
+     * @param end The position of the closing quote.
+     * @return The string.
+     */
+    private static String jsonString(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        data.get(start, bytes);
+        // Escapes are ASCII, so they survive decoding the UTF-8 bytes first
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        int escape = text.indexOf('\\');
+        if (escape < 0) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        sb.append(text, 0, escape);
+        for (int i = escape; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                sb.append(c);
+                continue;
+            }
+            char escaped = text.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 < text.length()) {
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException e) {
+                            // Not an escape after all; keep it as written
+                        }
+                    }
+                    sb.append('\\').append(escaped);
+                    break;
+                default:
+                    // Quotes, backslashes and slashes stand for themselves
+                    sb.append(escaped);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks whether an entry starts at a position: a timestamp, a space and a bracketed level label,
+     * or the start of a JSON entry up to its level.
+     *
+     * @param data The window.
+     * @param start The position.
+     * @param limit The end of the window.
+     * @return The position of the byte closing the label, or -1 if no entry starts there.
+     */
+    private static int headerEnd(ByteBuffer data, int start, int limit) {
+        int labelStart = labelStart(data, start, limit);
+        return labelStart < 0 ? -1 : labelEnd(data, labelStart, limit, data.get(start) == '{');
+    }
+
+    /**
+     * Checks the part of an entry header before the level label: a timestamp, a space, an optional
+     * sequence number with a space, and the opening bracket.
+     *
+     * @param data The window.
+     * @param start The position.
+     * @param limit The end of the window.
+     * @return The position of the first byte of the label, or -1 if no entry starts there.
+     */
+    private static int labelStart(ByteBuffer data, int start, int limit) {
+        if (limit > start && data.get(start) == '{') {
+            return jsonLabelStart(data, start, limit);
+        }
+        if (limit - start < TIMESTAMP_PREFIX_LENGTH + 3 || !isTimestamp(data, start)
+                || data.get(start + TIMESTAMP_PREFIX_LENGTH - 1) != ' ') {
+            return -1;
+        }
+        int position = start + TIMESTAMP_PREFIX_LENGTH;
+        if (data.get(position) == '#') {
+            int digitsStart = position + 1;
+            int max = Math.min(limit - 1, digitsStart + LogEncoder.SEQUENCE_DIGITS);
+            position = digitsStart;
+            while (position < max && data.get(position) >= '0' && data.get(position) <= '9') {
+                position++;
+            }
+            if (position == digitsStart || position + 1 >= limit || data.get(position) != ' ') {
+                return -1;
+            }
+            position++;
+        }
+        return data.get(position) == '[' ? position + 1 : -1;
+    }
+
+    /**
+     * Checks the part of a JSON entry before the level label: the time member, an optional sequence member
+     * and the start of the level member.
+     *
+     * @param data The window.
+     * @param start The position of the opening brace.
+     * @param limit The end of the window.
+     * @return The position of the first byte of the label, or -1 if no entry starts there.
+     */
+    private static int jsonLabelStart(ByteBuffer data, int start, int limit) {
+        int position = start + JSON_TIMESTAMP_OFFSET + LogEncoder.TIMESTAMP_LENGTH;
+        if (limit - position < LogEncoder.JSON_LEVEL.length + 2 || !matches(data, start, LogEncoder.JSON_TIME)
+                || !isTimestamp(data, start + JSON_TIMESTAMP_OFFSET)) {
+            return -1;
+        }
+        if (matches(data, position, LogEncoder.JSON_SEQUENCE)) {
+            int digitsStart = position + LogEncoder.JSON_SEQUENCE.length;
+            int max = Math.min(limit, digitsStart + LogEncoder.SEQUENCE_DIGITS);
+            position = digitsStart;
+            while (position < max && data.get(position) >= '0' && data.get(position) <= '9') {
+                position++;
+            }
+            if (position == digitsStart || limit - position < LogEncoder.JSON_LEVEL.length + 2) {
+                return -1;
+            }
+        }
+        return matches(data, position, LogEncoder.JSON_LEVEL) ? position + LogEncoder.JSON_LEVEL.length : -1;
+    }
+
+    /**
+     * Checks whether a timestamp in the format "yyyy-MM-dd HH:mm:ss" starts at a position.
+     * The caller makes sure the window holds its bytes.
+     *
+     * @param data The window.
+     * @param start The position.
+     * @return True if the bytes form a timestamp.
+     */
+    private static boolean isTimestamp(ByteBuffer data, int start) {
+        for (int i = 0; i < LogEncoder.TIMESTAMP_LENGTH; i++) {
+            byte b = data.get(start + i);
+            switch (i) {
+                case 4:
+                case 7:
+                    if (b != '-') {
+                        return false;
+                    }
+                    break;
+                case 10:
+                    if (b != ' ') {
+                        return false;
+                    }
+                    break;
+                case 13:
+                case 16:
+                    if (b != ':') {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (b < '0' || b > '9') {
+                        return false;
+                    }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether fixed bytes appear at a position, within the window.
+     *
+     * @param data The window.
+     * @param start The position.
+     * @param expected The bytes.
+     * @return True if they match.
+     */
+    private static boolean matches(ByteBuffer data, int start, byte[] expected) {
+        if (data.limit() - start < expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the end of the level label of an entry header.
+     *
+     * @param data The window.
+     * @param labelStart The first byte of the label.
+     * @param limit The end of the window.
+     * @param json True for a JSON entry, whose label is followed by the start of the message member.
+     * @return The position of the closing bracket or quote of the label, or -1 if the header is incomplete.
+     */
+    private static int labelEnd(ByteBuffer data, int labelStart, int limit, boolean json) {
+        int max = Math.min(limit - 1, labelStart + MAX_LABEL_LENGTH);
+        for (int i = labelStart; i < max; i++) {
+            byte b = data.get(i);
+            if (json && b == '"') {
+                boolean complete = i + LogEncoder.JSON_MESSAGE.length <= limit;
+                return complete && matches(data, i, LogEncoder.JSON_MESSAGE) ? i : -1;
+            }
+            if (!json && b == ']') {
+                return data.get(i + 1) == ' ' ? i : -1;
+            }
+            if (b == '\n') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the start of the next entry: the first line after the given position that starts with an entry header.
+     *
+     * @param data The window.
+     * @param start The position of the current entry.
+     * @param limit The end of the window.
+     * @return The start of the next entry, or the limit.
+     */
+    private static int nextEntryStart(ByteBuffer data, int start, int limit) {
+        for (int i = start; i < limit; i++) {
+            if (data.get(i) == '\n' && i + 1 < limit && (headerEnd(data, i + 1, limit) >= 0 || data.get(i + 1) == 0)) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Finds the last position in a window, other than its start, where an entry starts.
+     *
+     * @param data The window.
+     * @param limit The end of the data in the window.
+     * @return The position, or -1 if only one entry starts in the window.
+     */
+    static int lastEntryStart(ByteBuffer data, int limit) {
+        for (int i = limit - 2; i > 0; i--) {
+            if (data.get(i) == '\n' && headerEnd(data, i + 1, limit) >= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Determines the severity rank of a level label.
+     *
+     * @param data The window.
+     * @param start The first byte of the label.
+     * @param end The position of the byte closing the label.
+     * @return The rank of the level, or that of INFO for custom labels, like {@link Logger#severity(String)}.
+     */
+    private static int severity(ByteBuffer data, int start, int end) {
+        for (int severity = 0; severity < LABELS.length; severity++) {
+            byte[] label = LABELS[severity];
+            if (label.length != end - start) {
+                continue;
+            }
+            int i = 0;
+            while (i < label.length && data.get(start + i) == label[i]) {
+                i++;
+            }
+            if (i == label.length) {
+                return severity;
+            }
+        }
+        return Level.INFO.ordinal();
+    }
+
+    /**
+     * Parses the timestamp of an entry, which is in the default time zone like the one written by {@link LogEncoder}.
+     *
+     * @param data The window.
+     * @param start The start of the timestamp.
+     * @return The time in epoch milliseconds.
+     */
+    private long parseTimestamp(ByteBuffer data, int start) {
+        int year = digits(data, start, 4);
+        int month = digits(data, start + 5, 2);
+        int day = digits(data, start + 8, 2);
+        int hour = digits(data, start + 11, 2);
+        int minute = digits(data, start + 14, 2);
+        int second = digits(data, start + 17, 2);
+        long key = (((year * 13L + month) * 32 + day) * 24 + hour) * 60 + minute;
+        if (key != cachedMinute) {
+            try {
+                cachedMinuteEpoch = LocalDateTime.of(year, month, day, hour, minute).atZone(zone).toEpochSecond();
+            } catch (RuntimeException e) {
+                // Not a valid date; sort it before every range
+                cachedMinuteEpoch = Long.MIN_VALUE / 1000;
+            }
+            cachedMinute = key;
+        }
+        return (cachedMinuteEpoch + Math.min(second, 59)) * 1000;
+    }
+
+    /**
+     * Parses a fixed number of decimal digits.
+     *
+     * @param data The window.
+     * @param start The first digit.
+     * @param count The number of digits.
+     * @return The value.
+     */
+    private static int digits(ByteBuffer data, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + data.get(i) - '0';
+        }
+        return value;
+    }
+
+    /**
+     * Parses a range of decimal digits that fits into a long.
+     *
+     * @param data The window.
+     * @param start The first digit.
+     * @param end The position after the last digit.
+     * @return The value.
+     */
+    private static long parseLong(ByteBuffer data, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + data.get(i) - '0';
+        }
+        return value;
+    }
+}
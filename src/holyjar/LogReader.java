@@ -0,0 +1,447 @@
+package holyjar;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * LogReader streams the entries of a log file and its backups that fall into a time range and reach a level.
+ * For every file it reads the {@link LogIndex} and only maps the blocks that can contain matching entries,
+ * plus the part at the end the index does not cover yet; files without an index are scanned completely.
+ * Plain files are read through memory-mapped windows and gzipped backups are decompressed as a stream,
+ * so memory use stays at one window regardless of the size of the files.
+ * Files in {@link Logger.FileFormat#BINARY} format have no index; they are read as a stream by a
+ * {@link LogDecoder}, which renders only the messages of matching entries.
+ * <p>
+ * All files are opened when the query starts, so a rotation during the query does not move entries out of its reach.
+ * If the background rotation renames backups while they are being opened, they are listed and opened again.
+ */
+final class LogReader implements AutoCloseable {
+
+    // Largest amount of unindexed data read at a time; cut at the last entry start within it
+    private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+    // How often the files are opened again when a rotation renamed them meanwhile
+    private static final int MAX_OPEN_ATTEMPTS = 10;
+
+    private final long from;
+    private final long to;
+    private final int minSeverity;
+    private final List<Source> sources = new ArrayList<>();
+    private final LogParser parser;
+
+    // Position in the query: the current file, its ranges to read and the current window
+    private int sourceIndex = -1;
+    private Source source;
+    private List<long[]> ranges;
+    private int rangeIndex;
+    private long rangePosition;
+
+    // Decoder of the current file if it is a binary file
+    private LogDecoder decoder;
+
+    /**
+     * Opens the files of a log for a query.
+     *
+     * @param logPath The path of the log file.
+     * @param from The start of the time range in epoch milliseconds.
+     * @param to The end of the time range in epoch milliseconds, inclusive.
+     * @param minLevel The lowest level returned.
+     * @throws IOException If the directory of the log cannot be listed.
+     */
+    private LogReader(Path logPath, long from, long to, Level minLevel) throws IOException {
+        // Entries carry whole seconds, so an entry in the same second as the start belongs to the range
+        this.from = from > Long.MIN_VALUE + 1000 ? Math.floorDiv(from, 1000) * 1000 : Long.MIN_VALUE;
+        this.to = to;
+        this.minSeverity = minLevel.ordinal();
+        this.parser = new LogParser(this.from, to, minLevel);
+        for (int attempt = 1; ; attempt++) {
+            List<Path> files = LogRotator.listFiles(logPath);
+            for (Path file : files) {
+                try {
+                    sources.add(new Source(file));
+                } catch (NoSuchFileException e) {
+                    // Removed by a rotation since it was listed
+                }
+            }
+            if (attempt == MAX_OPEN_ATTEMPTS || isUnchanged(logPath, files)) {
+                break;
+            }
+            close();
+            sources.clear();
+        }
+    }
+
+    /**
+     * Checks that the files of the log are still the ones that were opened, so no backup was
+     * shifted past the query while the files were being opened.
+     *
+     * @param logPath The path of the log file.
+     * @param files The files that were listed.
+     * @return True if every listed file was opened and is still in place.
+     * @throws IOException If the directory cannot be listed.
+     */
+    private boolean isUnchanged(Path logPath, List<Path> files) throws IOException {
+        if (sources.size() != files.size() || !LogRotator.listFiles(logPath).equals(files)) {
+            return false;
+        }
+        for (Source source : sources) {
+            if (source.key == null || !source.key.equals(Source.fileKey(source.file))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queries a log lazily. The stream holds the files open and must be closed.
+     *
+     * @param logPath The path of the log file.
+     * @param from The start of the time range in epoch milliseconds.
+     * @param to The end of the time range in epoch milliseconds, inclusive.
+     * @param minLevel The lowest level returned.
+     * @return The matching entries, oldest file first and in file order within a file.
+     */
+    static Stream<LogEntry> query(Path logPath, long from, long to, Level minLevel) {
+        LogReader reader;
+        try {
+            reader = new LogReader(logPath, from, to, minLevel);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open log files", e);
+        }
+        return StreamSupport.stream(new Spliterators.AbstractSpliterator<LogEntry>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super LogEntry> action) {
+                LogEntry entry = reader.next();
+                if (entry == null) {
+                    return false;
+                }
+                action.accept(entry);
+                return true;
+            }
+        }, false).onClose(reader::close);
+    }
+
+    /**
+     * Returns the next matching entry.
+     *
+     * @return The entry, or null when all files are read.
+     */
+    private LogEntry next() {
+        try {
+            while (true) {
+                while (decoder != null && decoder.next()) {
+                    if (decoder.getTimestamp() >= from && decoder.getTimestamp() <= to
+                            && decoder.getSeverity() >= minSeverity) {
+                        return decoder.toEntry();
+                    }
+                }
+                while (parser.hasRemaining()) {
+                    LogEntry entry = parser.next();
+                    if (entry != null) {
+                        return entry;
+                    }
+                }
+                if (!nextWindow()) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read log file " + source.file, e);
+        }
+    }
+
+    /**
+     * Moves to the next window of data, going on to the next range and the next file as needed.
+     *
+     * @return False when all files are read.
+     * @throws IOException If a file cannot be read.
+     */
+    private boolean nextWindow() throws IOException {
+        while (true) {
+            if (ranges != null && rangeIndex < ranges.size()) {
+                long[] range = ranges.get(rangeIndex);
+                long length = Math.min(WINDOW_SIZE, range[1] - rangePosition);
+                ByteBuffer data = length > 0 ? source.read(rangePosition, (int) length) : null;
+                if (data == null || !data.hasRemaining()) {
+                    nextRange();
+                    continue;
+                }
+                boolean last = data.remaining() < length || rangePosition + data.remaining() >= range[1];
+                int limit = data.remaining();
+                if (!last) {
+                    // Stop before the last entry that starts in the window, so no entry is split
+                    int start = LogParser.lastEntryStart(data, limit);
+                    if (start > 0) {
+                        limit = start;
+                    }
+                }
+                parser.reset(data, limit);
+                rangePosition += limit;
+                if (rangePosition >= range[1] || last) {
+                    nextRange();
+                }
+                return true;
+            }
+            if (!nextSource()) {
+                return false;
+            }
+            if (decoder != null) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves to the next range of the current file.
+     */
+    private void nextRange() {
+        rangeIndex++;
+        if (rangeIndex < ranges.size()) {
+            rangePosition = ranges.get(rangeIndex)[0];
+        }
+    }
+
+    /**
+     * Moves to the next file and plans which ranges of it are read.
+     *
+     * @return False when there is no further file.
+     */
+    private boolean nextSource() {
+        if (source != null) {
+            source.close();
+        }
+        parser.reset(null, 0);
+        decoder = null;
+        sourceIndex++;
+        if (sourceIndex >= sources.size()) {
+            source = null;
+            return false;
+        }
+        source = sources.get(sourceIndex);
+        decoder = null;
+        if (source.binary) {
+            try {
+                decoder = new LogDecoder(source.stream());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read log file " + source.file, e);
+            }
+            ranges = List.of();
+        } else {
+            ranges = plan(source.blocks);
+        }
+        rangeIndex = 0;
+        rangePosition = ranges.isEmpty() ? 0 : ranges.get(0)[0];
+        return true;
+    }
+
+    /**
+     * Merges the blocks that can contain matching entries into ranges of adjacent blocks,
+     * followed by the part of the file after the last block.
+     *
+     * @param blocks The index of the file.
+     * @return The ranges to read as start and end offsets.
+     */
+    private List<long[]> plan(List<LogIndex.Block> blocks) {
+        List<long[]> planned = new ArrayList<>();
+        long end = 0;
+        for (LogIndex.Block block : blocks) {
+            if (block.offset != end) {
+                // Not a consistent index for this file
+                planned.clear();
+                end = 0;
+                break;
+            }
+            end = block.offset + block.length;
+            if (!block.matches(from, to, minSeverity)) {
+                continue;
+            }
+            long[] previous = planned.isEmpty() ? null : planned.get(planned.size() - 1);
+            if (previous != null && previous[1] == block.offset) {
+                previous[1] = end;
+            } else {
+                planned.add(new long[] {block.offset, end});
+            }
+        }
+        if (end > source.size) {
+            // The file was truncated or replaced since it was indexed
+            planned.clear();
+            end = 0;
+        }
+        planned.add(new long[] {end, source.size});
+        return planned;
+    }
+
+    /**
+     * Closes all files of the query.
+     */
+    @Override
+    public void close() {
+        for (Source file : sources) {
+            file.close();
+        }
+        parser.reset(null, 0);
+    }
+
+    /**
+     * One file of the log, plain or gzipped, text or binary.
+     */
+    private static final class Source {
+
+        final Path file;
+        final FileChannel channel;
+        final boolean compressed;
+
+        // Identity of the file at the path when it was opened
+        final Object key;
+
+        // Size of a plain file when the query started, or unbounded for a compressed file
+        final long size;
+
+        // Index of the file, empty if it could not be matched to the file
+        final List<LogIndex.Block> blocks;
+
+        // Whether the file is in binary format
+        final boolean binary;
+
+        // Decompressed stream of a compressed file, its position, and the data returned by the last read
+        private InputStream input;
+        private long inputPosition;
+        private byte[] buffer = new byte[0];
+        private byte[] spare = new byte[0];
+        private long bufferOffset;
+        private int bufferLength;
+
+        Source(Path file) throws IOException {
+            this.file = file;
+            this.key = fileKey(file);
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.compressed = file.getFileName().toString().endsWith(LogRotator.GZIP_EXTENSION);
+            this.size = compressed ? Long.MAX_VALUE : channel.size();
+            List<LogIndex.Block> index = LogIndex.read(LogRotator.indexOf(file));
+            // Backups and their indexes are renamed one after the other; if the file was replaced meanwhile,
+            // the index that was read may belong to another file
+            this.blocks = key != null && key.equals(fileKey(file)) ? index : List.of();
+            ByteBuffer start = read(0, BinaryLogEncoder.MAGIC.length);
+            byte[] magic = new byte[start.remaining()];
+            start.get(magic);
+            this.binary = LogDecoder.isBinary(magic);
+        }
+
+        /**
+         * Returns the uncompressed content of the file from its start, for a binary file, which is read
+         * as a stream instead of in regions. Only the first bytes may have been read before.
+         *
+         * @return The content.
+         * @throws IOException If the file cannot be read.
+         */
+        InputStream stream() throws IOException {
+            if (!compressed) {
+                return Channels.newInputStream(channel.position(0));
+            }
+            // The decompressed stream has moved past the first bytes; they are still in the buffer
+            return new SequenceInputStream(new ByteArrayInputStream(buffer, 0, bufferLength), input);
+        }
+
+        /**
+         * Reads the file system identity of a file, or its creation time on file systems without file keys.
+         *
+         * @param file The file.
+         * @return The identity, or null if the file does not exist.
+         * @throws IOException If the attributes cannot be read.
+         */
+        static Object fileKey(Path file) throws IOException {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                return attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Reads a region of the uncompressed content. Regions must be read in increasing order; a region may
+         * overlap the previous one.
+         *
+         * @param offset The start of the region.
+         * @param length The length of the region.
+         * @return The data, shorter than requested at the end of the file.
+         * @throws IOException If the file cannot be read.
+         */
+        ByteBuffer read(long offset, int length) throws IOException {
+            if (!compressed) {
+                long available = Math.min(length, size - offset);
+                return available > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, offset, available)
+                        : ByteBuffer.allocate(0);
+            }
+
+            if (input == null) {
+                input = new GZIPInputStream(Channels.newInputStream(channel), 64 * 1024);
+            }
+            if (spare.length < length) {
+                spare = new byte[length];
+            }
+            int filled = 0;
+            if (offset >= bufferOffset && offset < bufferOffset + bufferLength) {
+                // Keep the part of the previous region that is read again; the stream continues after it
+                filled = (int) Math.min(length, bufferOffset + bufferLength - offset);
+                System.arraycopy(buffer, (int) (offset - bufferOffset), spare, 0, filled);
+            } else if (offset > inputPosition) {
+                try {
+                    input.skipNBytes(offset - inputPosition);
+                } catch (EOFException e) {
+                    return ByteBuffer.allocate(0);
+                }
+            }
+            while (filled < length) {
+                int read = input.read(spare, filled, length - filled);
+                if (read < 0) {
+                    break;
+                }
+                filled += read;
+            }
+            inputPosition = offset + filled;
+            byte[] previous = buffer;
+            buffer = spare;
+            spare = previous;
+            bufferOffset = offset;
+            bufferLength = filled;
+            return ByteBuffer.wrap(buffer, 0, filled);
+        }
+
+        /**
+         * Closes the file, ignoring errors.
+         */
+        void close() {
+            try {
+                if (input != null) {
+                    input.close();
+                }
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close log file: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package holyjar;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LogRotator performs the slow part of log rotation in the background.
+ * The writer only renames the full log file to a pending name and opens a fresh one; shifting the numbered
+ * backups, compressing the newest one and pruning to the disk budget happens afterwards on the background thread.
+ * The {@link LogIndex} of each file moves along with it; a compressed backup keeps the index of its uncompressed content.
+ * When several processes write the log, the background part runs under the rotation region of the {@link ProcessLock},
+ * so only one process at a time shifts the backups, taking care of the pending files of all processes.
+ */
+final class LogRotator {
+
+    // Marker in the name of full log files waiting to become the .1 backup
+    private static final String PENDING_MARKER = ".rotating-";
+
+    // Extension of compressed backups
+    static final String GZIP_EXTENSION = ".gz";
+
+    // Extension of a compressed backup while it is being written
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    // Sequence for pending file names, kept at least at the clock so names also sort across restarts and processes
+    private static final AtomicLong SEQUENCE = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private LogRotator() {
+        // This constructor is intentionally empty to prevent instantiation
+    }
+
+    /**
+     * Moves the full log file and its index out of the way. This is the only step done on the writing thread.
+     *
+     * @param logPath The path of the log file, which is closed by the caller.
+     * @return True if there was a file to move.
+     * @throws IOException If the rename fails.
+     */
+    static boolean detach(Path logPath) throws IOException {
+        if (!Files.exists(logPath)) {
+            return false;
+        }
+        long sequence = SEQUENCE.updateAndGet(previous -> Math.max(previous + 1, System.currentTimeMillis() * 1000));
+        String pendingName = String.format("%s%s%020d", logPath.getFileName(), PENDING_MARKER, sequence);
+        Path pending = logPath.resolveSibling(pendingName);
+        // The index goes first, so the pending file never appears without it
+        Path index = LogIndex.pathOf(logPath);
+        if (Files.exists(index)) {
+            Files.move(index, LogIndex.pathOf(pending), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(logPath, pending, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Lists the files holding the entries of a log, oldest first: the numbered backups from the highest number
+     * down, the full files still waiting to become a backup, and the log file itself.
+     *
+     * @param logPath The path of the log file.
+     * @return The existing files in the order their entries were written.
+     * @throws IOException If the directory cannot be read.
+     */
+    static List<Path> listFiles(Path logPath) throws IOException {
+        Path directory = logPath.toAbsolutePath().getParent();
+        String name = logPath.getFileName().toString();
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> candidates = Files.newDirectoryStream(directory, glob(name + ".") + "*")) {
+            for (Path file : candidates) {
+                if (backupNumber(name, file.getFileName().toString()) > 0) {
+                    files.add(file);
+                }
+            }
+        }
+        // Higher numbers are older
+        files.sort(Comparator.comparingInt((Path file) -> backupNumber(name, file.getFileName().toString())).reversed());
+        files.addAll(findPending(logPath));
+        if (Files.exists(logPath)) {
+            files.add(logPath);
+        }
+        return files;
+    }
+
+    /**
+     * Returns the number of a backup file name, like 3 for "Logs.log.3" or "Logs.log.3.gz".
+     *
+     * @param logName The name of the log file.
+     * @param fileName The name of the candidate file.
+     * @return The backup number, or 0 if the name is not a backup of the log.
+     */
+    private static int backupNumber(String logName, String fileName) {
+        String suffix = fileName.substring(logName.length() + 1);
+        if (suffix.endsWith(GZIP_EXTENSION)) {
+            suffix = suffix.substring(0, suffix.length() - GZIP_EXTENSION.length());
+        }
+        if (suffix.isEmpty() || suffix.length() > 9) {
+            return 0;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            if (suffix.charAt(i) < '0' || suffix.charAt(i) > '9') {
+                return 0;
+            }
+        }
+        return Integer.parseInt(suffix);
+    }
+
+    /**
+     * Returns the index of a numbered backup, which keeps the uncompressed name when the backup is gzipped.
+     *
+     * @param backup A backup file, compressed or not, or the log file itself.
+     * @return The path of its index.
+     */
+    static Path indexOf(Path backup) {
+        String name = backup.getFileName().toString();
+        if (name.endsWith(GZIP_EXTENSION)) {
+            return backup.resolveSibling(name.substring(0, name.length() - GZIP_EXTENSION.length()) + LogIndex.EXTENSION);
+        }
+        return LogIndex.pathOf(backup);
+    }
+
+    /**
+     * Schedules the backup shifting, compression and pruning for all pending files of a log.
+     *
+     * @param logPath The path of the log file.
+     * @param maxBackups The maximum number of backup files to keep.
+     * @param compress True to gzip the backups.
+     * @param maxTotalBackupSize The disk budget for all backups in bytes, or 0 for no budget.
+     * @param shared True if other processes write the log as well.
+     */
+    static void schedule(Path logPath, int maxBackups, boolean compress, long maxTotalBackupSize, boolean shared) {
+        LogScheduler.background().execute(() -> {
+            ProcessLock processLock = shared ? ProcessLock.of(logPath) : null;
+            try {
+                if (processLock != null) {
+                    processLock.lock(ProcessLock.ROTATION);
+                }
+                try {
+                    rotatePending(logPath, maxBackups, compress, maxTotalBackupSize);
+                } finally {
+                    if (processLock != null) {
+                        processLock.unlock(ProcessLock.ROTATION);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to rotate log files: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Turns every pending file of a log into the newest backup, oldest pending file first.
+     *
+     * @param logPath The path of the log file.
+     * @param maxBackups The maximum number of backup files to keep.
+     * @param compress True to gzip the backups.
+     * @param maxTotalBackupSize The disk budget for all backups in bytes, or 0 for no budget.
+     * @throws IOException If a file operation fails.
+     */
+    private static void rotatePending(Path logPath, int maxBackups, boolean compress, long maxTotalBackupSize)
+            throws IOException {
+        // Rotation runs on one thread per process and under the process lock, so no compression is in progress
+        deleteStaleTemporaries(logPath);
+        for (Path pending : findPending(logPath)) {
+            String logFilePath = logPath.toString();
+
+            // Delete the oldest log file if it exists
+            deleteBackup(logFilePath, maxBackups);
+
+            // Shift all existing backup files
+            for (int i = maxBackups - 1; i > 0; i--) {
+                File backupFile = new File(logFilePath + "." + i);
+                if (backupFile.exists()) {
+                    Files.move(backupFile.toPath(), Paths.get(logFilePath + "." + (i + 1)));
+                }
+                File indexFile = new File(logFilePath + "." + i + LogIndex.EXTENSION);
+                if (indexFile.exists()) {
+                    Files.move(indexFile.toPath(), Paths.get(logFilePath + "." + (i + 1) + LogIndex.EXTENSION));
+                }
+                File compressedFile = new File(logFilePath + "." + i + GZIP_EXTENSION);
+                if (compressedFile.exists()) {
+                    Files.move(compressedFile.toPath(), Paths.get(logFilePath + "." + (i + 1) + GZIP_EXTENSION));
+                }
+            }
+
+            // Rename the pending log file and its index to .1
+            Path newest = Paths.get(logFilePath + ".1");
+            Path pendingIndex = LogIndex.pathOf(pending);
+            if (Files.exists(pendingIndex)) {
+                Files.move(pendingIndex, LogIndex.pathOf(newest));
+            }
+            Files.move(pending, newest);
+            if (compress) {
+                compress(newest);
+            }
+        }
+
+        if (maxTotalBackupSize > 0) {
+            prune(logPath.toString(), maxBackups, maxTotalBackupSize);
+        }
+    }
+
+    /**
+     * Lists the pending files of a log, oldest first.
+     *
+     * @param logPath The path of the log file.
+     * @return The pending files in rotation order.
+     * @throws IOException If the directory cannot be read.
+     */
+    private static List<Path> findPending(Path logPath) throws IOException {
+        Path directory = logPath.toAbsolutePath().getParent();
+        List<Path> pending = new ArrayList<>();
+        String prefix = logPath.getFileName() + PENDING_MARKER;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob(prefix) + "*")) {
+            for (Path file : files) {
+                // Indexes move together with their file
+                if (!file.getFileName().toString().endsWith(LogIndex.EXTENSION)) {
+                    pending.add(file);
+                }
+            }
+        }
+        // The zero-padded sequence makes name order equal rotation order
+        Collections.sort(pending);
+        return pending;
+    }
+
+    /**
+     * Deletes the temporary files of compressions that were interrupted, for example by a crash.
+     *
+     * @param logPath The path of the log file.
+     * @throws IOException If the directory cannot be read or a file cannot be deleted.
+     */
+    private static void deleteStaleTemporaries(Path logPath) throws IOException {
+        Path directory = logPath.toAbsolutePath().getParent();
+        String pattern = glob(logPath.getFileName() + ".") + "*" + glob(GZIP_EXTENSION + TEMPORARY_EXTENSION);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, pattern)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Gzips a backup file next to itself and removes the uncompressed original.
+     * If compression fails, the uncompressed backup is kept and the partial file is deleted.
+     *
+     * @param backup The backup file to compress.
+     * @throws IOException If compression fails.
+     */
+    private static void compress(Path backup) throws IOException {
+        Path target = Paths.get(backup + GZIP_EXTENSION);
+        Path temporary = Paths.get(target + TEMPORARY_EXTENSION);
+        try {
+            try (InputStream in = Files.newInputStream(backup);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+                in.transferTo(out);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        Files.delete(backup);
+    }
+
+    /**
+     * Deletes the oldest backups until all backups together fit into the disk budget.
+     *
+     * @param logFilePath The path of the log file.
+     * @param maxBackups The maximum number of backup files.
+     * @param maxTotalBackupSize The disk budget for all backups in bytes.
+     * @throws IOException If a backup cannot be deleted.
+     */
+    private static void prune(String logFilePath, int maxBackups, long maxTotalBackupSize) throws IOException {
+        long total = 0;
+        for (int i = 1; i <= maxBackups; i++) {
+            total += backupSize(logFilePath, i);
+        }
+        for (int i = maxBackups; i > 0 && total > maxTotalBackupSize; i--) {
+            total -= backupSize(logFilePath, i);
+            deleteBackup(logFilePath, i);
+        }
+    }
+
+    /**
+     * Returns the size of a numbered backup, compressed or not.
+     *
+     * @param logFilePath The path of the log file.
+     * @param index The backup number.
+     * @return The size in bytes, or 0 if the backup does not exist.
+     */
+    private static long backupSize(String logFilePath, int index) {
+        return new File(logFilePath + "." + index).length() + new File(logFilePath + "." + index + GZIP_EXTENSION).length()
+                + new File(logFilePath + "." + index + LogIndex.EXTENSION).length();
+    }
+
+    /**
+     * Deletes a numbered backup, compressed or not, and its index.
+     *
+     * @param logFilePath The path of the log file.
+     * @param index The backup number.
+     * @throws IOException If the backup cannot be deleted.
+     */
+    private static void deleteBackup(String logFilePath, int index) throws IOException {
+        Files.deleteIfExists(Paths.get(logFilePath + "." + index));
+        Files.deleteIfExists(Paths.get(logFilePath + "." + index + GZIP_EXTENSION));
+        Files.deleteIfExists(Paths.get(logFilePath + "." + index + LogIndex.EXTENSION));
+    }
+
+    /**
+     * Escapes the glob metacharacters in a file name.
+     *
+     * @param name The literal file name.
+     * @return A glob pattern matching exactly this name.
+     */
+    static String glob(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ("*?[]{}\\".indexOf(c) >= 0) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,87 @@
+package holyjar;
+
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LogScheduler provides the daemon threads that run logging housekeeping: one for short periodic tasks,
+ * such as time-based flushes of buffered log files, and one for slow background work such as backup rotation,
+ * so a long compression never delays a flush.
+ */
+final class LogScheduler {
+
+    // Lock guarding the lazy creation of the executor
+    private static final ReentrantLock LOCK = new ReentrantLock();
+
+    // Created on first use so that applications that never need housekeeping do not start a thread
+    private static volatile ScheduledExecutorService executor;
+    private static volatile ExecutorService backgroundExecutor;
+
+    /**
+     * Private constructor to prevent instantiation of this utility class.
+     */
+    private LogScheduler() {
+        // This constructor is intentionally empty to prevent instantiation
+    }
+
+    /**
+     * Returns the shared housekeeping executor, starting its daemon thread on first use.
+     *
+     * @return The shared scheduled executor.
+     */
+    static ScheduledExecutorService get() {
+        ScheduledExecutorService result = executor;
+        if (result == null) {
+            LOCK.lock();
+            try {
+                result = executor;
+                if (result == null) {
+                    result = Executors.newSingleThreadScheduledExecutor(task -> daemon(task, "holyjar-log-scheduler"));
+                    executor = result;
+                }
+            } finally {
+                LOCK.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the executor for slow background work, starting its daemon thread on first use.
+     * Tasks run one at a time in submission order.
+     *
+     * @return The shared background executor.
+     */
+    static ExecutorService background() {
+        ExecutorService result = backgroundExecutor;
+        if (result == null) {
+            LOCK.lock();
+            try {
+                result = backgroundExecutor;
+                if (result == null) {
+                    result = Executors.newSingleThreadExecutor(task -> daemon(task, "holyjar-log-background"));
+                    backgroundExecutor = result;
+                }
+            } finally {
+                LOCK.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a daemon thread so that housekeeping never keeps the JVM alive.
+     *
+     * @param task The task the thread runs.
+     * @param name The thread name.
+     * @return The new, unstarted thread.
+     */
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
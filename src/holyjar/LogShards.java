@@ -0,0 +1,134 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * LogShards spreads the entries of one log over several files, so writing threads do not serialize on the
+ * lock of a single file. Every thread writes to the shard picked by its thread id; each shard is a complete
+ * {@link LogFile} with its own lock, buffers, index, rotation and backups, named like "Logs-shard0.log" next
+ * to "Logs.log".
+ * <p>
+ * Entries in shard files carry a sequence number from one counter shared by all shards, so
+ * {@link LogMerger} can restore the order in which the entries were logged.
+ */
+final class LogShards {
+
+    // Sequence for entries of all sharded logs, seeded from the clock so numbers also increase across restarts
+    private static final AtomicLong SEQUENCE = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final LogFile[] files;
+
+    /**
+     * Creates the shards of a log, with the settings of its log file.
+     *
+     * @param logFile The log file of the log.
+     * @param count The number of shards.
+     */
+    LogShards(LogFile logFile, int count) {
+        this.files = new LogFile[count];
+        Path logPath = logFile.getPath();
+        for (int i = 0; i < count; i++) {
+            files[i] = logFile.newShard(pathOf(logPath, i));
+        }
+    }
+
+    /**
+     * Returns the next sequence number.
+     *
+     * @return A number larger than every number returned before.
+     */
+    static long nextSequence() {
+        return SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * Returns the path of a shard file, like "Logs-shard3.log" for "Logs.log".
+     *
+     * @param logPath The path of the log file.
+     * @param shard The number of the shard.
+     * @return The path of the shard file.
+     */
+    static Path pathOf(Path logPath, int shard) {
+        String name = logPath.getFileName().toString();
+        String shardName = name.endsWith(".log")
+                ? name.substring(0, name.length() - 4) + "-shard" + shard + ".log"
+                : name + "-shard" + shard;
+        return logPath.resolveSibling(shardName);
+    }
+
+    /**
+     * Finds the shard files of a log on disk, including those of earlier runs with more shards.
+     * Backups of the shards are not listed; they belong to their shard.
+     *
+     * @param logPath The path of the log file.
+     * @return The shard files, in no particular order.
+     * @throws IOException If the directory cannot be read.
+     */
+    static List<Path> find(Path logPath) throws IOException {
+        Path directory = logPath.toAbsolutePath().getParent();
+        String name = logPath.getFileName().toString();
+        String prefix = (name.endsWith(".log") ? name.substring(0, name.length() - 4) : name) + "-shard";
+        String suffix = name.endsWith(".log") ? ".log" : "";
+        List<Path> shards = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return shards;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LogRotator.glob(prefix) + "*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (!fileName.endsWith(suffix) || fileName.length() <= prefix.length() + suffix.length()) {
+                    continue;
+                }
+                String number = fileName.substring(prefix.length(), fileName.length() - suffix.length());
+                if (number.chars().allMatch(c -> c >= '0' && c <= '9')) {
+                    shards.add(file);
+                }
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the shard the current thread writes to.
+     *
+     * @return The shard file writer.
+     */
+    LogFile current() {
+        return files[(int) Math.floorMod(Thread.currentThread().getId(), (long) files.length)];
+    }
+
+    /**
+     * Returns the number of shards.
+     *
+     * @return The shard count.
+     */
+    int size() {
+        return files.length;
+    }
+
+    /**
+     * Applies an operation, such as a setting, to every shard.
+     *
+     * @param operation The operation.
+     */
+    void forEach(Consumer<LogFile> operation) {
+        for (LogFile file : files) {
+            operation.accept(file);
+        }
+    }
+
+    /**
+     * Writes out the entries buffered by all shards and closes their files for good.
+     */
+    void release() {
+        forEach(LogFile::release);
+    }
+}
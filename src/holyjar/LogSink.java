@@ -0,0 +1,41 @@
+package holyjar;
+
+
+import java.io.IOException;
+
+/**
+ * LogSink is an output for log entries, such as a file, the console or an in-memory buffer.
+ * Sinks are attached to a logger with {@link NamedLogger#addSink(LogSink, Level)}. Each attached sink is fed
+ * from its own buffer by its own thread, so a slow or failing sink never holds back the logging threads
+ * or the other sinks. A sink is only ever called from that one thread and does not need to be thread-safe.
+ */
+public interface LogSink {
+
+    /**
+     * Writes one log entry.
+     *
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The level label of the entry, for example "WARNING".
+     * @param message The message of the entry.
+     * @throws IOException If the entry cannot be written; the failure is counted and the sink stays attached.
+     */
+    void write(long timestamp, String level, String message) throws IOException;
+
+    /**
+     * Flushes buffered output. Called after every batch of entries.
+     *
+     * @throws IOException If flushing fails.
+     */
+    default void flush() throws IOException {
+        // Nothing to flush by default
+    }
+
+    /**
+     * Releases the resources of the sink. Called once when the sink is removed from its logger.
+     *
+     * @throws IOException If closing fails.
+     */
+    default void close() throws IOException {
+        // Nothing to release by default
+    }
+}
@@ -1,51 +1,157 @@
 package holyjar;
 
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.locks.ReentrantLock;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Logger provides thread-safe logging functionality with configurable log levels and file paths.
  * This utility class allows for centralized logging across the application with various severity levels.
+ * The static methods write to the default logger; {@link #get(String)} returns independent named loggers.
  */
 public class Logger {
     
-    // Lock object for thread safety using ReentrantLock instead of synchronized block
-    private static final ReentrantLock LOCK = new ReentrantLock();
-    
     // Default log file path
-    private static String logFilePath = "logs/Logs.log";
-    
-    // Date-time formatter for consistent timestamp formatting
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String DEFAULT_LOG_FILE_PATH = "logs/Logs.log";
     
-    // Log level constants for standardized logging
+    // Log level labels for standardized logging; see Level for the typed equivalents
     public static final String INFO = "INFO";
     public static final String WARNING = "WARNING";
     public static final String ERROR = "ERROR";
     public static final String DEBUG = "DEBUG";
     public static final String FATAL = "FATAL";
     
-    // Maximum log file size in bytes before rotation (default: 10MB)
-    private static long maxLogSize = 10 * 1024 * 1024;
+    // Directory and extension of the files of named loggers, for example logs/audit.log
+    private static final String NAMED_LOG_DIRECTORY = "logs/";
+    private static final String NAMED_LOG_EXTENSION = ".log";
+    
+    // Registered named loggers by name
+    private static final ConcurrentHashMap<String, NamedLogger> LOGGERS = new ConcurrentHashMap<>();
+    
+    // Logger behind the static methods of this class
+    private static final NamedLogger DEFAULT = new NamedLogger("", DEFAULT_LOG_FILE_PATH);
+    
+    /**
+     * Determines when log entries are written to the log file, trading a bounded loss window for throughput.
+     */
+    public enum Durability {
+        /** Every entry is written to the log file before the log call returns. */
+        EVERY_ENTRY,
+        /** Entries are written every N entries or M milliseconds; ERROR and FATAL entries are written immediately. */
+        BATCHED,
+        /** Like BATCHED, but WARNING and above are written immediately and forced to the storage device. */
+        FORCE_ON_WARNING
+    }
+    
+    /**
+     * Determines how log entries reach the log file.
+     */
+    public enum OutputMode {
+        /** Entries are written with write calls on a file channel. */
+        STREAM,
+        /**
+         * Entries are copied into a memory-mapped window over the log file, so a write becomes a memory copy.
+         * Rotation happens when a window is full, so files may exceed the maximum size by up to one window (4MB).
+         */
+        MAPPED
+    }
+    
+    /**
+     * Determines how log entries are stored in the log file.
+     */
+    public enum FileFormat {
+        /** Every entry is a line of text, "yyyy-MM-dd HH:mm:ss [LEVEL] message". */
+        TEXT,
+        /**
+         * Every entry is a compact binary record: the time, a level byte, the id of its message template and the
+         * raw arguments. Templates are stored once per file, and messages are only rendered when the file is read,
+         * by {@link NamedLogger#query} or the {@link LogDecoder} command-line tool.
+         */
+        BINARY,
+        /**
+         * Every entry is a line holding one JSON object,
+         * {"time":"yyyy-MM-dd HH:mm:ss","level":"LEVEL","message":"..."}, with the fields of a structured
+         * {@link LogEvent} as further typed members.
+         */
+        JSON
+    }
+    
+    /**
+     * Determines what happens to new log entries while the asynchronous ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** The logging thread waits until the writer thread has made room. */
+        BLOCK,
+        /** DEBUG entries are shed first, then INFO and WARNING; ERROR and FATAL entries wait for room. */
+        DROP_LOWEST_LEVELS,
+        /** Any entry that does not fit is discarded and counted. */
+        DROP_AND_COUNT
+    }
+    
+    /**
+     * Determines which log entries share a rate limit.
+     */
+    public enum RateLimitKey {
+        /** Entries with the same message, the same template or the same message supplier. */
+        MESSAGE,
+        /** Entries logged from the same source line; costs a stack walk per entry. */
+        CALL_SITE
+    }
     
-    // Maximum number of backup log files to keep
-    private static int maxBackupFiles = 5;
+    /**
+     * A running subscription to new log entries, created by {@link NamedLogger#tail(Level, Consumer)}
+     * or {@link #follow(String, Level, Consumer)}.
+     */
+    public interface Subscription extends AutoCloseable {
+        
+        /**
+         * Stops delivering entries.
+         */
+        void cancel();
+        
+        /**
+         * Checks whether entries are still delivered.
+         * 
+         * @return False after cancellation.
+         */
+        boolean isActive();
+        
+        /**
+         * Cancels the subscription.
+         */
+        @Override
+        default void close() {
+            cancel();
+        }
+    }
     
-    // Flag to enable/disable console output in addition to file logging
-    private static boolean logToConsole = false;
+    /**
+     * Returns the named logger with the given name, creating it on first use.
+     * A new named logger writes to logs/&lt;name&gt;.log and starts with default settings.
+     * 
+     * @param name The name of the logger, for example "audit".
+     * @return The logger registered under this name.
+     */
+    public static NamedLogger get(String name) {
+        if (name == null || name.isBlank()) {
+            throw new IllegalArgumentException("Logger name must not be empty");
+        }
+        return LOGGERS.computeIfAbsent(name, key -> new NamedLogger(key, NAMED_LOG_DIRECTORY + key + NAMED_LOG_EXTENSION));
+    }
     
     /**
-     * Private constructor to prevent instantiation of this utility class.
+     * Returns the default logger used by the static methods of this class.
+     * 
+     * @return The default logger.
      */
+    public static NamedLogger getDefault() {
+        return DEFAULT;
+    }
     
     /**
      * Sets the log file path.
@@ -53,12 +159,7 @@ public class Logger {
      * @param path The new path for the log file.
      */
     public static void setLogFilePath(String path) {
-        LOCK.lock();
-        try {
-            logFilePath = path;
-        } finally {
-            LOCK.unlock();
-        }
+        DEFAULT.setLogFilePath(path);
     }
     
     /**
@@ -67,7 +168,7 @@ public class Logger {
      * @param sizeInBytes The maximum size in bytes.
      */
     public static void setMaxLogSize(long sizeInBytes) {
-        maxLogSize = sizeInBytes;
+        DEFAULT.setMaxLogSize(sizeInBytes);
     }
     
     /**
@@ -76,16 +177,288 @@ public class Logger {
      * @param count The maximum number of backup files.
      */
     public static void setMaxBackupFiles(int count) {
-        maxBackupFiles = count > 0 ? count : 1;
+        DEFAULT.setMaxBackupFiles(count);
+    }
+    
+    /**
+     * Enables or disables gzip compression of rotated backups (for example Logs.log.1.gz).
+     * Compression runs on a background thread and never delays logging.
+     * 
+     * @param compress True to compress backups.
+     */
+    public static void setCompressBackups(boolean compress) {
+        DEFAULT.setCompressBackups(compress);
+    }
+    
+    /**
+     * Sets a disk budget for all backup files together. When the backups exceed it
+     * the oldest ones are deleted first.
+     * 
+     * @param sizeInBytes The budget in bytes, or 0 to only limit the number of backups.
+     */
+    public static void setMaxTotalBackupSize(long sizeInBytes) {
+        DEFAULT.setMaxTotalBackupSize(sizeInBytes);
     }
     
     /**
      * Enables or disables console logging in addition to file logging.
+     * Console output is written on its own thread, so a slow terminal never delays logging.
      * 
      * @param enable True to enable console logging, false to disable.
      */
     public static void enableConsoleLogging(boolean enable) {
-        logToConsole = enable;
+        DEFAULT.enableConsoleLogging(enable);
+    }
+    
+    /**
+     * Sets how log entries reach the log file. The current file is closed and reopened in the new mode.
+     * 
+     * @param mode The output mode.
+     */
+    public static void setOutputMode(OutputMode mode) {
+        DEFAULT.setOutputMode(mode);
+    }
+    
+    /**
+     * Sets how log entries are stored in the log file. The current file is closed; a file holding entries
+     * in another format is rotated to a backup first, so every file has a single format.
+     * 
+     * @param format The file format.
+     */
+    public static void setFileFormat(FileFormat format) {
+        DEFAULT.setFileFormat(format);
+    }
+    
+    /**
+     * Enables or disables multi-process mode for the default log file, for files that several processes write
+     * at the same time. Batches of entries are appended under a file lock and only one process rotates.
+     * 
+     * @param enabled True if other processes write the same log file.
+     */
+    public static void setMultiProcess(boolean enabled) {
+        DEFAULT.setMultiProcess(enabled);
+    }
+    
+    /**
+     * Spreads the default log over several shard files, one per group of threads, so threads logging at the same
+     * time do not wait for each other's writes. Entries carry a sequence number across all shards, so queries and
+     * {@link #consolidateShards(String)} restore the order in which they were logged.
+     * 
+     * @param count The number of shards.
+     */
+    public static void enableSharding(int count) {
+        DEFAULT.enableSharding(count);
+    }
+    
+    /**
+     * Writes the default log to a single file again.
+     */
+    public static void disableSharding() {
+        DEFAULT.disableSharding();
+    }
+    
+    /**
+     * Merges the shard files of the default log into one plain log file, in logging order, on a background thread.
+     * 
+     * @param targetPath The path of the consolidated file.
+     * @return A future completing with the number of entries written.
+     */
+    public static CompletableFuture<Long> consolidateShards(String targetPath) {
+        return DEFAULT.consolidateShards(targetPath);
+    }
+    
+    /**
+     * Sets the minimum level of entries that are logged. Entries below it are discarded
+     * before their message is built, formatted or written.
+     * 
+     * @param level The least severe level that is still logged.
+     */
+    public static void setLevel(Level level) {
+        DEFAULT.setLevel(level);
+    }
+    
+    /**
+     * Returns the minimum level of entries that are logged.
+     * 
+     * @return The least severe level that is still logged.
+     */
+    public static Level getLevel() {
+        return DEFAULT.getLevel();
+    }
+    
+    /**
+     * Checks whether entries of the given level are logged. Use this to guard expensive message construction.
+     * 
+     * @param level The level to check.
+     * @return True if entries of this level pass the level threshold.
+     */
+    public static boolean isEnabled(Level level) {
+        return DEFAULT.isEnabled(level);
+    }
+    
+    /**
+     * Limits how often similar entries are logged, keyed by message. Suppressed entries are
+     * summarized every 10 seconds in one entry per key. FATAL entries are never suppressed.
+     * 
+     * @param entriesPerSecond The sustained number of entries per second logged for each key.
+     * @param burst The number of entries of a key logged at once after it was quiet.
+     */
+    public static void setRateLimit(double entriesPerSecond, int burst) {
+        DEFAULT.setRateLimit(entriesPerSecond, burst);
+    }
+    
+    /**
+     * Limits how often similar entries are logged. Each key has its own lock-free token bucket;
+     * suppressed entries are counted and summarized periodically in one entry per key.
+     * FATAL entries are never suppressed.
+     * 
+     * @param entriesPerSecond The sustained number of entries per second logged for each key.
+     * @param burst The number of entries of a key logged at once after it was quiet.
+     * @param key What identifies entries as similar.
+     * @param summaryIntervalMillis The time in milliseconds between two summaries.
+     */
+    public static void setRateLimit(double entriesPerSecond, int burst, RateLimitKey key, long summaryIntervalMillis) {
+        DEFAULT.setRateLimit(entriesPerSecond, burst, key, summaryIntervalMillis);
+    }
+    
+    /**
+     * Removes the rate limit, writing the summary of the entries suppressed so far.
+     */
+    public static void disableRateLimit() {
+        DEFAULT.disableRateLimit();
+    }
+    
+    /**
+     * Logs only a random fraction of the entries of a level. FATAL entries are never sampled.
+     * 
+     * @param level The level to sample.
+     * @param rate The fraction of entries kept, from 0 (none) to 1 (all, the default).
+     */
+    public static void setSampleRate(Level level, double rate) {
+        DEFAULT.setSampleRate(level, rate);
+    }
+    
+    /**
+     * Selects whether repeated stack traces are written in full. When enabled (the default), later exceptions
+     * with the same classes and frames are written only as a reference to the first occurrence.
+     * 
+     * @param enabled True to deduplicate stack traces, false to write every trace in full.
+     */
+    public static void setDeduplicateExceptions(boolean enabled) {
+        DEFAULT.setDeduplicateExceptions(enabled);
+    }
+    
+    /**
+     * Enables the flight recorder: the most recent entries of every level, including those below the level
+     * threshold, are kept in an off-heap ring buffer and appended to logs/Logs-flight.log when a FATAL entry
+     * is logged, when a thread dies of an uncaught exception, or on {@link #dumpFlightRecorder()}.
+     * 
+     * @param capacityBytes The size of the ring buffer; every 256 bytes hold one entry.
+     */
+    public static void enableFlightRecorder(int capacityBytes) {
+        DEFAULT.enableFlightRecorder(capacityBytes);
+    }
+    
+    /**
+     * Disables the flight recorder and releases its buffer.
+     */
+    public static void disableFlightRecorder() {
+        DEFAULT.disableFlightRecorder();
+    }
+    
+    /**
+     * Appends the entries held by the flight recorder to its dump file.
+     */
+    public static void dumpFlightRecorder() {
+        DEFAULT.dumpFlightRecorder();
+    }
+    
+    /**
+     * Sets the durability policy of the log file, using the default batching limits.
+     * 
+     * @param durability When log entries are written to the log file.
+     */
+    public static void setDurability(Durability durability) {
+        DEFAULT.setDurability(durability);
+    }
+    
+    /**
+     * Sets the durability policy of the log file. Under the batched policies buffered entries
+     * are written once maxEntries are pending or maxDelayMillis have passed, whichever comes first.
+     * Entries logged while a write is in progress are merged into the next write.
+     * 
+     * @param durability When log entries are written to the log file.
+     * @param maxEntries The number of buffered entries that triggers a write.
+     * @param maxDelayMillis The longest time in milliseconds an entry stays buffered.
+     */
+    public static void setDurability(Durability durability, int maxEntries, long maxDelayMillis) {
+        DEFAULT.setDurability(durability, maxEntries, maxDelayMillis);
+    }
+    
+    /**
+     * Enables asynchronous logging. Log calls only copy the entry into a preallocated ring buffer
+     * and a dedicated writer thread performs the formatting and the file writes.
+     * Buffered entries are drained when the JVM shuts down.
+     * If asynchronous logging is already enabled, the previous writer is replaced and drained before returning;
+     * entries it still holds may then be written after entries logged through the new one.
+     * 
+     * @param capacity The number of entries the ring buffer can hold.
+     * @param policy What to do with new entries while the ring buffer is full.
+     */
+    public static void enableAsyncLogging(int capacity, OverflowPolicy policy) {
+        DEFAULT.enableAsyncLogging(capacity, policy);
+    }
+    
+    /**
+     * Disables asynchronous logging, writing out all buffered entries before returning.
+     */
+    public static void disableAsyncLogging() {
+        DEFAULT.disableAsyncLogging();
+    }
+    
+    /**
+     * Blocks until every entry logged before this call has been written to the log file,
+     * including entries still queued for the asynchronous writer or buffered by a batched durability policy.
+     */
+    public static void flush() {
+        DEFAULT.flush();
+    }
+    
+    /**
+     * Returns the number of entries discarded because the asynchronous ring buffer was full.
+     * 
+     * @return The dropped entry count, or 0 in synchronous mode.
+     */
+    public static long getDroppedCount() {
+        return DEFAULT.getDroppedCount();
+    }
+    
+    /**
+     * Returns the metrics of the default logger.
+     * 
+     * @return The metrics, updated live.
+     */
+    public static LoggerMetrics getMetrics() {
+        return DEFAULT.getMetrics();
+    }
+    
+    /**
+     * Registers the metrics of the default logger with the platform MBean server,
+     * under the name "holyjar:type=Logger,name=default".
+     */
+    public static void registerMBean() {
+        DEFAULT.registerMBean();
+    }
+    
+    /**
+     * Starts a structured log entry with typed key-value fields, finished with {@link LogEvent#log(String)}.
+     * For a disabled level a shared event is returned that ignores its fields.
+     * 
+     * @param level The level of the entry.
+     * @return The event to add fields to.
+     */
+    public static LogEvent at(Level level) {
+        return DEFAULT.at(level);
     }
     
     /**
@@ -94,7 +467,47 @@ public class Logger {
      * @param message The message to log.
      */
     public static void info(String message) {
-        log(message, INFO);
+        DEFAULT.info(message);
+    }
+    
+    /**
+     * Logs a lazily built message with INFO level. The supplier is only called if INFO is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public static void info(Supplier<String> messageSupplier) {
+        DEFAULT.info(messageSupplier);
+    }
+    
+    /**
+     * Logs a parameterized message with INFO level. The "{}" placeholder is only replaced if INFO is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public static void info(String format, Object arg) {
+        DEFAULT.info(format, arg);
+    }
+    
+    /**
+     * Logs a parameterized message with INFO level. The "{}" placeholders are only replaced if INFO is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public static void info(String format, Object arg1, Object arg2) {
+        DEFAULT.info(format, arg1, arg2);
+    }
+    
+    /**
+     * Logs a parameterized message with INFO level. The "{}" placeholders are only replaced if INFO is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public static void info(String format, Object... args) {
+        DEFAULT.info(format, args);
     }
     
     /**
@@ -103,7 +516,47 @@ public class Logger {
      * @param message The message to log.
      */
     public static void warning(String message) {
-        log(message, WARNING);
+        DEFAULT.warning(message);
+    }
+    
+    /**
+     * Logs a lazily built message with WARNING level. The supplier is only called if WARNING is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public static void warning(Supplier<String> messageSupplier) {
+        DEFAULT.warning(messageSupplier);
+    }
+    
+    /**
+     * Logs a parameterized message with WARNING level. The "{}" placeholder is only replaced if WARNING is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public static void warning(String format, Object arg) {
+        DEFAULT.warning(format, arg);
+    }
+    
+    /**
+     * Logs a parameterized message with WARNING level. The "{}" placeholders are only replaced if WARNING is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public static void warning(String format, Object arg1, Object arg2) {
+        DEFAULT.warning(format, arg1, arg2);
+    }
+    
+    /**
+     * Logs a parameterized message with WARNING level. The "{}" placeholders are only replaced if WARNING is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public static void warning(String format, Object... args) {
+        DEFAULT.warning(format, args);
     }
     
     /**
@@ -112,7 +565,7 @@ public class Logger {
      * @param message The message to log.
      */
     public static void error(String message) {
-        log(message, ERROR);
+        DEFAULT.error(message);
     }
     
     /**
@@ -122,14 +575,47 @@ public class Logger {
      * @param e The exception to log.
      */
     public static void error(String message, Exception e) {
-        StringBuilder sb = new StringBuilder(message);
-        sb.append("\nException: ").append(e.getClass().getName());
-        sb.append("\nMessage: ").append(e.getMessage());
-        sb.append("\nStackTrace: ");
-        for (StackTraceElement element : e.getStackTrace()) {
-            sb.append("\n    ").append(element.toString());
-        }
-        log(sb.toString(), ERROR);
+        DEFAULT.error(message, e);
+    }
+    
+    /**
+     * Logs a lazily built message with ERROR level. The supplier is only called if ERROR is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public static void error(Supplier<String> messageSupplier) {
+        DEFAULT.error(messageSupplier);
+    }
+    
+    /**
+     * Logs a parameterized message with ERROR level. The "{}" placeholder is only replaced if ERROR is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public static void error(String format, Object arg) {
+        DEFAULT.error(format, arg);
+    }
+    
+    /**
+     * Logs a parameterized message with ERROR level. The "{}" placeholders are only replaced if ERROR is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public static void error(String format, Object arg1, Object arg2) {
+        DEFAULT.error(format, arg1, arg2);
+    }
+    
+    /**
+     * Logs a parameterized message with ERROR level. The "{}" placeholders are only replaced if ERROR is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public static void error(String format, Object... args) {
+        DEFAULT.error(format, args);
     }
     
     /**
@@ -138,7 +624,47 @@ public class Logger {
      * @param message The message to log.
      */
     public static void debug(String message) {
-        log(message, DEBUG);
+        DEFAULT.debug(message);
+    }
+    
+    /**
+     * Logs a lazily built message with DEBUG level. The supplier is only called if DEBUG is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public static void debug(Supplier<String> messageSupplier) {
+        DEFAULT.debug(messageSupplier);
+    }
+    
+    /**
+     * Logs a parameterized message with DEBUG level. The "{}" placeholder is only replaced if DEBUG is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public static void debug(String format, Object arg) {
+        DEFAULT.debug(format, arg);
+    }
+    
+    /**
+     * Logs a parameterized message with DEBUG level. The "{}" placeholders are only replaced if DEBUG is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public static void debug(String format, Object arg1, Object arg2) {
+        DEFAULT.debug(format, arg1, arg2);
+    }
+    
+    /**
+     * Logs a parameterized message with DEBUG level. The "{}" placeholders are only replaced if DEBUG is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public static void debug(String format, Object... args) {
+        DEFAULT.debug(format, args);
     }
     
     /**
@@ -147,7 +673,47 @@ public class Logger {
      * @param message The message to log.
      */
     public static void fatal(String message) {
-        log(message, FATAL);
+        DEFAULT.fatal(message);
+    }
+    
+    /**
+     * Logs a lazily built message with FATAL level. The supplier is only called if FATAL is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public static void fatal(Supplier<String> messageSupplier) {
+        DEFAULT.fatal(messageSupplier);
+    }
+    
+    /**
+     * Logs a parameterized message with FATAL level. The "{}" placeholder is only replaced if FATAL is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public static void fatal(String format, Object arg) {
+        DEFAULT.fatal(format, arg);
+    }
+    
+    /**
+     * Logs a parameterized message with FATAL level. The "{}" placeholders are only replaced if FATAL is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public static void fatal(String format, Object arg1, Object arg2) {
+        DEFAULT.fatal(format, arg1, arg2);
+    }
+    
+    /**
+     * Logs a parameterized message with FATAL level. The "{}" placeholders are only replaced if FATAL is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public static void fatal(String format, Object... args) {
+        DEFAULT.fatal(format, args);
     }
     
     /**
@@ -157,84 +723,48 @@ public class Logger {
      * @param logLevel The severity level of the log entry.
      */
     public static void log(String message, String logLevel) {
-        if (message == null) {
-            return;
-        }
-        
-        // Format the log entry with the current date and time, log level, and message
-        String timestamp = LocalDateTime.now().format(DATE_FORMATTER);
-        String logEntry = String.format("%s [%s] %s", timestamp, logLevel, message);
-        
-        // Print to console if enabled
-        if (logToConsole) {
-            System.out.println(logEntry);
-        }
-        
-        // Write to log file
-        writeToLogFile(logEntry);
-    }
-    
-    /**
-     * Writes a log entry to the log file with thread safety and file rotation.
-     * 
-     * @param logEntry The formatted log entry to write.
-     */
-    private static void writeToLogFile(String logEntry) {
-        LOCK.lock();
-        try {
-            // Ensure the directory exists
-            Path directoryPath = Paths.get(logFilePath).getParent();
-            if (directoryPath != null) {
-                Files.createDirectories(directoryPath);
-            }
-            
-            // Check if log rotation is needed
-            File logFile = new File(logFilePath);
-            if (logFile.exists() && logFile.length() > maxLogSize) {
-                rotateLogFiles();
-            }
-            
-            // Write the log entry to the log file, appending to the file
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFilePath, true))) {
-                writer.write(logEntry);
-                writer.newLine();
-                writer.flush();
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to write log: " + e.getMessage());
-        } finally {
-            LOCK.unlock();
-        }
+        DEFAULT.log(message, logLevel);
+    }
+    
+    /**
+     * Logs a message with a specified log level.
+     * 
+     * @param message The message to log.
+     * @param level The severity level of the log entry.
+     */
+    public static void log(String message, Level level) {
+        DEFAULT.log(message, level);
+    }
+    
+    /**
+     * Logs a lazily built message with a specified log level. The supplier is only called if the level is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     * @param level The severity level of the log entry.
+     */
+    public static void log(Supplier<String> messageSupplier, Level level) {
+        DEFAULT.log(messageSupplier, level);
     }
     
     /**
-     * Rotates log files when the current log file exceeds the maximum size.
-     * This method renames existing log files and creates a new empty log file.
-     */
-    private static void rotateLogFiles() {
-        try {
-            // Delete the oldest log file if it exists
-            File oldestBackup = new File(logFilePath + "." + maxBackupFiles);
-            if (oldestBackup.exists()) {
-                Files.delete(oldestBackup.toPath());
-            }
-            
-            // Shift all existing backup files
-            for (int i = maxBackupFiles - 1; i > 0; i--) {
-                File backupFile = new File(logFilePath + "." + i);
-                if (backupFile.exists()) {
-                    Files.move(backupFile.toPath(), Paths.get(logFilePath + "." + (i + 1)));
-                }
-            }
-            
-            // Rename the current log file to .1
-            File currentFile = new File(logFilePath);
-            if (currentFile.exists()) {
-                Files.move(currentFile.toPath(), Paths.get(logFilePath + ".1"));
-            }
-            
-        } catch (IOException e) {
-            System.err.println("Failed to rotate log files: " + e.getMessage());
+     * Returns the rank of a log level, from 0 for DEBUG up to 4 for FATAL.
+     * Unknown levels rank like INFO.
+     * 
+     * @param logLevel The log level.
+     * @return The severity rank of the level.
+     */
+    static int severity(String logLevel) {
+        switch (logLevel) {
+            case DEBUG:
+                return 0;
+            case WARNING:
+                return 2;
+            case ERROR:
+                return 3;
+            case FATAL:
+                return 4;
+            default:
+                return 1;
         }
     }
     
@@ -242,16 +772,56 @@ public class Logger {
      * Clears the log file, removing all existing log entries.
      */
     public static void clearLog() {
-        LOCK.lock();
-        try {
-            // Create a new empty log file, overwriting the existing one
-            try (FileWriter writer = new FileWriter(logFilePath, false)) {
-                writer.write(""); // Write empty string
-            }
-        } catch (IOException e) {
-            System.err.println("Failed to clear log file: " + e.getMessage());
-        } finally {
-            LOCK.unlock();
-        }
+        DEFAULT.clearLog();
+    }
+    
+    /**
+     * Reads back the entries of the log file and its backups that lie in a time range and are at least as severe
+     * as the given level, oldest first, using the sparse index to skip blocks without matching entries.
+     * The stream holds the files open and has to be closed.
+     * 
+     * @param from The start of the range, or null for no start.
+     * @param to The end of the range, inclusive, or null for no end.
+     * @param minLevel The lowest level returned.
+     * @return The matching entries.
+     */
+    public static Stream<LogEntry> query(Instant from, Instant to, Level minLevel) {
+        return DEFAULT.query(from, to, minLevel);
+    }
+    
+    /**
+     * Enables or disables the sparse index kept next to the log file and its backups. Enabled by default.
+     * 
+     * @param enabled True to keep the index.
+     */
+    public static void setIndexing(boolean enabled) {
+        DEFAULT.setIndexing(enabled);
+    }
+    
+    /**
+     * Delivers every new entry of the default logger at or above a level to a listener as it is logged,
+     * without reading the log file. The listener runs on its own thread.
+     * 
+     * @param level The lowest level delivered.
+     * @param listener The listener.
+     * @return The subscription, to be cancelled when the entries are no longer needed.
+     */
+    public static Subscription tail(Level level, Consumer<LogEntry> listener) {
+        return DEFAULT.tail(level, listener);
+    }
+    
+    /**
+     * Follows a log file, such as one written by another process, and delivers every entry appended to it
+     * at or above a level, starting at its current end. Only the appended bytes are read, whenever the file
+     * changes. Following continues across rotations and truncations of the file. The file has to be written
+     * in {@link FileFormat#TEXT} or {@link FileFormat#JSON} format. The listener runs on the follower thread.
+     * 
+     * @param path The path of the log file; it does not need to exist yet.
+     * @param level The lowest level delivered.
+     * @param listener The listener.
+     * @return The subscription, to be cancelled when the entries are no longer needed.
+     */
+    public static Subscription follow(String path, Level level, Consumer<LogEntry> listener) {
+        return new LogFollower(Paths.get(path), level, listener);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,319 @@
+package holyjar;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * LoggerMetrics collects what a logger costs at runtime: entries and bytes per level, write and flush latencies,
+ * lock contention, rotations, and dropped or failed writes. Counters are lock-free and allocation-free to update.
+ * Obtain it with {@link NamedLogger#getMetrics()}, or over JMX after {@link NamedLogger#registerMBean()}.
+ */
+public final class LoggerMetrics implements LoggerMetricsMXBean {
+
+    // Cached level values, indexed by severity rank
+    private static final Level[] LEVELS = Level.values();
+
+    private final LongAdder[] entries = newAdders();
+    private final LongAdder[] bytes = newAdders();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final LongAdder lockContentions = new LongAdder();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder rotationNanos = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+
+    // Reports the entries dropped by the buffers in front of the file, set by the owning logger
+    private volatile LongSupplier droppedSource = () -> 0;
+
+    /**
+     * Creates an empty metrics collector.
+     */
+    LoggerMetrics() {
+        // Counters start at zero
+    }
+
+    @Override
+    public Map<String, Long> getEntriesByLevel() {
+        return byLevel(entries);
+    }
+
+    @Override
+    public Map<String, Long> getBytesByLevel() {
+        return byLevel(bytes);
+    }
+
+    @Override
+    public long getEntryCount() {
+        return sum(entries);
+    }
+
+    @Override
+    public long getByteCount() {
+        return sum(bytes);
+    }
+
+    /**
+     * Returns the number of entries written at the given level.
+     *
+     * @param level The level.
+     * @return The entry count.
+     */
+    public long getEntryCount(Level level) {
+        return entries[level.ordinal()].sum();
+    }
+
+    /**
+     * Returns the number of encoded bytes written at the given level.
+     *
+     * @param level The level.
+     * @return The byte count.
+     */
+    public long getByteCount(Level level) {
+        return bytes[level.ordinal()].sum();
+    }
+
+    /**
+     * Returns a percentile of the time log calls spend writing their entry.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the percentile in nanoseconds.
+     */
+    public long getWriteLatencyPercentileNanos(double percentile) {
+        return writeLatency.getPercentileNanos(percentile);
+    }
+
+    /**
+     * Returns a percentile of the flush durations.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     * @return The upper bound of the percentile in nanoseconds.
+     */
+    public long getFlushLatencyPercentileNanos(double percentile) {
+        return flushLatency.getPercentileNanos(percentile);
+    }
+
+    @Override
+    public long getWriteLatencyMeanNanos() {
+        return writeLatency.getMeanNanos();
+    }
+
+    @Override
+    public long getWriteLatencyP99Nanos() {
+        return writeLatency.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getWriteLatencyMaxNanos() {
+        return writeLatency.getMaxNanos();
+    }
+
+    @Override
+    public long getFlushCount() {
+        return flushLatency.getCount();
+    }
+
+    @Override
+    public long getFlushLatencyMeanNanos() {
+        return flushLatency.getMeanNanos();
+    }
+
+    @Override
+    public long getFlushLatencyP99Nanos() {
+        return flushLatency.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getFlushLatencyMaxNanos() {
+        return flushLatency.getMaxNanos();
+    }
+
+    @Override
+    public long getLockContentionCount() {
+        return lockContentions.sum();
+    }
+
+    @Override
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    @Override
+    public long getRotationCount() {
+        return rotations.sum();
+    }
+
+    @Override
+    public long getRotationNanos() {
+        return rotationNanos.sum();
+    }
+
+    @Override
+    public long getDroppedEntries() {
+        return droppedSource.getAsLong();
+    }
+
+    @Override
+    public long getFailedWrites() {
+        return failedWrites.sum();
+    }
+
+    @Override
+    public long getRateLimitedEntries() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public long getSampledOutEntries() {
+        return sampledOut.sum();
+    }
+
+    /**
+     * Records a written entry.
+     *
+     * @param severity The severity rank of the entry.
+     * @param byteCount The encoded size of the entry.
+     */
+    void recordEntry(int severity, int byteCount) {
+        entries[severity].increment();
+        bytes[severity].add(byteCount);
+    }
+
+    /**
+     * Records the time a log call spent writing its entry.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    void recordWrite(long nanos) {
+        writeLatency.record(nanos);
+    }
+
+    /**
+     * Records the duration of a flush.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    void recordFlush(long nanos) {
+        flushLatency.record(nanos);
+    }
+
+    /**
+     * Records the duration of a rotation.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    void recordRotation(long nanos) {
+        rotations.increment();
+        rotationNanos.add(nanos);
+    }
+
+    /**
+     * Records a failed write, flush, rotation or clear.
+     */
+    void recordFailure() {
+        failedWrites.increment();
+    }
+
+    /**
+     * Records an entry suppressed by the rate limit.
+     */
+    void recordRateLimited() {
+        rateLimited.increment();
+    }
+
+    /**
+     * Records an entry discarded by sampling.
+     */
+    void recordSampledOut() {
+        sampledOut.increment();
+    }
+
+    /**
+     * Sets where the dropped entry count comes from.
+     *
+     * @param source The supplier of the current dropped entry count.
+     */
+    void setDroppedSource(LongSupplier source) {
+        droppedSource = source;
+    }
+
+    /**
+     * Acquires a lock, recording how long the caller had to wait if it was held by another thread.
+     *
+     * @param lock The lock to acquire.
+     */
+    void lock(ReentrantLock lock) {
+        if (lock.tryLock()) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        lockContentions.increment();
+        lockWaitNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns a one-line summary of the metrics, for example for periodic status output.
+     *
+     * @return The summary.
+     */
+    @Override
+    public String toString() {
+        return String.format("entries=%d bytes=%d writeMeanUs=%d writeP99Us=%d flushes=%d flushP99Us=%d "
+                        + "lockWaitMs=%d rotations=%d dropped=%d failed=%d rateLimited=%d sampledOut=%d",
+                getEntryCount(), getByteCount(),
+                TimeUnit.NANOSECONDS.toMicros(getWriteLatencyMeanNanos()),
+                TimeUnit.NANOSECONDS.toMicros(getWriteLatencyP99Nanos()),
+                getFlushCount(), TimeUnit.NANOSECONDS.toMicros(getFlushLatencyP99Nanos()),
+                TimeUnit.NANOSECONDS.toMillis(getLockWaitNanos()), getRotationCount(),
+                getDroppedEntries(), getFailedWrites(), getRateLimitedEntries(), getSampledOutEntries());
+    }
+
+    /**
+     * Creates one adder per level.
+     *
+     * @return The adders, indexed by severity rank.
+     */
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[LEVELS.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Sums per-level adders.
+     *
+     * @param adders The adders.
+     * @return The sum over all levels.
+     */
+    private static long sum(LongAdder[] adders) {
+        long total = 0;
+        for (LongAdder adder : adders) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Reports per-level adders by level label.
+     *
+     * @param adders The adders.
+     * @return The counts keyed by level label, in level order.
+     */
+    private static Map<String, Long> byLevel(LongAdder[] adders) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Level level : LEVELS) {
+            result.put(level.name(), adders[level.ordinal()].sum());
+        }
+        return result;
+    }
+}
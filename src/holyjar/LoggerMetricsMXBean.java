@@ -0,0 +1,106 @@
+package holyjar;
+
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link LoggerMetrics}, exposed over JMX by {@link NamedLogger#registerMBean()}.
+ * Durations are in nanoseconds; percentiles are upper bounds of power-of-two buckets.
+ */
+public interface LoggerMetricsMXBean {
+
+    /**
+     * @return The number of entries written, by level label.
+     */
+    Map<String, Long> getEntriesByLevel();
+
+    /**
+     * @return The number of encoded bytes written, by level label.
+     */
+    Map<String, Long> getBytesByLevel();
+
+    /**
+     * @return The total number of entries written.
+     */
+    long getEntryCount();
+
+    /**
+     * @return The total number of encoded bytes written.
+     */
+    long getByteCount();
+
+    /**
+     * @return The mean time a log call spends writing its entry.
+     */
+    long getWriteLatencyMeanNanos();
+
+    /**
+     * @return The 99th percentile of the time a log call spends writing its entry.
+     */
+    long getWriteLatencyP99Nanos();
+
+    /**
+     * @return The longest time a log call spent writing its entry.
+     */
+    long getWriteLatencyMaxNanos();
+
+    /**
+     * @return The number of flushes that wrote buffered entries to the file.
+     */
+    long getFlushCount();
+
+    /**
+     * @return The mean duration of a flush.
+     */
+    long getFlushLatencyMeanNanos();
+
+    /**
+     * @return The 99th percentile of the duration of a flush.
+     */
+    long getFlushLatencyP99Nanos();
+
+    /**
+     * @return The longest duration of a flush.
+     */
+    long getFlushLatencyMaxNanos();
+
+    /**
+     * @return The number of lock acquisitions that had to wait for another thread.
+     */
+    long getLockContentionCount();
+
+    /**
+     * @return The total time threads spent waiting for the writer locks.
+     */
+    long getLockWaitNanos();
+
+    /**
+     * @return The number of rotations.
+     */
+    long getRotationCount();
+
+    /**
+     * @return The total time writers spent in rotations.
+     */
+    long getRotationNanos();
+
+    /**
+     * @return The number of entries dropped because a buffer was full.
+     */
+    long getDroppedEntries();
+
+    /**
+     * @return The number of writes, flushes, rotations or clears that failed.
+     */
+    long getFailedWrites();
+
+    /**
+     * @return The number of entries suppressed by the rate limit.
+     */
+    long getRateLimitedEntries();
+
+    /**
+     * @return The number of entries discarded by sampling.
+     */
+    long getSampledOutEntries();
+}
@@ -0,0 +1,72 @@
+package holyjar;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MemorySink keeps the most recent log entries in memory, formatted like the lines of the log file.
+ * Useful in tests and for showing recent activity without reading the log file.
+ */
+public final class MemorySink implements LogSink {
+
+    // Lock guarding the ring of entries, which is read from other threads
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final String[] entries;
+    private long count;
+
+    /**
+     * Creates a sink that keeps the given number of most recent entries.
+     *
+     * @param capacity The maximum number of entries kept.
+     */
+    public MemorySink(int capacity) {
+        this.entries = new String[capacity > 0 ? capacity : 1];
+    }
+
+    @Override
+    public void write(long timestamp, String level, String message) {
+        String entry = LogEncoder.get().format(timestamp, level, message).toString();
+        lock.lock();
+        try {
+            entries[(int) (count++ % entries.length)] = entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the kept entries, oldest first.
+     *
+     * @return A snapshot of the kept entries.
+     */
+    public List<String> getEntries() {
+        lock.lock();
+        try {
+            int size = (int) Math.min(count, entries.length);
+            List<String> result = new ArrayList<>(size);
+            for (long i = count - size; i < count; i++) {
+                result.add(entries[(int) (i % entries.length)]);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all kept entries.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            count = 0;
+            Arrays.fill(entries, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package holyjar;
+
+
+import java.util.Arrays;
+
+/**
+ * MessageFormatter substitutes "{}" placeholders in log message templates with their arguments.
+ * Messages are built in a reusable per-thread StringBuilder and only for levels that are enabled.
+ * <p>
+ * Escapes work as in SLF4J: "\{}" is a literal "{}" and takes no argument, and "\\{}" is a backslash
+ * followed by a placeholder. Once the arguments are used up, the rest of the template is kept as it is.
+ */
+final class MessageFormatter {
+
+    // Placeholder replaced by the next argument, and the character that escapes it
+    private static final String PLACEHOLDER = "{}";
+    private static final char ESCAPE = '\\';
+
+    // Builders above this capacity are not kept, so one huge message does not pin memory forever
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    // One reusable builder per thread
+    private static final ThreadLocal<MessageFormatter> FORMATTERS = ThreadLocal.withInitial(MessageFormatter::new);
+
+    private StringBuilder builder = new StringBuilder(256);
+
+    // Set while the builder holds a message, so that logging from an argument's toString() does not clobber it
+    private boolean inUse;
+
+    /**
+     * Private constructor; formatters are only created per thread.
+     */
+    private MessageFormatter() {
+        // This constructor is intentionally empty; formatters are obtained through FORMATTERS
+    }
+
+    /**
+     * Formats a message template. The returned builder is reused by the next call on this thread,
+     * so it must be consumed (written or copied) before formatting another message.
+     * A trailing Throwable argument that has no placeholder is left out; see {@link #trailingThrowable}.
+     *
+     * @param template The message template with "{}" placeholders.
+     * @param args The arguments substituted in order.
+     * @param argCount The number of arguments used from the array.
+     * @return The formatted message.
+     */
+    static StringBuilder format(String template, Object[] args, int argCount) {
+        MessageFormatter formatter = FORMATTERS.get();
+        StringBuilder sb;
+        if (formatter.inUse) {
+            sb = new StringBuilder(template.length() + 16 * argCount);
+        } else {
+            if (formatter.builder.capacity() > MAX_RETAINED_CAPACITY) {
+                formatter.builder = new StringBuilder(256);
+            }
+            sb = formatter.builder;
+            sb.setLength(0);
+            formatter.inUse = true;
+        }
+        try {
+            int start = 0;
+            int argIndex = 0;
+            while (argIndex < argCount) {
+                int placeholder = template.indexOf(PLACEHOLDER, start);
+                if (placeholder < 0) {
+                    break;
+                }
+                if (!isEscaped(template, placeholder)) {
+                    sb.append(template, start, placeholder);
+                    appendArgument(sb, args[argIndex++]);
+                    start = placeholder + PLACEHOLDER.length();
+                } else if (isEscaped(template, placeholder - 1)) {
+                    // "\\{}": the escaped backslash stays, the placeholder is replaced
+                    sb.append(template, start, placeholder - 1);
+                    appendArgument(sb, args[argIndex++]);
+                    start = placeholder + PLACEHOLDER.length();
+                } else {
+                    // "\{}": a literal "{}" without the backslash; the search goes on after its "{"
+                    sb.append(template, start, placeholder - 1).append('{');
+                    start = placeholder + 1;
+                }
+            }
+            sb.append(template, start, template.length());
+            return sb;
+        } finally {
+            formatter.inUse = false;
+        }
+    }
+
+    /**
+     * Returns the trailing Throwable argument of a template if no placeholder consumes it.
+     * It is logged with its stack trace after the formatted message.
+     *
+     * @param template The message template with "{}" placeholders.
+     * @param args The arguments substituted in order.
+     * @param argCount The number of arguments used from the array.
+     * @return The exception, or null if the last argument is not an exception or has a placeholder.
+     */
+    static Throwable trailingThrowable(String template, Object[] args, int argCount) {
+        if (argCount == 0 || !(args[argCount - 1] instanceof Throwable)) {
+            return null;
+        }
+        int placeholders = 0;
+        for (int index = template.indexOf(PLACEHOLDER); index >= 0 && placeholders < argCount;
+             index = template.indexOf(PLACEHOLDER, index + 1)) {
+            // An escaped "{}" takes no argument
+            if (!isEscaped(template, index) || isEscaped(template, index - 1)) {
+                placeholders++;
+            }
+        }
+        return placeholders < argCount ? (Throwable) args[argCount - 1] : null;
+    }
+
+    /**
+     * Checks whether the character at a position of a template is preceded by the escape character.
+     *
+     * @param template The message template.
+     * @param index The position.
+     * @return True if the character before it is a backslash.
+     */
+    private static boolean isEscaped(String template, int index) {
+        return index > 0 && template.charAt(index - 1) == ESCAPE;
+    }
+
+    /**
+     * Appends a single argument, writing common boxed primitives without creating a string first.
+     *
+     * @param sb The builder to append to.
+     * @param arg The argument.
+     */
+    private static void appendArgument(StringBuilder sb, Object arg) {
+        if (arg instanceof String) {
+            sb.append((String) arg);
+        } else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+            sb.append(((Number) arg).longValue());
+        } else if (arg instanceof Double) {
+            sb.append(((Double) arg).doubleValue());
+        } else if (arg instanceof Boolean) {
+            sb.append(((Boolean) arg).booleanValue());
+        } else if (arg instanceof Object[]) {
+            sb.append(Arrays.deepToString((Object[]) arg));
+        } else {
+            sb.append(arg);
+        }
+    }
+}
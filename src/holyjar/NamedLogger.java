@@ -0,0 +1,1416 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * NamedLogger is one independent log stream, such as an access, audit or application log.
+ * Every named logger has its own file, rotation settings, level threshold, writer and lock,
+ * so unrelated streams never serialize through a shared mutex.
+ * Obtain instances with {@link Logger#get(String)}; the static methods of {@link Logger} use the default logger.
+ * Loggers should not share a log file path, since each one rotates its file independently.
+ */
+public final class NamedLogger {
+    
+    // Lock object for thread safety using ReentrantLock instead of synchronized block
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    // Maximum log file size in bytes before rotation (default: 10MB)
+    private static final long DEFAULT_MAX_LOG_SIZE = 10 * 1024 * 1024;
+    
+    // Maximum number of backup log files to keep
+    private static final int DEFAULT_MAX_BACKUP_FILES = 5;
+    
+    // Buffer size and overflow policy of sinks attached without explicit settings
+    private static final int DEFAULT_SINK_CAPACITY = 8192;
+    
+    // Buffering limits used by the batched durability policies (default: 512 entries or 1 second)
+    private static final int DEFAULT_BATCH_ENTRIES = 512;
+    private static final long DEFAULT_BATCH_DELAY_MILLIS = 1000;
+    
+    // Time between two summaries of rate-limited entries (default: 10 seconds)
+    private static final long DEFAULT_SUMMARY_INTERVAL_MILLIS = 10_000;
+    
+    // Name under which this logger is registered
+    private final String name;
+    
+    // Long-lived handle to the log file, tracking its size in memory for rotation
+    private final LogFile logFile;
+    
+    // Renders and deduplicates the stack traces of logged exceptions
+    private final ThrowableRenderer throwableRenderer;
+    
+    // Sinks fed in addition to the log file; replaced as a whole so dispatch can iterate without locking
+    private volatile SinkHandle[] sinks = new SinkHandle[0];
+    
+    // Sink attached by enableConsoleLogging, null while console logging is off
+    private SinkHandle consoleSink;
+    
+    // Severity rank below which entries are discarded before any formatting (default: log everything)
+    private volatile int minSeverity = Level.DEBUG.ordinal();
+    
+    // Background writer used when asynchronous logging is enabled, null in synchronous mode
+    private volatile AsyncLogWriter asyncWriter;
+    
+    // Per-key rate limit, null while entries are not rate limited
+    private volatile RateLimiter rateLimiter;
+    
+    // Fraction of entries kept per severity rank, null while nothing is sampled
+    private volatile double[] sampleRates;
+    
+    // Records entries of every level in memory for dumps, null while disabled
+    private volatile FlightRecorder flightRecorder;
+    
+    // Shard files the log is spread over in sharded mode, null while a single file is written
+    private volatile LogShards shards;
+    
+    // Whether the log file stores entries as binary records, so templates can be written without rendering them
+    private volatile boolean binaryFormat;
+    
+    /**
+     * Creates a logger. Use {@link Logger#get(String)} to obtain registered instances.
+     * 
+     * @param name The name of the logger.
+     * @param path The initial path of the log file.
+     */
+    NamedLogger(String name, String path) {
+        this.name = name;
+        this.logFile = new LogFile(path, DEFAULT_MAX_LOG_SIZE, DEFAULT_MAX_BACKUP_FILES);
+        logFile.getMetrics().setDroppedSource(this::countDropped);
+        this.throwableRenderer = new ThrowableRenderer(logFile.getMetrics());
+    }
+    
+    /**
+     * Returns the name of this logger.
+     * 
+     * @return The logger name, or an empty string for the default logger.
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Sets the log file path.
+     * 
+     * @param path The new path for the log file.
+     */
+    public void setLogFilePath(String path) {
+        lock.lock();
+        try {
+            // Entries still queued for the old file are written there first
+            flush();
+            logFile.setPath(path);
+            LogShards previous = shards;
+            if (previous != null) {
+                // The shards move along with the log file
+                shards = new LogShards(logFile, previous.size());
+                previous.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Sets the maximum size of the log file before rotation occurs. In sharded mode it applies to every shard.
+     * 
+     * @param sizeInBytes The maximum size in bytes.
+     */
+    public void setMaxLogSize(long sizeInBytes) {
+        configure(file -> file.setMaxSize(sizeInBytes));
+    }
+    
+    /**
+     * Sets the maximum number of backup log files to keep. In sharded mode every shard keeps this many.
+     * 
+     * @param count The maximum number of backup files.
+     */
+    public void setMaxBackupFiles(int count) {
+        configure(file -> file.setMaxBackups(count > 0 ? count : 1));
+    }
+    
+    /**
+     * Enables or disables gzip compression of rotated backups (for example Logs.log.1.gz).
+     * Compression runs on a background thread and never delays logging.
+     * 
+     * @param compress True to compress backups.
+     */
+    public void setCompressBackups(boolean compress) {
+        configure(file -> file.setCompressBackups(compress));
+    }
+    
+    /**
+     * Sets a disk budget for all backup files together. When the backups exceed it
+     * the oldest ones are deleted first. In sharded mode every shard has this budget.
+     * 
+     * @param sizeInBytes The budget in bytes, or 0 to only limit the number of backups.
+     */
+    public void setMaxTotalBackupSize(long sizeInBytes) {
+        configure(file -> file.setMaxTotalBackupSize(Math.max(0, sizeInBytes)));
+    }
+    
+    /**
+     * Enables sharded mode: the log is spread over several files next to the log file, "&lt;name&gt;-shard0.log"
+     * and so on, and each thread writes to one of them, so threads logging at the same time do not wait for
+     * each other's writes. Every shard is rotated on its own and keeps its own backups. Entries carry a sequence
+     * number shared by all shards, and {@link #query} and {@link #consolidateShards} merge the shards back into
+     * the order the entries were logged. The log file itself is no longer written while sharding is enabled.
+     * 
+     * @param count The number of shards, for example the number of threads that log heavily.
+     */
+    public void enableSharding(int count) {
+        lock.lock();
+        try {
+            flush();
+            LogShards previous = shards;
+            shards = new LogShards(logFile, Math.max(1, count));
+            if (previous != null) {
+                previous.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Disables sharded mode and writes to the log file again. The shard files stay on disk.
+     */
+    public void disableSharding() {
+        lock.lock();
+        try {
+            flush();
+            LogShards previous = shards;
+            shards = null;
+            if (previous != null) {
+                previous.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Merges the shard files of this log and their backups into one plain log file, in the order the entries
+     * were logged, on a background thread. Entries logged before this call are included. The target is replaced
+     * once it is complete; the shard files are left as they are.
+     * 
+     * @param targetPath The path of the consolidated file, which must not be the log file while it is written.
+     * @return A future completing with the number of entries written, or exceptionally if the merge failed.
+     */
+    public CompletableFuture<Long> consolidateShards(String targetPath) {
+        flush();
+        try {
+            return LogMerger.consolidate(LogShards.find(logFile.getPath()), Paths.get(targetPath));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    /**
+     * Applies a setting to the log file and, in sharded mode, to every shard.
+     * 
+     * @param setting The setting.
+     */
+    private void configure(Consumer<LogFile> setting) {
+        setting.accept(logFile);
+        LogShards current = shards;
+        if (current != null) {
+            current.forEach(setting);
+        }
+    }
+    
+    /**
+     * Enables or disables console logging in addition to file logging.
+     * Console output is written by a {@link ConsoleSink} on its own thread, so a slow terminal
+     * or a piped standard output never delays the logging threads; entries that do not fit
+     * into its buffer are dropped and counted.
+     * 
+     * @param enable True to enable console logging, false to disable.
+     */
+    public void enableConsoleLogging(boolean enable) {
+        lock.lock();
+        try {
+            if (enable && consoleSink == null) {
+                consoleSink = addSink(new ConsoleSink(), Level.DEBUG);
+            } else if (!enable && consoleSink != null) {
+                removeSink(consoleSink);
+                consoleSink = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Attaches a sink that receives every entry of this logger at or above the given level.
+     * The sink gets its own buffer and writer thread; entries that do not fit are dropped and counted.
+     * 
+     * @param sink The sink to attach.
+     * @param level The least severe level passed to the sink.
+     * @return The handle for configuring, monitoring and removing the sink.
+     */
+    public SinkHandle addSink(LogSink sink, Level level) {
+        return addSink(sink, level, DEFAULT_SINK_CAPACITY, Logger.OverflowPolicy.DROP_AND_COUNT);
+    }
+    
+    /**
+     * Attaches a sink that receives every entry of this logger at or above the given level.
+     * 
+     * @param sink The sink to attach.
+     * @param level The least severe level passed to the sink.
+     * @param capacity The number of entries the sink's buffer can hold.
+     * @param policy What to do with new entries while the sink's buffer is full.
+     * @return The handle for configuring, monitoring and removing the sink.
+     */
+    public SinkHandle addSink(LogSink sink, Level level, int capacity, Logger.OverflowPolicy policy) {
+        SinkHandle handle = new SinkHandle(sink, level, capacity, policy);
+        lock.lock();
+        try {
+            SinkHandle[] current = sinks;
+            SinkHandle[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = handle;
+            sinks = updated;
+        } finally {
+            lock.unlock();
+        }
+        return handle;
+    }
+    
+    /**
+     * Detaches a sink, writing out its buffered entries and closing it.
+     * 
+     * @param handle The handle returned when the sink was attached.
+     */
+    public void removeSink(SinkHandle handle) {
+        lock.lock();
+        try {
+            SinkHandle[] current = sinks;
+            SinkHandle[] updated = new SinkHandle[current.length];
+            int count = 0;
+            for (SinkHandle sink : current) {
+                if (sink != handle) {
+                    updated[count++] = sink;
+                }
+            }
+            if (count == current.length) {
+                return;
+            }
+            sinks = Arrays.copyOf(updated, count);
+        } finally {
+            lock.unlock();
+        }
+        handle.close();
+    }
+    
+    /**
+     * Returns the sinks attached to this logger.
+     * 
+     * @return The attached sink handles.
+     */
+    public List<SinkHandle> getSinks() {
+        return List.of(sinks);
+    }
+    
+    /**
+     * Sets how log entries reach the log file. The current file is closed and reopened in the new mode.
+     * 
+     * @param mode The output mode.
+     */
+    public void setOutputMode(Logger.OutputMode mode) {
+        lock.lock();
+        try {
+            flush();
+            configure(file -> file.setOutputMode(mode));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Sets how log entries are stored in the log file. In {@link Logger.FileFormat#BINARY} format, entries logged
+     * with a message template are stored as the template id and the raw arguments, and the message is only
+     * rendered when the file is read. This applies while the log file is the only output of the entry: with console
+     * logging, sinks, subscriptions, the flight recorder or asynchronous mode, the message is rendered anyway and
+     * stored as it is. The current file is closed; a file in another format is rotated to a backup first.
+     * Multi-process mode writes text instead of binary records.
+     * 
+     * @param format The file format.
+     */
+    public void setFileFormat(Logger.FileFormat format) {
+        lock.lock();
+        try {
+            flush();
+            configure(file -> file.setFileFormat(format));
+            binaryFormat = format == Logger.FileFormat.BINARY;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Enables or disables multi-process mode, for log files that several processes write at the same time.
+     * Every process then appends each batch of entries under a file lock on "&lt;log file&gt;.lock", checking the
+     * actual file size first, so entries of different processes never interleave within a line and exactly one
+     * process rotates a full file; the others notice the rotation at their next write and reopen the file.
+     * Under a batched durability policy a whole batch costs one lock acquisition. In this mode the file is always
+     * written with write calls and no index is kept. All processes writing the file have to enable it.
+     * 
+     * @param enabled True if other processes write the same log file.
+     */
+    public void setMultiProcess(boolean enabled) {
+        lock.lock();
+        try {
+            flush();
+            configure(file -> file.setShared(enabled));
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Sets the minimum level of entries that are logged. Entries below it are discarded
+     * before their message is built, formatted or written.
+     * 
+     * @param level The least severe level that is still logged.
+     */
+    public void setLevel(Level level) {
+        minSeverity = level.ordinal();
+    }
+    
+    /**
+     * Returns the minimum level of entries that are logged.
+     * 
+     * @return The least severe level that is still logged.
+     */
+    public Level getLevel() {
+        return Level.ofSeverity(minSeverity);
+    }
+    
+    /**
+     * Checks whether entries of the given level are logged. Use this to guard expensive message construction.
+     * 
+     * @param level The level to check.
+     * @return True if entries of this level pass the level threshold.
+     */
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= minSeverity;
+    }
+    
+    /**
+     * Limits how often similar entries are logged, keyed by message: the text of plain messages, the template
+     * of parameterized messages and the call site of lazily built messages. Suppressed entries are
+     * summarized every 10 seconds in one entry per key. FATAL entries are never suppressed.
+     * 
+     * @param entriesPerSecond The sustained number of entries per second logged for each key.
+     * @param burst The number of entries of a key logged at once after it was quiet.
+     */
+    public void setRateLimit(double entriesPerSecond, int burst) {
+        setRateLimit(entriesPerSecond, burst, Logger.RateLimitKey.MESSAGE, DEFAULT_SUMMARY_INTERVAL_MILLIS);
+    }
+    
+    /**
+     * Limits how often similar entries are logged. Each key has its own token bucket that admits
+     * a burst of entries and then refills at the given rate; the check is lock-free, so a suppressed
+     * entry costs almost nothing. Suppressed entries are counted and summarized periodically in one entry
+     * per key, such as "Connection refused (1234 similar messages suppressed)". FATAL entries are never suppressed.
+     * 
+     * @param entriesPerSecond The sustained number of entries per second logged for each key.
+     * @param burst The number of entries of a key logged at once after it was quiet.
+     * @param key What identifies entries as similar.
+     * @param summaryIntervalMillis The time in milliseconds between two summaries.
+     */
+    public void setRateLimit(double entriesPerSecond, int burst, Logger.RateLimitKey key, long summaryIntervalMillis) {
+        lock.lock();
+        try {
+            RateLimiter previous = rateLimiter;
+            rateLimiter = new RateLimiter(entriesPerSecond, burst, key, summaryIntervalMillis, logFile.getMetrics(),
+                    this::dispatch);
+            if (previous != null) {
+                previous.shutdown();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Removes the rate limit, writing the summary of the entries suppressed so far.
+     */
+    public void disableRateLimit() {
+        lock.lock();
+        try {
+            RateLimiter previous = rateLimiter;
+            rateLimiter = null;
+            if (previous != null) {
+                previous.shutdown();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Logs only a random fraction of the entries of a level, for example 0.01 to keep one DEBUG entry in a hundred.
+     * Discarded entries are counted in the metrics. FATAL entries are never sampled.
+     * 
+     * @param level The level to sample.
+     * @param rate The fraction of entries kept, from 0 (none) to 1 (all, the default).
+     */
+    public void setSampleRate(Level level, double rate) {
+        lock.lock();
+        try {
+            double[] rates = new double[Level.values().length];
+            Arrays.fill(rates, 1.0);
+            if (sampleRates != null) {
+                System.arraycopy(sampleRates, 0, rates, 0, rates.length);
+            }
+            rates[level.ordinal()] = Math.max(0.0, Math.min(1.0, rate));
+            boolean sampled = false;
+            for (double value : rates) {
+                sampled |= value < 1.0;
+            }
+            sampleRates = sampled ? rates : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Returns the fraction of entries of a level that is logged.
+     * 
+     * @param level The level.
+     * @return The sample rate, 1 if the level is not sampled.
+     */
+    public double getSampleRate(Level level) {
+        double[] rates = sampleRates;
+        return rates != null ? rates[level.ordinal()] : 1.0;
+    }
+    
+    /**
+     * Selects whether repeated stack traces are written in full. When enabled (the default), the first
+     * occurrence of a stack trace is written with its causes and suppressed exceptions under a short id,
+     * and later exceptions with the same classes and frames only as "same as trace #id, xN".
+     * Traces are written in full again after the log file rotates.
+     * 
+     * @param enabled True to deduplicate stack traces, false to write every trace in full.
+     */
+    public void setDeduplicateExceptions(boolean enabled) {
+        throwableRenderer.setDeduplicate(enabled);
+    }
+    
+    /**
+     * Returns whether repeated stack traces are written as references to their first occurrence.
+     * 
+     * @return True if stack traces are deduplicated.
+     */
+    public boolean isDeduplicateExceptions() {
+        return throwableRenderer.isDeduplicate();
+    }
+    
+    /**
+     * Enables the flight recorder: the most recent entries of every level, including those below the level
+     * threshold, are kept in an off-heap ring buffer of the given size without touching the disk.
+     * The buffer is appended to a dump file next to the log file, "&lt;name&gt;-flight.log", when a FATAL entry
+     * is logged, when a thread dies of an uncaught exception, or on {@link #dumpFlightRecorder()}.
+     * Messages are truncated to about 220 bytes and exceptions are recorded by class and message.
+     * While the recorder is enabled, messages of disabled levels are built so they can be recorded.
+     * 
+     * @param capacityBytes The size of the ring buffer; every 256 bytes hold one entry.
+     */
+    public void enableFlightRecorder(int capacityBytes) {
+        String path = logFile.getPath().toString();
+        String dumpPath = path.endsWith(".log") ? path.substring(0, path.length() - 4) + "-flight.log" : path + ".flight";
+        enableFlightRecorder(capacityBytes, dumpPath);
+    }
+    
+    /**
+     * Enables the flight recorder with an explicit dump file. See {@link #enableFlightRecorder(int)}.
+     * 
+     * @param capacityBytes The size of the ring buffer; every 256 bytes hold one entry.
+     * @param dumpPath The file the recorded entries are appended to when they are dumped.
+     */
+    public void enableFlightRecorder(int capacityBytes, String dumpPath) {
+        lock.lock();
+        try {
+            FlightRecorder previous = flightRecorder;
+            flightRecorder = new FlightRecorder(capacityBytes, Paths.get(dumpPath));
+            if (previous != null) {
+                previous.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Disables the flight recorder and releases its buffer. Recorded entries are discarded.
+     */
+    public void disableFlightRecorder() {
+        lock.lock();
+        try {
+            FlightRecorder previous = flightRecorder;
+            flightRecorder = null;
+            if (previous != null) {
+                previous.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Appends the entries held by the flight recorder to its dump file. Does nothing while it is disabled.
+     */
+    public void dumpFlightRecorder() {
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.dump("on demand");
+        }
+    }
+    
+    /**
+     * Sets the durability policy of the log file, using the default batching limits.
+     * 
+     * @param durability When log entries are written to the log file.
+     */
+    public void setDurability(Logger.Durability durability) {
+        setDurability(durability, DEFAULT_BATCH_ENTRIES, DEFAULT_BATCH_DELAY_MILLIS);
+    }
+    
+    /**
+     * Sets the durability policy of the log file. Under the batched policies buffered entries
+     * are written once maxEntries are pending or maxDelayMillis have passed, whichever comes first.
+     * Entries logged while a write is in progress are merged into the next write.
+     * 
+     * @param durability When log entries are written to the log file.
+     * @param maxEntries The number of buffered entries that triggers a write.
+     * @param maxDelayMillis The longest time in milliseconds an entry stays buffered.
+     */
+    public void setDurability(Logger.Durability durability, int maxEntries, long maxDelayMillis) {
+        configure(file -> file.setDurability(durability, maxEntries, maxDelayMillis));
+    }
+    
+    /**
+     * Enables asynchronous logging. Log calls only copy the entry into a preallocated ring buffer
+     * and a dedicated writer thread performs the formatting and the file writes.
+     * Buffered entries are drained when the JVM shuts down.
+     * If asynchronous logging is already enabled, the previous writer is replaced and drained before returning;
+     * entries it still holds may then be written after entries logged through the new one.
+     * 
+     * @param capacity The number of entries the ring buffer can hold.
+     * @param policy What to do with new entries while the ring buffer is full.
+     */
+    public void enableAsyncLogging(int capacity, Logger.OverflowPolicy policy) {
+        AsyncLogWriter previous;
+        lock.lock();
+        try {
+            previous = asyncWriter;
+            asyncWriter = new AsyncLogWriter(capacity, policy, this::writeBatch);
+        } finally {
+            lock.unlock();
+        }
+        // Drained without the lock, so configuration calls and the writer threads are never kept waiting for it
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+    
+    /**
+     * Disables asynchronous logging, writing out all buffered entries before returning.
+     */
+    public void disableAsyncLogging() {
+        AsyncLogWriter writer;
+        lock.lock();
+        try {
+            writer = asyncWriter;
+            asyncWriter = null;
+        } finally {
+            lock.unlock();
+        }
+        // Drained without the lock, as in enableAsyncLogging
+        if (writer != null) {
+            writer.shutdown();
+        }
+    }
+    
+    /**
+     * Blocks until every entry logged before this call has been written to the log file,
+     * including entries still queued for the asynchronous writer or buffered by a batched durability policy.
+     */
+    public void flush() {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+        configure(file -> file.flush(false));
+        for (SinkHandle sink : sinks) {
+            sink.flush();
+        }
+    }
+    
+    /**
+     * Returns the number of entries discarded because the asynchronous ring buffer was full.
+     * 
+     * @return The dropped entry count, or 0 in synchronous mode.
+     */
+    public long getDroppedCount() {
+        AsyncLogWriter writer = asyncWriter;
+        return writer != null ? writer.getDroppedCount() : 0;
+    }
+    
+    /**
+     * Returns the metrics of this logger: entries and bytes per level, write and flush latencies,
+     * lock contention, rotations, and dropped or failed writes.
+     * 
+     * @return The metrics, updated live.
+     */
+    public LoggerMetrics getMetrics() {
+        return logFile.getMetrics();
+    }
+    
+    /**
+     * Registers the metrics of this logger with the platform MBean server, under the name
+     * "holyjar:type=Logger,name=&lt;logger name&gt;" ("default" for the default logger).
+     * Registering the same logger again has no effect.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String label = name.isEmpty() ? "default" : name;
+            // Names with characters that are special in object names have to be quoted
+            if (label.matches(".*[,=:\"*?\\\\\\n].*")) {
+                label = ObjectName.quote(label);
+            }
+            ObjectName objectName = new ObjectName("holyjar:type=Logger,name=" + label);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(logFile.getMetrics(), objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register logger metrics: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Counts the entries dropped by the asynchronous writer and by the sink buffers.
+     * 
+     * @return The total dropped entry count.
+     */
+    private long countDropped() {
+        long dropped = getDroppedCount();
+        for (SinkHandle sink : sinks) {
+            dropped += sink.getDroppedCount();
+        }
+        return dropped;
+    }
+    
+    /**
+     * Starts a structured log entry with typed key-value fields, finished with {@link LogEvent#log(String)}:
+     * <pre>
+     * log.at(Level.INFO).kv("userId", userId).kv("latencyMs", latency).log("Request served");
+     * </pre>
+     * Numbers and booleans are kept unboxed in an event reused by the thread. In {@link Logger.FileFormat#JSON}
+     * format the fields are written as typed members of the entry; the console, sinks, the flight recorder and
+     * the writer thread in asynchronous mode get them as logfmt pairs after the message, "userId=42 latencyMs=4.2".
+     * For a disabled level a shared event is returned that ignores its fields.
+     * 
+     * @param level The level of the entry.
+     * @return The event to add fields to.
+     */
+    public LogEvent at(Level level) {
+        return accepts(level) ? LogEvent.start(this, level) : LogEvent.DISABLED;
+    }
+    
+    /**
+     * Logs a message with INFO level.
+     * 
+     * @param message The message to log.
+     */
+    public void info(String message) {
+        log(message, Logger.INFO);
+    }
+    
+    /**
+     * Logs a lazily built message with INFO level. The supplier is only called if INFO is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public void info(Supplier<String> messageSupplier) {
+        log(messageSupplier, Level.INFO);
+    }
+    
+    /**
+     * Logs a parameterized message with INFO level. The "{}" placeholder is only replaced if INFO is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public void info(String format, Object arg) {
+        if (accepts(Level.INFO)) {
+            logFormatted(Level.INFO, format, new Object[] { arg });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with INFO level. The "{}" placeholders are only replaced if INFO is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public void info(String format, Object arg1, Object arg2) {
+        if (accepts(Level.INFO)) {
+            logFormatted(Level.INFO, format, new Object[] { arg1, arg2 });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with INFO level. The "{}" placeholders are only replaced if INFO is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public void info(String format, Object... args) {
+        if (accepts(Level.INFO)) {
+            logFormatted(Level.INFO, format, args);
+        }
+    }
+    
+    /**
+     * Logs a message with WARNING level.
+     * 
+     * @param message The message to log.
+     */
+    public void warning(String message) {
+        log(message, Logger.WARNING);
+    }
+    
+    /**
+     * Logs a lazily built message with WARNING level. The supplier is only called if WARNING is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public void warning(Supplier<String> messageSupplier) {
+        log(messageSupplier, Level.WARNING);
+    }
+    
+    /**
+     * Logs a parameterized message with WARNING level. The "{}" placeholder is only replaced if WARNING is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public void warning(String format, Object arg) {
+        if (accepts(Level.WARNING)) {
+            logFormatted(Level.WARNING, format, new Object[] { arg });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with WARNING level. The "{}" placeholders are only replaced if WARNING is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public void warning(String format, Object arg1, Object arg2) {
+        if (accepts(Level.WARNING)) {
+            logFormatted(Level.WARNING, format, new Object[] { arg1, arg2 });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with WARNING level. The "{}" placeholders are only replaced if WARNING is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public void warning(String format, Object... args) {
+        if (accepts(Level.WARNING)) {
+            logFormatted(Level.WARNING, format, args);
+        }
+    }
+    
+    /**
+     * Logs a message with ERROR level.
+     * 
+     * @param message The message to log.
+     */
+    public void error(String message) {
+        log(message, Logger.ERROR);
+    }
+    
+    /**
+     * Logs an exception with ERROR level, including its causes and suppressed exceptions.
+     * A stack trace that was already written is only referenced; in asynchronous mode
+     * the trace is rendered on the writer thread.
+     * 
+     * @param message The message to log.
+     * @param e The exception to log.
+     */
+    public void error(String message, Exception e) {
+        if (!isEnabled(Level.ERROR)) {
+            record(Level.ERROR.ordinal(), String.valueOf(message), e);
+            return;
+        }
+        if (admit(Level.ERROR.ordinal(), Logger.ERROR, message)) {
+            dispatch(Logger.ERROR, String.valueOf(message), e);
+        }
+    }
+    
+    /**
+     * Logs a lazily built message with ERROR level. The supplier is only called if ERROR is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public void error(Supplier<String> messageSupplier) {
+        log(messageSupplier, Level.ERROR);
+    }
+    
+    /**
+     * Logs a parameterized message with ERROR level. The "{}" placeholder is only replaced if ERROR is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public void error(String format, Object arg) {
+        if (accepts(Level.ERROR)) {
+            logFormatted(Level.ERROR, format, new Object[] { arg });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with ERROR level. The "{}" placeholders are only replaced if ERROR is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public void error(String format, Object arg1, Object arg2) {
+        if (accepts(Level.ERROR)) {
+            logFormatted(Level.ERROR, format, new Object[] { arg1, arg2 });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with ERROR level. The "{}" placeholders are only replaced if ERROR is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public void error(String format, Object... args) {
+        if (accepts(Level.ERROR)) {
+            logFormatted(Level.ERROR, format, args);
+        }
+    }
+    
+    /**
+     * Logs a message with DEBUG level.
+     * 
+     * @param message The message to log.
+     */
+    public void debug(String message) {
+        log(message, Logger.DEBUG);
+    }
+    
+    /**
+     * Logs a lazily built message with DEBUG level. The supplier is only called if DEBUG is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public void debug(Supplier<String> messageSupplier) {
+        log(messageSupplier, Level.DEBUG);
+    }
+    
+    /**
+     * Logs a parameterized message with DEBUG level. The "{}" placeholder is only replaced if DEBUG is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public void debug(String format, Object arg) {
+        if (accepts(Level.DEBUG)) {
+            logFormatted(Level.DEBUG, format, new Object[] { arg });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with DEBUG level. The "{}" placeholders are only replaced if DEBUG is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public void debug(String format, Object arg1, Object arg2) {
+        if (accepts(Level.DEBUG)) {
+            logFormatted(Level.DEBUG, format, new Object[] { arg1, arg2 });
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with DEBUG level. The "{}" placeholders are only replaced if DEBUG is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public void debug(String format, Object... args) {
+        if (accepts(Level.DEBUG)) {
+            logFormatted(Level.DEBUG, format, args);
+        }
+    }
+    
+    /**
+     * Logs a message with FATAL level.
+     * 
+     * @param message The message to log.
+     */
+    public void fatal(String message) {
+        log(message, Logger.FATAL);
+        // Make sure the entry is on disk before the application goes down
+        afterFatal();
+    }
+    
+    /**
+     * Logs a lazily built message with FATAL level. The supplier is only called if FATAL is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     */
+    public void fatal(Supplier<String> messageSupplier) {
+        log(messageSupplier, Level.FATAL);
+        afterFatal();
+    }
+    
+    /**
+     * Logs a parameterized message with FATAL level. The "{}" placeholder is only replaced if FATAL is enabled.
+     * 
+     * @param format The message template.
+     * @param arg The argument for the placeholder.
+     */
+    public void fatal(String format, Object arg) {
+        if (accepts(Level.FATAL)) {
+            logFormatted(Level.FATAL, format, new Object[] { arg });
+            afterFatal();
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with FATAL level. The "{}" placeholders are only replaced if FATAL is enabled.
+     * 
+     * @param format The message template.
+     * @param arg1 The argument for the first placeholder.
+     * @param arg2 The argument for the second placeholder.
+     */
+    public void fatal(String format, Object arg1, Object arg2) {
+        if (accepts(Level.FATAL)) {
+            logFormatted(Level.FATAL, format, new Object[] { arg1, arg2 });
+            afterFatal();
+        }
+    }
+    
+    /**
+     * Logs a parameterized message with FATAL level. The "{}" placeholders are only replaced if FATAL is enabled.
+     * 
+     * @param format The message template.
+     * @param args The arguments for the placeholders, in order.
+     */
+    public void fatal(String format, Object... args) {
+        if (accepts(Level.FATAL)) {
+            logFormatted(Level.FATAL, format, args);
+            afterFatal();
+        }
+    }
+    
+    /**
+     * Logs a message with a specified log level.
+     * 
+     * @param message The message to log.
+     * @param logLevel The severity level of the log entry.
+     */
+    public void log(String message, String logLevel) {
+        int severity = Logger.severity(logLevel);
+        if (message == null) {
+            return;
+        }
+        if (severity < minSeverity) {
+            record(severity, message, null);
+            return;
+        }
+        if (admit(severity, logLevel, message)) {
+            dispatch(logLevel, message);
+        }
+    }
+    
+    /**
+     * Logs a message with a specified log level.
+     * 
+     * @param message The message to log.
+     * @param level The severity level of the log entry.
+     */
+    public void log(String message, Level level) {
+        log(message, level.name());
+    }
+    
+    /**
+     * Logs a lazily built message with a specified log level. The supplier is only called if the level is enabled.
+     * 
+     * @param messageSupplier Supplies the message to log.
+     * @param level The severity level of the log entry.
+     */
+    public void log(Supplier<String> messageSupplier, Level level) {
+        boolean enabled = isEnabled(level);
+        if (!enabled && flightRecorder == null) {
+            return;
+        }
+        // The supplier class identifies the call site, so the message is only built for admitted entries
+        if (enabled && !admit(level.ordinal(), level.name(), messageSupplier.getClass())) {
+            return;
+        }
+        String message = messageSupplier.get();
+        if (message == null) {
+            return;
+        }
+        if (enabled) {
+            dispatch(level.name(), message);
+        } else {
+            record(level.ordinal(), message, null);
+        }
+    }
+    
+    /**
+     * Formats a parameterized message and logs it, or only records it if the level is disabled.
+     * Callers check {@link #accepts(Level)} first.
+     * 
+     * @param level The severity level of the log entry.
+     * @param format The message template.
+     * @param args The arguments for the placeholders.
+     */
+    private void logFormatted(Level level, String format, Object[] args) {
+        boolean enabled = isEnabled(level);
+        if (format == null || (enabled && !admit(level.ordinal(), level.name(), format))) {
+            return;
+        }
+        int argCount = args != null ? args.length : 0;
+        Throwable thrown = MessageFormatter.trailingThrowable(format, args, argCount);
+        if (enabled && binaryFormat && flightRecorder == null && sinks.length == 0 && asyncWriter == null) {
+            // Only the log file takes the entry, so it stores the template and the message is never rendered
+            writeToLogFile(level, format, args, thrown != null ? argCount - 1 : argCount, thrown);
+            return;
+        }
+        StringBuilder message = MessageFormatter.format(format, args, argCount);
+        if (enabled) {
+            dispatch(level.name(), message, thrown);
+        } else {
+            record(level.ordinal(), message, thrown);
+        }
+    }
+    
+    /**
+     * Logs a structured event finished with {@link LogEvent#log(String)}, or only records it if the level is
+     * disabled. Events are started with {@link #at(Level)}, which checks {@link #accepts(Level)} first.
+     * 
+     * @param level The severity level of the log entry.
+     * @param message The message.
+     * @param event The event holding the fields.
+     */
+    void logEvent(Level level, String message, LogEvent event) {
+        boolean enabled = isEnabled(level);
+        if (message == null || (enabled && !admit(level.ordinal(), level.name(), message))) {
+            return;
+        }
+        if (enabled) {
+            dispatch(level.name(), message, null, event);
+        } else {
+            record(level.ordinal(), event.format(message), null);
+        }
+    }
+    
+    /**
+     * Checks whether a message of the given level has to be built: it is logged or the flight recorder is enabled.
+     * 
+     * @param level The severity level of the log entry.
+     * @return True if the message is needed.
+     */
+    private boolean accepts(Level level) {
+        return level.ordinal() >= minSeverity || flightRecorder != null;
+    }
+    
+    /**
+     * Records an entry below the level threshold in the flight recorder, if it is enabled.
+     * 
+     * @param severity The severity rank of the entry.
+     * @param message The message.
+     * @param thrown The exception of the entry, or null.
+     */
+    private void record(int severity, CharSequence message, Throwable thrown) {
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.record(severity, System.currentTimeMillis(), message, thrown);
+        }
+    }
+    
+    /**
+     * Makes sure a FATAL entry is on disk and dumps the flight recorder, before the application goes down.
+     */
+    private void afterFatal() {
+        flush();
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.dump("fatal entry");
+        }
+    }
+    
+    /**
+     * Applies sampling and the rate limit to an entry that passed the level threshold.
+     * Both checks are lock-free; FATAL entries always pass.
+     * 
+     * @param severity The severity rank of the entry.
+     * @param logLevel The severity level of the entry.
+     * @param key What identifies similar entries: the message, the template or the message supplier class.
+     * @return True if the entry is logged.
+     */
+    private boolean admit(int severity, String logLevel, Object key) {
+        if (severity >= Level.FATAL.ordinal()) {
+            return true;
+        }
+        double[] rates = sampleRates;
+        if (rates != null && ThreadLocalRandom.current().nextDouble() >= rates[severity]) {
+            logFile.getMetrics().recordSampledOut();
+            return false;
+        }
+        RateLimiter limiter = rateLimiter;
+        return limiter == null || limiter.admit(logLevel, key);
+    }
+    
+    /**
+     * Sends an entry that passed the level threshold to the console and the log file.
+     * 
+     * @param logLevel The severity level of the log entry.
+     * @param message The message to log; a reused builder is only read before this method returns.
+     */
+    private void dispatch(String logLevel, CharSequence message) {
+        dispatch(logLevel, message, null);
+    }
+    
+    /**
+     * Sends an entry that passed the level threshold to the console and the log file.
+     * The exception is rendered as late as possible: on the writer thread in asynchronous mode.
+     * 
+     * @param logLevel The severity level of the log entry.
+     * @param message The message to log; a reused builder is only read before this method returns.
+     * @param thrown The exception to append to the message, or null for none.
+     */
+    private void dispatch(String logLevel, CharSequence message, Throwable thrown) {
+        dispatch(logLevel, message, thrown, null);
+    }
+    
+    /**
+     * Sends an entry that passed the level threshold to the console and the log file. The fields of a structured
+     * entry go to the log file as they are, and to every other output formatted into the text of the entry.
+     * 
+     * @param logLevel The severity level of the log entry.
+     * @param message The message to log; a reused builder is only read before this method returns.
+     * @param thrown The exception to append to the message, or null for none; structured entries have none.
+     * @param event The fields of a structured entry, or null for none.
+     */
+    private void dispatch(String logLevel, CharSequence message, Throwable thrown, LogEvent event) {
+        long timestamp = System.currentTimeMillis();
+        CharSequence text = event != null ? event.format(message) : message;
+        
+        FlightRecorder recorder = flightRecorder;
+        if (recorder != null) {
+            recorder.record(Logger.severity(logLevel), timestamp, text, thrown);
+        }
+        
+        // Queue the entry for the attached sinks, each of which writes from its own buffer
+        SinkHandle[] targets = sinks;
+        if (targets.length > 0) {
+            // Sinks need the complete text, so the exception is rendered here
+            text = throwableRenderer.render(text, thrown);
+            thrown = null;
+            int severity = Logger.severity(logLevel);
+            String complete = text.toString();
+            for (SinkHandle sink : targets) {
+                sink.offer(severity, timestamp, logLevel, complete);
+            }
+        }
+        
+        // Hand the entry to the writer thread in asynchronous mode, fall back to a direct write once it stopped
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null && writer.offer(timestamp, logLevel, text.toString(), thrown)) {
+            return;
+        }
+        
+        // Write to log file
+        if (event != null) {
+            writeToLogFile(timestamp, logLevel, message, event);
+        } else {
+            writeToLogFile(timestamp, logLevel, throwableRenderer.render(text, thrown));
+        }
+    }
+    
+    /**
+     * Writes a batch of entries drained by the asynchronous writer under a single lock acquisition.
+     * 
+     * @param timestamps The entry timestamps in epoch milliseconds.
+     * @param levels The entry log levels.
+     * @param messages The entry messages.
+     * @param throwables The exceptions to render into the entries, null where there is none.
+     * @param count The number of entries in the batch.
+     */
+    private void writeBatch(long[] timestamps, String[] levels, String[] messages, Throwable[] throwables, int count) {
+        for (int i = 0; i < count; i++) {
+            if (throwables[i] != null) {
+                messages[i] = throwableRenderer.render(messages[i], throwables[i]).toString();
+            }
+        }
+        LogShards current = shards;
+        (current != null ? current.current() : logFile).write(timestamps, levels, messages, count);
+    }
+    
+    /**
+     * Writes a log entry to the log file with thread safety and file rotation.
+     * The entry is encoded straight into a reusable buffer, without intermediate strings.
+     * 
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param logLevel The severity level of the log entry.
+     * @param message The message to log.
+     */
+    private void writeToLogFile(long timestamp, String logLevel, CharSequence message) {
+        writeToLogFile(timestamp, logLevel, message, null);
+    }
+    
+    /**
+     * Writes a structured log entry to the log file, which encodes its fields in the format of the file.
+     * 
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param logLevel The severity level of the log entry.
+     * @param message The message to log.
+     * @param fields The fields of the entry, or null for none.
+     */
+    private void writeToLogFile(long timestamp, String logLevel, CharSequence message, LogEvent fields) {
+        LogShards current = shards;
+        (current != null ? current.current() : logFile).write(Logger.severity(logLevel), timestamp, logLevel,
+                message, fields);
+    }
+    
+    /**
+     * Writes a log entry given as a message template to the log file, which renders it only in text format.
+     * 
+     * @param level The severity level of the log entry.
+     * @param format The message template.
+     * @param args The arguments for the placeholders.
+     * @param argCount The number of arguments used, without a trailing exception.
+     * @param thrown The exception of the entry, or null.
+     */
+    private void writeToLogFile(Level level, String format, Object[] args, int argCount, Throwable thrown) {
+        CharSequence suffix = thrown != null ? throwableRenderer.render("", thrown) : null;
+        LogShards current = shards;
+        (current != null ? current.current() : logFile).write(level.ordinal(), System.currentTimeMillis(),
+                level.name(), format, args, argCount, suffix);
+    }
+    
+    /**
+     * Clears the log file, removing all existing log entries. In sharded mode the shard files are cleared as well.
+     */
+    public void clearLog() {
+        configure(LogFile::clear);
+    }
+    
+    /**
+     * Reads back the entries of the log file and its backups that lie in a time range and are at least as severe
+     * as the given level, oldest first. A sparse index kept next to every file lets the query skip the blocks
+     * without matching entries, and the entries are read lazily through memory-mapped windows, so a query
+     * over gigabytes of backups only touches the parts it needs. Entries still buffered by this logger are
+     * written out first. The stream holds the files open and has to be closed, e.g. with try-with-resources.
+     * In sharded mode the shard files are queried instead and merged in the order the entries were logged.
+     * 
+     * @param from The start of the range, or null for no start.
+     * @param to The end of the range, inclusive, or null for no end.
+     * @param minLevel The lowest level returned.
+     * @return The matching entries.
+     */
+    public Stream<LogEntry> query(Instant from, Instant to, Level minLevel) {
+        flush();
+        long start = toMillis(from, Long.MIN_VALUE);
+        long end = toMillis(to, Long.MAX_VALUE);
+        if (shards == null) {
+            return LogReader.query(logFile.getPath(), start, end, minLevel);
+        }
+        try {
+            return LogMerger.query(LogShards.find(logFile.getPath()), start, end, minLevel);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open log files", e);
+        }
+    }
+    
+    /**
+     * Delivers every new entry at or above a level to a listener as it is logged, handing it over in memory
+     * without touching the log file. The listener is attached as a sink, so it runs on its own thread and
+     * entries are dropped and counted, instead of holding back the logging threads, if it falls behind.
+     * 
+     * @param level The lowest level delivered.
+     * @param listener The listener.
+     * @return The subscription, to be cancelled when the entries are no longer needed.
+     */
+    public Logger.Subscription tail(Level level, Consumer<LogEntry> listener) {
+        SinkHandle handle = addSink((timestamp, logLevel, message) ->
+                listener.accept(new LogEntry(timestamp, Level.of(logLevel), message)), level);
+        return new Logger.Subscription() {
+            
+            private volatile boolean active = true;
+            
+            @Override
+            public void cancel() {
+                active = false;
+                removeSink(handle);
+            }
+            
+            @Override
+            public boolean isActive() {
+                return active;
+            }
+        };
+    }
+    
+    /**
+     * Enables or disables the sparse index kept next to the log file and its backups as "&lt;file&gt;.idx".
+     * Without an index, queries scan the files completely. Enabled by default.
+     * 
+     * @param enabled True to keep the index.
+     */
+    public void setIndexing(boolean enabled) {
+        configure(file -> file.setIndexing(enabled));
+    }
+    
+    /**
+     * Converts a bound of a query range to epoch milliseconds.
+     * 
+     * @param instant The bound, or null.
+     * @param unbounded The value used for no bound.
+     * @return The bound in epoch milliseconds, clamped to the range of a long.
+     */
+    private static long toMillis(Instant instant, long unbounded) {
+        if (instant == null) {
+            return unbounded;
+        }
+        try {
+            return instant.toEpochMilli();
+        } catch (ArithmeticException e) {
+            return instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+    }
+}
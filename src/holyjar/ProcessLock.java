@@ -0,0 +1,162 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ProcessLock coordinates the processes that write the same log file, through file locks on "&lt;log file&gt;.lock".
+ * The lock file is never renamed, so it stays the same file while the log file rotates underneath it.
+ * It has two regions: one held while a batch of entries is appended or the log file is rotated or cleared,
+ * and one held while the backups are shifted and compressed in the background.
+ * <p>
+ * File locks are held by the whole JVM and closing any channel of a file releases all of them, so there is
+ * one instance with one channel per lock file, and each region is also guarded by an in-process lock.
+ * Because the operating system sees only processes, a thread waiting for a region while another thread of the same
+ * process holds a region another process waits for looks like a deadlock to it. The rotation region is therefore
+ * polled instead of waited for, and a wait for the write region that is refused as a deadlock is tried again.
+ */
+final class ProcessLock {
+
+    // Extension appended to the log file name
+    static final String EXTENSION = ".lock";
+
+    // Regions of the lock file
+    static final int WRITES = 0;
+    static final int ROTATION = 1;
+
+    // Pause between attempts to acquire a region, and how long a refused wait for the write region is retried
+    private static final long RETRY_INTERVAL_MILLIS = 1;
+    private static final long RETRY_TIMEOUT_MILLIS = 10_000;
+
+    // One instance per lock file in this JVM
+    private static final Map<Path, ProcessLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final ReentrantLock[] regions = {new ReentrantLock(), new ReentrantLock()};
+    private final FileLock[] held = new FileLock[2];
+
+    // Channel of the lock file, reopened if an interrupted lock call closed it, and the lock guarding it
+    private FileChannel channel;
+    private final ReentrantLock channelLock = new ReentrantLock();
+
+    /**
+     * Creates the lock of a log file. Use {@link #of(Path)} to obtain the shared instance.
+     *
+     * @param path The path of the lock file.
+     */
+    private ProcessLock(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Returns the lock of a log file.
+     *
+     * @param logPath The path of the log file.
+     * @return The lock shared by everything in this JVM that writes the log file.
+     */
+    static ProcessLock of(Path logPath) {
+        Path lockPath = logPath.toAbsolutePath().normalize();
+        return LOCKS.computeIfAbsent(lockPath.resolveSibling(lockPath.getFileName() + EXTENSION), ProcessLock::new);
+    }
+
+    /**
+     * Acquires a region, waiting for other threads and other processes that hold it.
+     *
+     * @param region {@link #WRITES} or {@link #ROTATION}.
+     * @throws IOException If the lock file cannot be opened or locked.
+     */
+    void lock(int region) throws IOException {
+        regions[region].lock();
+        try {
+            held[region] = acquire(region);
+        } catch (IOException | RuntimeException e) {
+            regions[region].unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Acquires the file lock of a region.
+     *
+     * @param region {@link #WRITES} or {@link #ROTATION}.
+     * @return The file lock.
+     * @throws IOException If the region cannot be locked.
+     */
+    private FileLock acquire(int region) throws IOException {
+        long deadline = System.currentTimeMillis() + RETRY_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                FileLock fileLock = region == WRITES ? channel().lock(region, 1, false)
+                        : channel().tryLock(region, 1, false);
+                if (fileLock != null) {
+                    return fileLock;
+                }
+            } catch (ClosedChannelException e) {
+                // Closed by an interrupt; reopened on the next attempt unless the thread is still interrupted
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+            } catch (IOException e) {
+                // A wait the operating system refused as a deadlock between this process and another one
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+            try {
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the log file lock", e);
+            }
+        }
+    }
+
+    /**
+     * Releases a region acquired by the current thread.
+     *
+     * @param region {@link #WRITES} or {@link #ROTATION}.
+     */
+    void unlock(int region) {
+        try {
+            if (held[region].isValid()) {
+                held[region].release();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to release log file lock: " + e.getMessage());
+        } finally {
+            held[region] = null;
+            regions[region].unlock();
+        }
+    }
+
+    /**
+     * Returns the open channel of the lock file, creating the file if needed.
+     *
+     * @return The channel.
+     * @throws IOException If the file cannot be opened.
+     */
+    private FileChannel channel() throws IOException {
+        channelLock.lock();
+        try {
+            if (channel == null || !channel.isOpen()) {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return channel;
+        } finally {
+            channelLock.unlock();
+        }
+    }
+}
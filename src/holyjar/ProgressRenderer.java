@@ -0,0 +1,244 @@
+package holyjar;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ProgressRenderer draws the open {@link ConsoleProgress progresses} from a single daemon thread, which runs
+ * while any progress is open. On a terminal it redraws their lines in place at a fixed maximum rate: a carriage
+ * return and an ANSI cursor-up sequence move back to the first line, and every line is cleared after its text.
+ * A closed progress is drawn a last time and stays above the open ones. Without a terminal it prints one summary
+ * line per progress at a longer interval, and a final line for every closed one, so redirected output stays
+ * readable and small.
+ */
+final class ProgressRenderer {
+
+    // ANSI sequences: move up a number of lines ("ESC[nA") and clear the rest of the line
+    private static final String CURSOR_UP = "\u001B[";
+    private static final String CLEAR_LINE = "\u001B[K";
+
+    // Width assumed for a terminal that does not report one in the COLUMNS variable
+    private static final int DEFAULT_WIDTH = 80;
+
+    // Lock guarding the progresses and the drawing, and the condition the renderer thread waits on
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // Open progresses, and the ones closed since the last frame
+    private final List<ConsoleProgress> open = new ArrayList<>();
+    private final List<ConsoleProgress> closed = new ArrayList<>();
+
+    // Whether lines are redrawn in place, and the intervals between frames in either case
+    private boolean terminal;
+    private long redrawNanos = TimeUnit.MILLISECONDS.toNanos(100);
+    private long summaryNanos = TimeUnit.SECONDS.toNanos(10);
+
+    // Lines of the last frame still on the screen, below which the cursor has not moved
+    private int drawnLines;
+
+    // Longest line drawn on a terminal, so lines never wrap and the cursor movement stays exact
+    private final int width = terminalWidth();
+
+    // Reusable builder for a frame
+    private final StringBuilder frame = new StringBuilder(256);
+
+    private Thread thread;
+
+    /**
+     * Selects whether progress lines are redrawn in place. A frame on the screen is finished first.
+     *
+     * @param terminal True to redraw in place, false to print summary lines.
+     */
+    void setTerminal(boolean terminal) {
+        lock.lock();
+        try {
+            if (drawnLines > 0) {
+                System.out.println();
+                System.out.flush();
+                drawnLines = 0;
+            }
+            this.terminal = terminal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the intervals between frames.
+     *
+     * @param redrawNanos The interval between redraws on a terminal.
+     * @param summaryNanos The interval between summary lines otherwise.
+     */
+    void setIntervals(long redrawNanos, long summaryNanos) {
+        lock.lock();
+        try {
+            this.redrawNanos = redrawNanos;
+            this.summaryNanos = summaryNanos;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a progress, starting the renderer thread if it is not running.
+     *
+     * @param progress The new progress.
+     */
+    void start(ConsoleProgress progress) {
+        lock.lock();
+        try {
+            open.add(progress);
+            if (thread == null) {
+                thread = new Thread(this::run, "holyjar-console-progress");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes a progress and draws a frame at once, so its final line is on the screen when this method returns.
+     *
+     * @param progress The progress.
+     */
+    void finish(ConsoleProgress progress) {
+        lock.lock();
+        try {
+            if (open.remove(progress)) {
+                long now = System.nanoTime();
+                progress.end(now);
+                closed.add(progress);
+                draw(now);
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Draws a frame after every interval until no progress is open.
+     */
+    private void run() {
+        lock.lock();
+        try {
+            while (!open.isEmpty()) {
+                long remaining = terminal ? redrawNanos : summaryNanos;
+                while (remaining > 0 && !open.isEmpty()) {
+                    remaining = changed.awaitNanos(remaining);
+                }
+                if (!open.isEmpty()) {
+                    draw(System.nanoTime());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            thread = null;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Draws the closed progresses a last time and the open ones as they are now. Must be called with the lock held.
+     *
+     * @param now The current {@link System#nanoTime()}.
+     */
+    private void draw(long now) {
+        // Buffered console output belongs above the progress lines
+        Console.flush();
+        StringBuilder sb = frame;
+        sb.setLength(0);
+        if (terminal) {
+            if (drawnLines > 0) {
+                sb.append('\r');
+                if (drawnLines > 1) {
+                    sb.append(CURSOR_UP).append(drawnLines - 1).append('A');
+                }
+            }
+            // Every progress of the last frame is either closed or still open, so the new frame covers it
+            int lines = 0;
+            for (ConsoleProgress progress : closed) {
+                lines = appendLine(sb, progress, now, lines);
+            }
+            for (ConsoleProgress progress : open) {
+                lines = appendLine(sb, progress, now, lines);
+            }
+            if (open.isEmpty()) {
+                sb.append(System.lineSeparator());
+                drawnLines = 0;
+            } else {
+                drawnLines = open.size();
+            }
+        } else {
+            for (ConsoleProgress progress : closed) {
+                progress.render(sb, now, false);
+                sb.append(System.lineSeparator());
+            }
+            for (ConsoleProgress progress : open) {
+                progress.render(sb, now, false);
+                sb.append(System.lineSeparator());
+            }
+        }
+        closed.clear();
+        if (sb.length() > 0) {
+            System.out.print(sb);
+            System.out.flush();
+        }
+    }
+
+    /**
+     * Appends one progress line of a terminal frame, cut to the terminal width and followed by a clear of the
+     * rest of the line.
+     *
+     * @param sb The frame.
+     * @param progress The progress.
+     * @param now The current {@link System#nanoTime()}.
+     * @param lines The number of lines already in the frame.
+     * @return The number of lines in the frame afterwards.
+     */
+    private int appendLine(StringBuilder sb, ConsoleProgress progress, long now, int lines) {
+        if (lines > 0) {
+            sb.append(System.lineSeparator());
+        }
+        int start = sb.length();
+        progress.render(sb, now, true);
+        int end = start + width - 1;
+        if (sb.length() > end) {
+            // Do not split a surrogate pair
+            if (Character.isHighSurrogate(sb.charAt(end - 1))) {
+                end--;
+            }
+            sb.setLength(end);
+        }
+        sb.append(CLEAR_LINE);
+        return lines + 1;
+    }
+
+    /**
+     * Determines the width of the terminal from the COLUMNS environment variable, which most shells set.
+     *
+     * @return The number of columns.
+     */
+    private static int terminalWidth() {
+        String columns = System.getenv("COLUMNS");
+        if (columns != null) {
+            try {
+                int width = Integer.parseInt(columns.trim());
+                if (width > 1) {
+                    return width;
+                }
+            } catch (NumberFormatException e) {
+                // Not a number; use the default
+            }
+        }
+        return DEFAULT_WIDTH;
+    }
+}
@@ -0,0 +1,159 @@
+package holyjar;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.function.Function;
+
+/**
+ * PushbackInput puts lines back in front of a console input, so that every read method sees them first.
+ * Console uses it for lines the background reader read after a timed ReadLine gave up on them.
+ * A pushed-back line is read by an input of the same kind as the underlying one, so tokens and numbers
+ * are parsed exactly as they would have been; tokens do not continue from one pushed-back line into the next,
+ * which matches the whitespace, including the line terminator, that separated them in the original input.
+ */
+final class PushbackInput implements ConsoleInput {
+
+    private final ConsoleInput delegate;
+
+    // Creates an input of the same kind as the delegate over the bytes of one line
+    private final Function<InputStream, ConsoleInput> lineInput;
+
+    // Lines pushed back and not read yet, and the input over the one being read
+    private final ArrayDeque<String> lines = new ArrayDeque<>();
+    private ConsoleInput current;
+
+    /**
+     * Creates an input without pushed-back lines.
+     *
+     * @param delegate The underlying input.
+     * @param lineInput Creates an input of the same kind as the delegate over a stream.
+     */
+    PushbackInput(ConsoleInput delegate, Function<InputStream, ConsoleInput> lineInput) {
+        this.delegate = delegate;
+        this.lineInput = lineInput;
+    }
+
+    /**
+     * Puts a line back after the lines pushed back earlier, before the rest of the underlying input.
+     *
+     * @param line The line, without its terminator.
+     */
+    void pushBack(String line) {
+        lines.add(line);
+    }
+
+    @Override
+    public String nextLine() {
+        ConsoleInput in = lineInProgress();
+        if (in == null) {
+            return delegate.nextLine();
+        }
+        // The input of a pushed-back line holds a single line, which this consumes
+        String line = in.nextLine();
+        current = null;
+        return line;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return tokenSource().hasNext();
+    }
+
+    @Override
+    public String next() {
+        return tokenSource().next();
+    }
+
+    @Override
+    public boolean hasNextInt() {
+        return tokenSource().hasNextInt();
+    }
+
+    @Override
+    public int nextInt() {
+        return tokenSource().nextInt();
+    }
+
+    @Override
+    public boolean hasNextLong() {
+        return tokenSource().hasNextLong();
+    }
+
+    @Override
+    public long nextLong() {
+        return tokenSource().nextLong();
+    }
+
+    @Override
+    public boolean hasNextDouble() {
+        return tokenSource().hasNextDouble();
+    }
+
+    @Override
+    public double nextDouble() {
+        return tokenSource().nextDouble();
+    }
+
+    @Override
+    public boolean hasNextFloat() {
+        return tokenSource().hasNextFloat();
+    }
+
+    @Override
+    public float nextFloat() {
+        return tokenSource().nextFloat();
+    }
+
+    @Override
+    public boolean hasNextBoolean() {
+        return tokenSource().hasNextBoolean();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return tokenSource().nextBoolean();
+    }
+
+    @Override
+    public void close() {
+        lines.clear();
+        current = null;
+        delegate.close();
+    }
+
+    /**
+     * Returns the input over the pushed-back line being read, starting on the next one if needed.
+     *
+     * @return The input, or null if no pushed-back line is left.
+     */
+    private ConsoleInput lineInProgress() {
+        if (current == null && !lines.isEmpty()) {
+            byte[] bytes = (lines.poll() + "\n").getBytes(Charset.defaultCharset());
+            current = lineInput.apply(new ByteArrayInputStream(bytes));
+        }
+        return current;
+    }
+
+    /**
+     * Returns the input the next token comes from: the pushed-back lines that still hold a token,
+     * or the underlying input. Pushed-back lines with only whitespace left are skipped, as they would be
+     * when looking for a token in the underlying input.
+     *
+     * @return The input.
+     */
+    private ConsoleInput tokenSource() {
+        while (true) {
+            ConsoleInput in = lineInProgress();
+            if (in == null) {
+                return delegate;
+            }
+            if (in.hasNext()) {
+                return in;
+            }
+            current = null;
+        }
+    }
+}
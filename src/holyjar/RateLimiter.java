@@ -0,0 +1,221 @@
+package holyjar;
+
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RateLimiter caps how often entries with the same key are logged, so one failing call site cannot flood
+ * the log file. Every key has its own token bucket, kept as a single theoretical arrival time that is
+ * advanced with a compare-and-set, so the check never takes a lock and a rejected entry costs one clock read,
+ * one volatile read and one counter increment. Suppressed entries are counted per key and reported
+ * periodically as one summary entry per key.
+ */
+final class RateLimiter {
+
+    /**
+     * Receives the summary entries of suppressed messages.
+     */
+    interface SummaryHandler {
+
+        /**
+         * Writes a summary entry, bypassing the rate limit.
+         *
+         * @param logLevel The level of the suppressed entries.
+         * @param message The summary message.
+         */
+        void write(String logLevel, String message);
+    }
+
+    // Number of keys tracked individually; entries with further keys share one bucket
+    private static final int MAX_KEYS = 1024;
+
+    // Longest key description repeated in a summary entry
+    private static final int MAX_DESCRIPTION_LENGTH = 200;
+
+    // Marker of the lambda classes that key supplier messages
+    private static final String LAMBDA_MARKER = "$$Lambda";
+
+    // Frames of these classes are skipped when the call site is determined
+    private static final String NAMED_LOGGER_CLASS = NamedLogger.class.getName();
+    private static final String LOGGER_CLASS = Logger.class.getName();
+    private static final String LIMITER_CLASS = RateLimiter.class.getName();
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    // Time between two admitted entries of a key, and the time credit that allows a burst
+    private final long intervalNanos;
+    private final long toleranceNanos;
+
+    private final Logger.RateLimitKey keyMode;
+    private final ConcurrentHashMap<Object, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Bucket overflow;
+    private final LoggerMetrics metrics;
+    private final SummaryHandler handler;
+    private final ScheduledFuture<?> summaryTask;
+
+    /**
+     * Creates a rate limiter and schedules its summaries.
+     *
+     * @param entriesPerSecond The sustained number of entries per second admitted for each key.
+     * @param burst The number of entries of a key admitted at once after it was quiet.
+     * @param keyMode What identifies entries as similar.
+     * @param summaryIntervalMillis The time between two summaries of the suppressed entries.
+     * @param metrics The metrics that count suppressed entries.
+     * @param handler The handler that writes the summaries.
+     */
+    RateLimiter(double entriesPerSecond, int burst, Logger.RateLimitKey keyMode, long summaryIntervalMillis,
+                LoggerMetrics metrics, SummaryHandler handler) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / entriesPerSecond));
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.keyMode = keyMode;
+        this.metrics = metrics;
+        this.handler = handler;
+        this.overflow = new Bucket("other messages", System.nanoTime());
+        long period = Math.max(1, summaryIntervalMillis);
+        this.summaryTask = LogScheduler.get().scheduleAtFixedRate(this::summarize, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decides whether an entry is logged.
+     *
+     * @param logLevel The level of the entry.
+     * @param key The message or template of the entry, or the class of its message supplier.
+     * @return True if the entry is within the rate of its key.
+     */
+    boolean admit(String logLevel, Object key) {
+        long now = System.nanoTime();
+        Bucket bucket = bucket(keyMode == Logger.RateLimitKey.CALL_SITE ? callSite() : key, now);
+        AtomicLong arrival = bucket.arrival;
+        while (true) {
+            long expected = arrival.get();
+            if (expected - now > toleranceNanos) {
+                bucket.suppressed.increment();
+                if (bucket.logLevel != logLevel) {
+                    bucket.logLevel = logLevel;
+                }
+                metrics.recordRateLimited();
+                return false;
+            }
+            if (arrival.compareAndSet(expected, Math.max(expected, now) + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic summaries and writes a final one.
+     */
+    void shutdown() {
+        summaryTask.cancel(false);
+        summarize();
+    }
+
+    /**
+     * Writes one summary entry for every key with suppressed entries and forgets keys whose bucket
+     * has refilled completely. Runs on the scheduler thread.
+     */
+    void summarize() {
+        long now = System.nanoTime();
+        for (Iterator<Bucket> it = buckets.values().iterator(); it.hasNext(); ) {
+            Bucket bucket = it.next();
+            if (!report(bucket) && bucket.arrival.get() - now <= 0) {
+                it.remove();
+            }
+        }
+        report(overflow);
+    }
+
+    /**
+     * Writes the summary entry of one bucket if it suppressed entries since the last summary.
+     *
+     * @param bucket The bucket.
+     * @return True if a summary was written.
+     */
+    private boolean report(Bucket bucket) {
+        long count = bucket.suppressed.sumThenReset();
+        if (count == 0) {
+            return false;
+        }
+        try {
+            handler.write(bucket.logLevel, bucket.description + " (" + count + " similar messages suppressed)");
+        } catch (RuntimeException e) {
+            System.err.println("Failed to write suppressed message summary: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bucket of a key, creating it if the key is new and the key limit is not reached.
+     *
+     * @param key The key.
+     * @param now The current time in nanoseconds.
+     * @return The bucket.
+     */
+    private Bucket bucket(Object key, long now) {
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= MAX_KEYS) {
+            return overflow;
+        }
+        return buckets.computeIfAbsent(key, k -> new Bucket(describe(k), now));
+    }
+
+    /**
+     * Describes a key for the summary entries.
+     *
+     * @param key The key.
+     * @return The message, template or call site, shortened if it is long.
+     */
+    private static String describe(Object key) {
+        String text;
+        if (key instanceof Class) {
+            // Supplier lambdas are named after the class that declares them
+            text = ((Class<?>) key).getName();
+            int marker = text.indexOf(LAMBDA_MARKER);
+            text = "messages from " + (marker > 0 ? text.substring(0, marker) : text);
+        } else {
+            text = String.valueOf(key);
+        }
+        return text.length() > MAX_DESCRIPTION_LENGTH ? text.substring(0, MAX_DESCRIPTION_LENGTH) + "..." : text;
+    }
+
+    /**
+     * Determines the code that called the logger.
+     *
+     * @return The class, method and line of the first frame outside the logger classes.
+     */
+    private static String callSite() {
+        return WALKER.walk(frames -> frames
+                .filter(frame -> !frame.getClassName().equals(NAMED_LOGGER_CLASS)
+                        && !frame.getClassName().equals(LOGGER_CLASS)
+                        && !frame.getClassName().equals(LIMITER_CLASS))
+                .findFirst()
+                .map(frame -> frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                .orElse("unknown"));
+    }
+
+    /**
+     * The token bucket of one key.
+     */
+    private static final class Bucket {
+
+        // Time at which the bucket is full again; entries are admitted while it is at most the tolerance ahead
+        final AtomicLong arrival;
+        final LongAdder suppressed = new LongAdder();
+        final String description;
+
+        // Level of the most recently suppressed entry, used for the summary
+        volatile String logLevel = Logger.INFO;
+
+        Bucket(String description, long now) {
+            this.description = description;
+            this.arrival = new AtomicLong(now);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package holyjar;
+
+
+import java.io.InputStream;
+import java.util.Scanner;
+
+/**
+ * ScannerInput reads console input with {@link Scanner}. It accepts everything Scanner accepts,
+ * including locale-specific grouping separators, and is the input used on interactive terminals.
+ */
+final class ScannerInput implements ConsoleInput {
+
+    private final Scanner scanner;
+
+    /**
+     * Creates a Scanner-based input.
+     *
+     * @param in The stream to read.
+     */
+    ScannerInput(InputStream in) {
+        this.scanner = new Scanner(in);
+    }
+
+    @Override
+    public String nextLine() {
+        return scanner.nextLine();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return scanner.hasNext();
+    }
+
+    @Override
+    public String next() {
+        return scanner.next();
+    }
+
+    @Override
+    public boolean hasNextInt() {
+        return scanner.hasNextInt();
+    }
+
+    @Override
+    public int nextInt() {
+        return scanner.nextInt();
+    }
+
+    @Override
+    public boolean hasNextLong() {
+        return scanner.hasNextLong();
+    }
+
+    @Override
+    public long nextLong() {
+        return scanner.nextLong();
+    }
+
+    @Override
+    public boolean hasNextDouble() {
+        return scanner.hasNextDouble();
+    }
+
+    @Override
+    public double nextDouble() {
+        return scanner.nextDouble();
+    }
+
+    @Override
+    public boolean hasNextFloat() {
+        return scanner.hasNextFloat();
+    }
+
+    @Override
+    public float nextFloat() {
+        return scanner.nextFloat();
+    }
+
+    @Override
+    public boolean hasNextBoolean() {
+        return scanner.hasNextBoolean();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return scanner.nextBoolean();
+    }
+
+    @Override
+    public void close() {
+        scanner.close();
+    }
+}
@@ -0,0 +1,157 @@
+package holyjar;
+
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SinkHandle is the attachment of a {@link LogSink} to a logger. It owns the sink's ring buffer and writer thread,
+ * and carries the sink's own level filter and error counter.
+ */
+public final class SinkHandle {
+
+    private final LogSink sink;
+    private final AsyncLogWriter writer;
+
+    // Severity rank below which entries are not passed to this sink
+    private volatile int minSeverity;
+
+    // Number of writes, flushes or closes that failed
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /**
+     * Attaches a sink, starting its writer thread.
+     *
+     * @param sink The sink to feed.
+     * @param level The least severe level passed to the sink.
+     * @param capacity The number of entries the sink's buffer can hold.
+     * @param policy What to do with new entries while the buffer is full.
+     */
+    SinkHandle(LogSink sink, Level level, int capacity, Logger.OverflowPolicy policy) {
+        this.sink = sink;
+        this.minSeverity = level.ordinal();
+        this.writer = new AsyncLogWriter(capacity, policy, this::writeBatch);
+    }
+
+    /**
+     * Returns the attached sink.
+     *
+     * @return The sink.
+     */
+    public LogSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Sets the least severe level passed to the sink.
+     *
+     * @param level The new minimum level.
+     */
+    public void setLevel(Level level) {
+        minSeverity = level.ordinal();
+    }
+
+    /**
+     * Returns the least severe level passed to the sink.
+     *
+     * @return The minimum level.
+     */
+    public Level getLevel() {
+        return Level.ofSeverity(minSeverity);
+    }
+
+    /**
+     * Returns how many writes, flushes or closes of the sink have failed.
+     *
+     * @return The error count.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Returns how many entries were discarded because the sink's buffer was full.
+     *
+     * @return The dropped entry count.
+     */
+    public long getDroppedCount() {
+        return writer.getDroppedCount();
+    }
+
+    /**
+     * Blocks until every entry passed to this sink before the call has been written and flushed.
+     */
+    public void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Queues an entry for the sink if it passes the sink's level filter.
+     *
+     * @param severity The severity rank of the entry.
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The level label of the entry.
+     * @param message The message of the entry.
+     */
+    void offer(int severity, long timestamp, String level, String message) {
+        if (severity >= minSeverity && !writer.offer(timestamp, level, message, null)) {
+            // The writer has shut down; write on the caller thread rather than losing the entry
+            write(timestamp, level, message);
+            flushSink();
+        }
+    }
+
+    /**
+     * Drains the buffer and closes the sink.
+     */
+    void close() {
+        writer.shutdown();
+        try {
+            sink.close();
+        } catch (IOException | RuntimeException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes a batch drained from the ring buffer on the sink's writer thread.
+     *
+     * @param timestamps The entry timestamps in epoch milliseconds.
+     * @param levels The entry log levels.
+     * @param messages The entry messages.
+     * @param throwables Unused; sinks receive messages with their exceptions already rendered.
+     * @param count The number of entries in the batch.
+     */
+    private void writeBatch(long[] timestamps, String[] levels, String[] messages, Throwable[] throwables, int count) {
+        for (int i = 0; i < count; i++) {
+            write(timestamps[i], levels[i], messages[i]);
+        }
+        flushSink();
+    }
+
+    /**
+     * Writes one entry, counting failures instead of propagating them.
+     *
+     * @param timestamp The time of the entry in epoch milliseconds.
+     * @param level The level label of the entry.
+     * @param message The message of the entry.
+     */
+    private void write(long timestamp, String level, String message) {
+        try {
+            sink.write(timestamp, level, message);
+        } catch (IOException | RuntimeException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Flushes the sink, counting failures instead of propagating them.
+     */
+    private void flushSink() {
+        try {
+            sink.flush();
+        } catch (IOException | RuntimeException e) {
+            errorCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package holyjar;
+
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ThrowableRenderer writes exceptions into log entries with their full cause chain and suppressed exceptions,
+ * and deduplicates repeated stack traces. Every exception is fingerprinted by a hash of the classes and frames
+ * of its whole chain; the first occurrence of a fingerprint is written in full under a short trace id, and
+ * later occurrences only refer to it, for example "same as trace #1f3a9c07, x37".
+ * The registry starts over whenever the log file rotates, so every file contains the traces it refers to.
+ */
+final class ThrowableRenderer {
+
+    // Number of distinct traces remembered; the registry starts over when it is full
+    private static final int MAX_TRACES = 1024;
+
+    // Nesting depth of causes and suppressed exceptions that is still rendered and fingerprinted
+    private static final int MAX_DEPTH = 32;
+
+    // Multiplier of the fingerprint hash (the 64-bit golden ratio)
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    // Traces written so far, by fingerprint
+    private final ConcurrentHashMap<Long, Trace> traces = new ConcurrentHashMap<>();
+
+    // Rotation count of the log file when the registry was last cleared
+    private final LoggerMetrics metrics;
+    private volatile long rotations;
+
+    // Whether repeated traces are written as references
+    private volatile boolean deduplicate = true;
+
+    /**
+     * Creates a renderer for the entries of one log file.
+     *
+     * @param metrics The metrics of the log file, used to notice rotations.
+     */
+    ThrowableRenderer(LoggerMetrics metrics) {
+        this.metrics = metrics;
+        this.rotations = metrics.getRotationCount();
+    }
+
+    /**
+     * Selects whether repeated stack traces are written as references to their first occurrence.
+     *
+     * @param enabled True to deduplicate, false to write every trace in full.
+     */
+    void setDeduplicate(boolean enabled) {
+        deduplicate = enabled;
+        traces.clear();
+    }
+
+    /**
+     * Returns whether repeated stack traces are written as references.
+     *
+     * @return True if traces are deduplicated.
+     */
+    boolean isDeduplicate() {
+        return deduplicate;
+    }
+
+    /**
+     * Renders a message followed by an exception.
+     *
+     * @param message The message of the entry.
+     * @param thrown The exception, or null for none.
+     * @return The message itself if there is no exception, otherwise a new builder with both.
+     */
+    CharSequence render(CharSequence message, Throwable thrown) {
+        if (thrown == null) {
+            return message;
+        }
+        StringBuilder sb = new StringBuilder(message.length() + 256);
+        sb.append(message);
+        append(sb, thrown);
+        return sb;
+    }
+
+    /**
+     * Appends an exception in the layout used for error entries: its class and message, then either its
+     * stack trace with causes and suppressed exceptions, or a reference to an earlier identical trace.
+     *
+     * @param sb The builder to append to.
+     * @param thrown The exception.
+     */
+    void append(StringBuilder sb, Throwable thrown) {
+        sb.append("\nException: ").append(thrown.getClass().getName());
+        sb.append("\nMessage: ").append(thrown.getMessage());
+        sb.append("\nStackTrace: ");
+        StackTraceElement[] frames = thrown.getStackTrace();
+        if (!deduplicate) {
+            appendFrames(sb, thrown, frames);
+            return;
+        }
+
+        long current = metrics.getRotationCount();
+        if (current != rotations || traces.size() >= MAX_TRACES) {
+            // The earlier traces are in a backup file now, or too many distinct ones are known
+            rotations = current;
+            traces.clear();
+        }
+        long fingerprint = fingerprint(thrown, frames);
+        Trace trace = traces.get(fingerprint);
+        if (trace == null) {
+            Trace created = new Trace(fingerprint);
+            trace = traces.putIfAbsent(fingerprint, created);
+            if (trace == null) {
+                sb.append('#').append(created.id);
+                appendFrames(sb, thrown, frames);
+                return;
+            }
+        }
+        sb.append("same as trace #").append(trace.id).append(", x").append(trace.count.incrementAndGet());
+    }
+
+    /**
+     * Appends the frames of an exception followed by its suppressed exceptions and causes.
+     *
+     * @param sb The builder to append to.
+     * @param thrown The exception.
+     * @param frames Its stack trace.
+     */
+    private static void appendFrames(StringBuilder sb, Throwable thrown, StackTraceElement[] frames) {
+        for (StackTraceElement frame : frames) {
+            sb.append("\n    ").append(frame);
+        }
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(thrown);
+        appendRelated(sb, thrown, frames, "", seen, 0);
+    }
+
+    /**
+     * Appends the suppressed exceptions and the cause of an exception, like {@link Throwable#printStackTrace()}:
+     * frames shared with the enclosing trace are elided as "... n more".
+     *
+     * @param sb The builder to append to.
+     * @param thrown The exception whose related exceptions are appended.
+     * @param frames Its stack trace.
+     * @param indent The indentation of the enclosing trace.
+     * @param seen The exceptions already rendered, to stop at circular references.
+     * @param depth The nesting depth.
+     */
+    private static void appendRelated(StringBuilder sb, Throwable thrown, StackTraceElement[] frames, String indent,
+                                      Set<Throwable> seen, int depth) {
+        for (Throwable suppressed : thrown.getSuppressed()) {
+            appendEnclosed(sb, suppressed, frames, indent + "    ", "Suppressed: ", seen, depth + 1);
+        }
+        Throwable cause = thrown.getCause();
+        if (cause != null) {
+            appendEnclosed(sb, cause, frames, indent, "Caused by: ", seen, depth + 1);
+        }
+    }
+
+    /**
+     * Appends a cause or suppressed exception with the frames it does not share with the enclosing trace.
+     *
+     * @param sb The builder to append to.
+     * @param thrown The cause or suppressed exception.
+     * @param enclosing The stack trace of the enclosing exception.
+     * @param indent The indentation of this trace.
+     * @param caption "Caused by: " or "Suppressed: ".
+     * @param seen The exceptions already rendered.
+     * @param depth The nesting depth.
+     */
+    private static void appendEnclosed(StringBuilder sb, Throwable thrown, StackTraceElement[] enclosing,
+                                       String indent, String caption, Set<Throwable> seen, int depth) {
+        if (!seen.add(thrown)) {
+            sb.append('\n').append(indent).append(caption).append("[CIRCULAR REFERENCE: ").append(thrown).append(']');
+            return;
+        }
+        if (depth > MAX_DEPTH) {
+            sb.append('\n').append(indent).append(caption).append("...");
+            return;
+        }
+        StackTraceElement[] frames = thrown.getStackTrace();
+        // Count the frames at the bottom that both traces share
+        int unique = frames.length - 1;
+        int other = enclosing.length - 1;
+        while (unique >= 0 && other >= 0 && frames[unique].equals(enclosing[other])) {
+            unique--;
+            other--;
+        }
+        sb.append('\n').append(indent).append(caption).append(thrown);
+        for (int i = 0; i <= unique; i++) {
+            sb.append('\n').append(indent).append("    ").append(frames[i]);
+        }
+        int shared = frames.length - 1 - unique;
+        if (shared > 0) {
+            sb.append('\n').append(indent).append("    ... ").append(shared).append(" more");
+        }
+        appendRelated(sb, thrown, frames, indent, seen, depth);
+    }
+
+    /**
+     * Computes the fingerprint of an exception from the classes and frames of its whole chain.
+     * Messages are left out, so the same failure with different details shares a fingerprint.
+     *
+     * @param thrown The exception.
+     * @param frames Its stack trace.
+     * @return The fingerprint.
+     */
+    private static long fingerprint(Throwable thrown, StackTraceElement[] frames) {
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        seen.add(thrown);
+        long hash = hash(thrown, frames, 0, seen, 0);
+        // Final avalanche so that similar chains give unrelated ids
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Hashes an exception and the exceptions related to it.
+     *
+     * @param thrown The exception.
+     * @param frames Its stack trace.
+     * @param hash The hash so far.
+     * @param seen The exceptions already hashed.
+     * @param depth The nesting depth.
+     * @return The updated hash.
+     */
+    private static long hash(Throwable thrown, StackTraceElement[] frames, long hash, Set<Throwable> seen, int depth) {
+        hash = hash * HASH_MULTIPLIER + thrown.getClass().getName().hashCode();
+        for (StackTraceElement frame : frames) {
+            hash = hash * HASH_MULTIPLIER + frame.hashCode();
+        }
+        if (depth >= MAX_DEPTH) {
+            return hash;
+        }
+        for (Throwable suppressed : thrown.getSuppressed()) {
+            if (seen.add(suppressed)) {
+                // Marks the start of a suppressed exception, so it hashes differently from a cause
+                hash = hash * HASH_MULTIPLIER + 1;
+                hash = hash(suppressed, suppressed.getStackTrace(), hash, seen, depth + 1);
+            }
+        }
+        Throwable cause = thrown.getCause();
+        if (cause != null && seen.add(cause)) {
+            hash = hash * HASH_MULTIPLIER + 2;
+            hash = hash(cause, cause.getStackTrace(), hash, seen, depth + 1);
+        }
+        return hash;
+    }
+
+    /**
+     * A stack trace that has been written in full.
+     */
+    private static final class Trace {
+
+        // Short id shown in the entries, the low 32 bits of the fingerprint in hex
+        final String id;
+
+        // Occurrences written as references
+        final AtomicLong count = new AtomicLong(1);
+
+        Trace(long fingerprint) {
+            String hex = Integer.toHexString((int) fingerprint);
+            this.id = "00000000".substring(hex.length()) + hex;
+        }
+    }
+}
@@ -1,3 +1,5 @@
 module holyJAR {
+    requires java.management;
+
     exports holyjar;
 }
\ No newline at end of file